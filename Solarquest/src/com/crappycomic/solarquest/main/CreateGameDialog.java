@@ -6,7 +6,7 @@ package com.crappycomic.solarquest.main;
 
 import java.awt.Color;
 import java.awt.event.*;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
 import javax.swing.*;
@@ -407,6 +407,17 @@ public class CreateGameDialog extends JDialog implements Server.HandshakeObserve
       {
          serverModel.fixOwnedNodes();
       }
+      
+      String journalDirectory = System.getProperty(GameJournal.DIRECTORY_PROPERTY);
+      
+      // A recovered game already has its journal.
+      if (journalDirectory != null && serverModel.getJournal() == null)
+         GameJournal.create(new File(journalDirectory, serverModel.getID() + "-" + System.currentTimeMillis()), serverModel);
+      
+      String autosaveFile = System.getProperty(Autosave.FILE_PROPERTY);
+      
+      if (autosaveFile != null)
+         Autosave.start(new File(autosaveFile), serverModel);
 
       serverModel.setServer(server);
       server.setModel(serverModel);
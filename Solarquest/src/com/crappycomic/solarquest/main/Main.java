@@ -10,7 +10,7 @@ import java.io.*;
 
 import javax.swing.*;
 
-import com.crappycomic.solarquest.model.ServerModel;
+import com.crappycomic.solarquest.model.*;
 
 /** Displays the initial options and hands off control to the appropriate dialog. */
 public class Main
@@ -64,7 +64,7 @@ public class Main
             {
                try
                {
-                  new CreateGameDialog(frame, (ServerModel)new ObjectInputStream(new FileInputStream(file)).readObject());
+                  new CreateGameDialog(frame, SaveFile.load(file));
                }
                catch (Exception e)
                {
@@ -75,6 +75,35 @@ public class Main
          }
       });
       
+      frame.add(button = new JButton("Recover a Game"));
+      button.addActionListener(new ActionListener()
+      {
+         @Override
+         public void actionPerformed(ActionEvent evt)
+         {
+            JFileChooser fileChooser = new JFileChooser(System.getProperty(GameJournal.DIRECTORY_PROPERTY));
+            
+            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            fileChooser.setMultiSelectionEnabled(false);
+            fileChooser.showOpenDialog(frame);
+            
+            File directory = fileChooser.getSelectedFile();
+            
+            if (directory != null)
+            {
+               try
+               {
+                  new CreateGameDialog(frame, GameJournal.recover(directory));
+               }
+               catch (Exception e)
+               {
+                  JOptionPane.showMessageDialog(frame, "Error recovering game: " + e.toString(), "Error", JOptionPane.ERROR_MESSAGE);
+                  e.printStackTrace();
+               }
+            }
+         }
+      });
+      
       frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);      
       frame.pack();
       frame.setLocationRelativeTo(null);
@@ -58,6 +58,12 @@ public class Action implements Serializable
       }
    }
    
+   /** Returns the factor this action multiplies a roll by, which is 1 unless it rolls with a multiplier. */
+   int getRollMultiplier()
+   {
+      return type == Type.ROLL_WITH_MULTIPLIER ? (Integer)value : 1;
+   }
+   
    /**
     * Instructs the given {@link ServerModel model} to impart the change this action 
     * represents on the given {@link Player player}.
@@ -0,0 +1,282 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Saves a hosted game to a file whenever a turn ends, so a crash loses no more than the turn in
+ * progress. The file is an ordinary {@link SaveFile}, loaded like any other saved game.
+ * <p>
+ * The game thread only takes a snapshot: a {@link ModelSnapshot} of the players and nodes, plus a
+ * {@link ServerModel#copyState() copy} of the rest of the game's state, a few small arrays in
+ * all. A thread of the autosave's own encodes the snapshot, writes it to a temporary file, forces
+ * it to disk, and renames it over the previous save, so the file on disk is always a whole save.
+ * If turns end faster than the disk keeps up, the writer skips to the latest snapshot.
+ */
+public class Autosave implements Closeable
+{
+   /** System property naming the file to which newly hosted games are saved every turn. */
+   public static final String FILE_PROPERTY = "solarquest.autosaveFile";
+   
+   private static final String TEMPORARY_SUFFIX = ".tmp";
+   
+   /** The state of a game at the end of a turn. */
+   private static class Snapshot
+   {
+      private ServerModel state;
+      
+      private ModelSnapshot players;
+      
+      private Snapshot(ServerModel state, ModelSnapshot players)
+      {
+         this.state = state;
+         this.players = players;
+      }
+   }
+   
+   private File file;
+   
+   // only the game thread changes these
+   private volatile long snapshots;
+   
+   private volatile long snapshotNanos;
+   
+   private volatile long maximumSnapshotNanos;
+   
+   // guards everything below it
+   private Object lock = new Object();
+   
+   // the latest snapshot not yet written, if any
+   private Snapshot pending;
+   
+   private long saves;
+   
+   private boolean closed;
+   
+   private IOException failure;
+   
+   private Thread writer;
+   
+   private Autosave(File file)
+   {
+      this.file = file;
+   }
+   
+   /**
+    * Starts saving the given game to the given file, beginning with the game as it stands, and
+    * attaches the autosave to the game, which hands it a snapshot whenever a turn ends.
+    */
+   public static Autosave start(File file, ServerModel model)
+   {
+      final Autosave autosave = new Autosave(file);
+      
+      autosave.writer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            autosave.write();
+         }
+      }, "Autosave to " + file.getName());
+      autosave.writer.setDaemon(true);
+      autosave.writer.start();
+      autosave.capture(model);
+      
+      model.setAutosave(autosave);
+      
+      return autosave;
+   }
+   
+   public File getFile()
+   {
+      return file;
+   }
+   
+   /**
+    * Takes a snapshot of the given model and hands it to the writer. Called by the model, on its
+    * own thread, between messages.
+    */
+   void capture(ServerModel model)
+   {
+      long start = System.nanoTime();
+      Snapshot snapshot = new Snapshot(model.copyState(), new ModelSnapshot(model));
+      long nanos = System.nanoTime() - start;
+      
+      synchronized (lock)
+      {
+         if (closed)
+            return;
+         
+         pending = snapshot;
+         lock.notifyAll();
+      }
+      
+      snapshots++;
+      snapshotNanos += nanos;
+      
+      if (nanos > maximumSnapshotNanos)
+         maximumSnapshotNanos = nanos;
+   }
+   
+   /** Returns the number of snapshots taken so far. */
+   public long getSnapshots()
+   {
+      return snapshots;
+   }
+   
+   /** Returns the average time the game thread has spent taking a snapshot, in nanoseconds. */
+   public long getAverageSnapshotNanos()
+   {
+      long snapshots = this.snapshots;
+      
+      return snapshots == 0 ? 0 : snapshotNanos / snapshots;
+   }
+   
+   /** Returns the longest time the game thread has spent taking a snapshot, in nanoseconds. */
+   public long getMaximumSnapshotNanos()
+   {
+      return maximumSnapshotNanos;
+   }
+   
+   /** Returns the number of saves written to disk so far, which skipped snapshots make fewer than the snapshots. */
+   public long getSaves()
+   {
+      synchronized (lock)
+      {
+         return saves;
+      }
+   }
+   
+   public String getMetrics()
+   {
+      return getSnapshots() + " snapshots, " + getAverageSnapshotNanos() / 1000.0 + " us average, "
+         + getMaximumSnapshotNanos() / 1000.0 + " us maximum, " + getSaves() + " saves written";
+   }
+   
+   /**
+    * Waits until the latest snapshot is on disk.
+    *
+    * @throws IOException if the game could not be saved
+    */
+   public void flush() throws IOException
+   {
+      synchronized (lock)
+      {
+         while (pending != null && failure == null)
+         {
+            try
+            {
+               lock.wait();
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               throw new InterruptedIOException();
+            }
+         }
+         
+         if (failure != null)
+            throw new IOException("Game could not be saved to " + file, failure);
+      }
+   }
+   
+   /** Writes the latest snapshot, if it is still waiting, then stops the writer. */
+   @Override
+   public void close() throws IOException
+   {
+      synchronized (lock)
+      {
+         closed = true;
+         lock.notifyAll();
+      }
+      
+      try
+      {
+         writer.join();
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException();
+      }
+      
+      if (failure != null)
+         throw new IOException("Game could not be saved to " + file, failure);
+   }
+   
+   /** The writer thread: writes the latest snapshot, whenever there is one. */
+   private void write()
+   {
+      try
+      {
+         while (true)
+         {
+            Snapshot snapshot;
+            
+            synchronized (lock)
+            {
+               while (pending == null && !closed)
+                  lock.wait();
+               
+               if (pending == null)
+                  break;
+               
+               snapshot = pending;
+            }
+            
+            write(snapshot);
+            
+            synchronized (lock)
+            {
+               // A newer snapshot may have arrived in the meantime.
+               if (pending == snapshot)
+                  pending = null;
+               
+               saves++;
+               lock.notifyAll();
+            }
+         }
+      }
+      catch (InterruptedException ie)
+      {
+         // Nothing more will be written.
+      }
+      catch (IOException ioe)
+      {
+         ioe.printStackTrace();
+         
+         synchronized (lock)
+         {
+            failure = ioe;
+            closed = true;
+            pending = null;
+            lock.notifyAll();
+         }
+      }
+   }
+   
+   private void write(Snapshot snapshot) throws IOException
+   {
+      File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+      FileOutputStream stream = new FileOutputStream(temporary);
+      
+      try
+      {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+         
+         SaveFile.write(snapshot.state, snapshot.players, out);
+         out.flush();
+         stream.getFD().sync();
+      }
+      finally
+      {
+         stream.close();
+      }
+      
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+}
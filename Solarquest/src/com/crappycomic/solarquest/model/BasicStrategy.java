@@ -0,0 +1,139 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+
+import com.crappycomic.solarquest.model.ModelMessage.Type;
+
+/**
+ * A simple {@link Simulation.Strategy}: buys every node it can afford, keeps its tank topped up
+ * when fuel runs low, places fuel stations as soon as it can, sells its cheapest holdings to
+ * settle debts, and never trades or fires lasers. Mostly useful as a baseline.
+ */
+public class BasicStrategy implements Simulation.Strategy
+{
+   @Override
+   public ModelMessage preRoll(Model model, Player player)
+   {
+      ModelMessage message = manage(model, player);
+      
+      return message == null ? new ModelMessage(Type.NO_PRE_ROLL, player.getNumber(), null) : message;
+   }
+   
+   @Override
+   public ModelMessage preLand(Model model, Player player)
+   {
+      return new ModelMessage(Type.NO_PRE_LAND, player.getNumber(), null);
+   }
+   
+   @Override
+   public ModelMessage postRoll(Model model, Player player)
+   {
+      if (model.isNodePurchaseable())
+         return new ModelMessage(Type.PURCHASE_NODE, player.getNumber(), null);
+      
+      ModelMessage message = manage(model, player);
+      
+      return message == null ? new ModelMessage(Type.NO_POST_ROLL, player.getNumber(), null) : message;
+   }
+   
+   @Override
+   public ModelMessage chooseAllowedMove(Model model, Player player, List<Node> allowedMoves)
+   {
+      // Prefer somewhere to buy, then anywhere without rent to pay.
+      for (Node node : allowedMoves)
+         if (node.isPurchaseable())
+            return chooseAllowedMove(player, node);
+      
+      for (Node node : allowedMoves)
+         if (node.getOwner() == null || node.getOwner().equals(player))
+            return chooseAllowedMove(player, node);
+      
+      return chooseAllowedMove(player, allowedMoves.get(0));
+   }
+   
+   @Override
+   public ModelMessage settleDebt(Model model, Player debtor, Player creditor, int amount)
+   {
+      if (model.isFuelStationSalableForDebtSettlement(debtor))
+         return new ModelMessage(Type.SELL_FUEL_STATION_FOR_DEBT_SETTLEMENT, debtor.getNumber(), null);
+      
+      if (model.isNodeSalableForDebtSettlement(debtor))
+         return new ModelMessage(Type.SELL_NODE_FOR_DEBT_SETTLEMENT, debtor.getNumber(),
+            getCheapestNode(model, debtor.getOwnedNodes()).getID());
+      
+      return new ModelMessage(Type.DECLARE_BANKRUPTCY, debtor.getNumber(), null);
+   }
+   
+   @Override
+   public ModelMessage decideTrade(Model model, Player player, Trade trade)
+   {
+      return new ModelMessage(Type.TRADE_COMPLETED, player.getNumber(), false);
+   }
+   
+   @Override
+   public ModelMessage chooseNodeLostToLeague(Model model, Player player)
+   {
+      return new ModelMessage(Type.CHOOSE_NODE_LOST_TO_LEAGUE, player.getNumber(),
+         getCheapestNode(model, player.getOwnedNodes()).getID());
+   }
+   
+   @Override
+   public ModelMessage chooseNodeWonFromLeague(Model model, Player player)
+   {
+      return new ModelMessage(Type.CHOOSE_NODE_WON_FROM_LEAGUE, player.getNumber(),
+         getDearestNode(model, model.getUnownedNodes()).getID());
+   }
+   
+   @Override
+   public ModelMessage chooseNodeWonFromPlayer(Model model, Player player)
+   {
+      return new ModelMessage(Type.CHOOSE_NODE_WON_FROM_PLAYER, player.getNumber(),
+         getDearestNode(model, model.getOwnedNodes(player)).getID());
+   }
+   
+   /** Returns a fuel or fuel station transaction worth making before moving on, or null if none is. */
+   private static ModelMessage manage(Model model, Player player)
+   {
+      if (player.getFuel() <= model.getLowFuel() && model.isFuelPurchaseable())
+         return new ModelMessage(Type.PURCHASE_FUEL, player.getNumber(), model.getMaximumPurchaseableFuel());
+      
+      if (model.isFuelStationPlaceable())
+         return new ModelMessage(Type.PLACE_FUEL_STATION, player.getNumber(),
+            model.getFuelStationPlaceableNodes(player).get(0).getID());
+      
+      return null;
+   }
+   
+   private static ModelMessage chooseAllowedMove(Player player, Node node)
+   {
+      return new ModelMessage(Type.CHOOSE_ALLOWED_MOVE, player.getNumber(), node.getID());
+   }
+   
+   private static Node getCheapestNode(Model model, Collection<Node> nodes)
+   {
+      Node cheapest = null;
+      
+      for (Node node : nodes)
+         if (cheapest == null || model.getNodePrice(node) < model.getNodePrice(cheapest)
+            || (model.getNodePrice(node) == model.getNodePrice(cheapest) && node.compareTo(cheapest) < 0))
+            cheapest = node;
+      
+      return cheapest;
+   }
+   
+   private static Node getDearestNode(Model model, Collection<Node> nodes)
+   {
+      Node dearest = null;
+      
+      for (Node node : nodes)
+         if (dearest == null || model.getNodePrice(node) > model.getNodePrice(dearest)
+            || (model.getNodePrice(node) == model.getNodePrice(dearest) && node.compareTo(dearest) < 0))
+            dearest = node;
+      
+      return dearest;
+   }
+}
@@ -4,7 +4,7 @@
 
 package com.crappycomic.solarquest.model;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
 public class Board implements Serializable
@@ -12,10 +12,28 @@ public class Board implements Serializable
    private static final long serialVersionUID = 0;
 
    private Map<String, Node> nodes = new TreeMap<String, Node>();
+   
+   private List<Node> nodesByIndex = new ArrayList<Node>();
 
    private Node startNode;
    
-   private int[][] adjacencyMatrix;
+   // deed group names, by the index their nodes are given
+   private List<String> groups = new ArrayList<String>();
+   
+   // steps between nodes, ignoring direction, for laser battles; shared by copies
+   private transient DistanceMatrix distances;
+   
+   // indexes of the allowed moves, sorted like getAllowedMoves, by node index and distance; shared by copies
+   private transient int[][][] moveTable;
+   
+   // this board's own view of each entry in the move table, created the first time it is asked for
+   private transient NodeSet[] moveSets;
+   
+   // shared by copies
+   private transient PassesStartIndex passesStartIndex;
+   
+   // nodes within laser range of each node, for the range the rules allow; shared by copies
+   private transient LaserRangeIndex laserRanges;
    
    Collection<Node> getNodes()
    {
@@ -24,8 +42,27 @@ public class Board implements Serializable
    
    void addNode(Node node)
    {
+      indexGroup(node);
       node.setIndex(nodes.size());
       nodes.put(node.getID(), node);
+      nodesByIndex.add(node);
+   }
+   
+   /** Gives the given node the index of its deed group, adding the group if it is new. */
+   private void indexGroup(Node node)
+   {
+      if (node.getGroup() == null)
+         return;
+      
+      int groupIndex = groups.indexOf(node.getGroup());
+      
+      if (groupIndex < 0)
+      {
+         groupIndex = groups.size();
+         groups.add(node.getGroup());
+      }
+      
+      node.setGroupIndex(groupIndex);
    }
 
    void setStartNode(Node startNode)
@@ -61,12 +98,105 @@ public class Board implements Serializable
       return nodes.get(nodeID);
    }
    
+   /** Returns the node with the given {@link Node#getIndex() index}. */
+   public Node getNode(int index)
+   {
+      return nodesByIndex.get(index);
+   }
+   
+   public int getNodeCount()
+   {
+      return nodesByIndex.size();
+   }
+   
    public boolean hasNode(String nodeID)
    {
       return nodes.containsKey(nodeID);
    }
    
+   /**
+    * Returns a copy of this board whose nodes are copies of this board's, linked the same way.
+    * Node owners are left for the caller to fill in. The distances between nodes and the other
+    * indexes never change, so the copy shares them.
+    */
+   Board copy()
+   {
+      Board copy = new Board();
+      
+      for (Node node : nodesByIndex)
+         copy.addNode(node.copy());
+      
+      for (Node node : nodesByIndex)
+      {
+         Node nodeCopy = copy.getNode(node.getIndex());
+         
+         for (Node destination : node.getDestinations())
+            nodeCopy.addDestination(copy.getNode(destination.getIndex()));
+      }
+      
+      copy.startNode = startNode == null ? null : copy.getNode(startNode.getIndex());
+      copy.distances = distances;
+      copy.moveTable = moveTable;
+      copy.passesStartIndex = passesStartIndex;
+      copy.laserRanges = laserRanges;
+      
+      return copy;
+   }
+   
+   /**
+    * Returns the nodes a player on the given node may move to with the given roll. Looks the
+    * answer up in the move table, if it covers the distance, returning the same unmodifiable set
+    * every time. Otherwise, walks the board.
+    */
    public Set<Node> getAllowedMoves(Node node, int distance)
+   {
+      if (moveTable == null || distance < 0 || distance >= moveTable[0].length)
+         return walkAllowedMoves(node, distance);
+      
+      int entry = node.getIndex() * moveTable[0].length + distance;
+      
+      if (moveSets == null)
+         moveSets = new NodeSet[moveTable.length * moveTable[0].length];
+      
+      if (moveSets[entry] == null)
+         moveSets[entry] = new NodeSet(moveTable[node.getIndex()][distance]);
+      
+      return moveSets[entry];
+   }
+   
+   /**
+    * Compiles the move table, so {@link #getAllowedMoves(Node, int)} can answer any distance up to
+    * the given one without walking the board. Does nothing if the table already covers it.
+    */
+   void initializeMoveTable(int maximumDistance)
+   {
+      if (moveTable != null && moveTable[0].length > maximumDistance)
+         return;
+      
+      int[][][] table = new int[nodesByIndex.size()][maximumDistance + 1][];
+      int[] none = new int[0];
+      
+      for (Node node : nodesByIndex)
+      {
+         for (int distance = 0; distance <= maximumDistance; distance++)
+         {
+            Set<Node> allowedMoves = walkAllowedMoves(node, distance);
+            int[] indexes = allowedMoves.isEmpty() ? none : new int[allowedMoves.size()];
+            int ndx = 0;
+            
+            for (Node allowedMove : allowedMoves)
+               indexes[ndx++] = allowedMove.getIndex();
+            
+            table[node.getIndex()][distance] = indexes;
+         }
+      }
+      
+      moveTable = table;
+      moveSets = null;
+   }
+   
+   /** Finds the allowed moves by walking the board. Slower than the move table, but needs no setup. */
+   Set<Node> walkAllowedMoves(Node node, int distance)
    {
       Set<Node> allowedMoves = new TreeSet<Node>();
       Node lastBranch = null;
@@ -136,8 +266,73 @@ public class Board implements Serializable
       return allowedMoves;
    }
    
-   // Breadth-first, shortest path to destination wins
+   /** An unmodifiable set of this board's nodes, listed by index in a move table entry. */
+   private class NodeSet extends AbstractSet<Node>
+   {
+      private int[] indexes;
+      
+      private NodeSet(int[] indexes)
+      {
+         this.indexes = indexes;
+      }
+      
+      @Override
+      public Iterator<Node> iterator()
+      {
+         return new Iterator<Node>()
+         {
+            private int next;
+            
+            @Override
+            public boolean hasNext()
+            {
+               return next < indexes.length;
+            }
+            
+            @Override
+            public Node next()
+            {
+               if (next >= indexes.length)
+                  throw new NoSuchElementException();
+               
+               return nodesByIndex.get(indexes[next++]);
+            }
+            
+            @Override
+            public void remove()
+            {
+               throw new UnsupportedOperationException();
+            }
+         };
+      }
+      
+      @Override
+      public int size()
+      {
+         return indexes.length;
+      }
+   }
+   
+   /**
+    * Returns true if the shortest path between the given nodes passes the start node. Neither end
+    * of the path counts. Just a lookup in a {@link PassesStartIndex}.
+    */
    public boolean passesStart(Node fromNode, Node toNode)
+   {
+      // Boards that arrived by serialization come without the index.
+      if (passesStartIndex == null)
+         initializePassesStartIndex();
+      
+      return passesStartIndex.get(fromNode.getIndex(), toNode.getIndex());
+   }
+   
+   void initializePassesStartIndex()
+   {
+      passesStartIndex = new PassesStartIndex(nodesByIndex);
+   }
+   
+   /** The original search behind {@link #passesStart(Node, Node)}. Breadth-first, shortest path to destination wins. */
+   boolean searchPassesStart(Node fromNode, Node toNode)
    {
       if (fromNode.isStartNode() || toNode.isStartNode())
          return false;
@@ -175,62 +370,82 @@ public class Board implements Serializable
       return false;
    }
    
-   void initializeAdjacencyMatrix()
+   void initializeDistances()
    {
-      adjacencyMatrix = new int[nodes.size()][];
-      
-      for (int row = 0; row < adjacencyMatrix.length; row++)
-      {
-         adjacencyMatrix[row] = new int[adjacencyMatrix.length];
-         Arrays.fill(adjacencyMatrix[row], -1);
-         
-         // Each node is 0 away from itself
-         adjacencyMatrix[row][row] = 0;
-      }
+      distances = new DistanceMatrix(nodesByIndex);
       
-      for (Node from : nodes.values())
-      {
-         for (Node to : from.getDestinations())
-         {
-            adjacencyMatrix[from.getIndex()][to.getIndex()] = adjacencyMatrix[to.getIndex()][from.getIndex()] = 1;
-         }
-      }
+//      printDistances();
+   }
+   
+   /** Builds the laser range index, unless it already covers the given range. */
+   void initializeLaserRanges(int maximumDistance)
+   {
+      // Nothing is farther away than this.
+      maximumDistance = Math.max(0, Math.min(maximumDistance, nodesByIndex.size() - 1));
       
-      for (int dist = 1; dist < adjacencyMatrix.length; dist++)
-      {
-         for (int row = 0; row < adjacencyMatrix.length; row++)
-         {
-            for (int col = 0; col < adjacencyMatrix.length; col++)
-            {
-               if (adjacencyMatrix[row][col] == dist)
-               {
-                  for (int col2 = 0; col2 < adjacencyMatrix.length; col2++)
-                  {
-                     if (adjacencyMatrix[col][col2] == 1 && adjacencyMatrix[row][col2] == -1)
-                        adjacencyMatrix[row][col2] = dist + 1;
-                  }
-               }
-            }
-         }
-      }
+      if (laserRanges == null || laserRanges.getMaximumDistance() != maximumDistance)
+         laserRanges = new LaserRangeIndex(this, maximumDistance);
+   }
+   
+   LaserRangeIndex getLaserRanges(int maximumDistance)
+   {
+      initializeLaserRanges(maximumDistance);
       
-//      printAdjacencyMatrix();
+      return laserRanges;
    }
    
    int getDistanceBetweenNodes(Node from, Node to)
    {
-      return adjacencyMatrix[from.getIndex()][to.getIndex()];
+      return getDistance(from.getIndex(), to.getIndex());
+   }
+   
+   /**
+    * Returns the number of steps between the nodes with the given {@link Node#getIndex() indexes},
+    * in either direction, or -1 if neither can reach the other.
+    */
+   public int getDistance(int from, int to)
+   {
+      // Boards that arrived by serialization come without distances.
+      if (distances == null)
+         initializeDistances();
+      
+      return distances.get(from, to);
    }
 
    @SuppressWarnings("unused")
-   private void printAdjacencyMatrix()
+   private void printDistances()
    {
-      for (int row = 0; row < adjacencyMatrix.length; row++)
+      for (int row = 0; row < nodesByIndex.size(); row++)
       {
-         for (int col = 0; col < adjacencyMatrix.length; col++)
-            System.out.print(adjacencyMatrix[row][col] + "\t");
+         for (int col = 0; col < nodesByIndex.size(); col++)
+            System.out.print(getDistance(row, col) + "\t");
          
          System.out.println();
       }
    }
+   
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      
+      // Boards saved before nodes were kept by index come with the nodes by ID only.
+      if (nodesByIndex == null)
+      {
+         Node[] byIndex = new Node[nodes.size()];
+         
+         for (Node node : nodes.values())
+            byIndex[node.getIndex()] = node;
+         
+         nodesByIndex = new ArrayList<Node>(Arrays.asList(byIndex));
+      }
+      
+      // Boards saved before deed groups were indexed come without them, and so do their nodes.
+      if (groups == null)
+      {
+         groups = new ArrayList<String>();
+         
+         for (Node node : nodesByIndex)
+            indexGroup(node);
+      }
+   }
 }
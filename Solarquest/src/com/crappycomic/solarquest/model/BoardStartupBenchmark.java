@@ -0,0 +1,161 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+
+/**
+ * Driver class that times the indexes a {@link Board} builds when it loads, on generated boards
+ * of increasing size. Also times the adjacency matrix expansion that the {@link DistanceMatrix}
+ * replaced, on boards small enough for it to finish, and checks that both agree.
+ * <p>
+ * Usage: <code>BoardStartupBenchmark [node count...]</code>. The defaults are 100, 1,000, and
+ * 10,000 nodes. The largest boards need a heap of a gigabyte or so.
+ */
+public class BoardStartupBenchmark
+{
+   private static final int[] DEFAULT_NODE_COUNTS = { 100, 1000, 10000 };
+   
+   /** Largest board the old expansion is run on; it grows with the fourth power of the node count. */
+   private static final int MAXIMUM_EXPANSION_NODES = 1000;
+   
+   private static final int RUNS = 3;
+   
+   public static void main(String[] args)
+   {
+      int[] nodeCounts = DEFAULT_NODE_COUNTS;
+      
+      if (args.length > 0)
+      {
+         nodeCounts = new int[args.length];
+         
+         for (int ndx = 0; ndx < args.length; ndx++)
+            nodeCounts[ndx] = Integer.parseInt(args[ndx]);
+      }
+      
+      for (int nodeCount : nodeCounts)
+      {
+         Board board = generateBoard(nodeCount);
+         List<Node> nodes = new ArrayList<Node>(nodeCount);
+         DistanceMatrix matrix = null;
+         long distances = Long.MAX_VALUE;
+         long passesStart = Long.MAX_VALUE;
+         
+         for (int ndx = 0; ndx < nodeCount; ndx++)
+            nodes.add(board.getNode(ndx));
+         
+         for (int run = 0; run < RUNS; run++)
+         {
+            // What Board.initializeDistances does.
+            long start = System.nanoTime();
+            
+            matrix = new DistanceMatrix(nodes);
+            distances = Math.min(distances, System.nanoTime() - start);
+            
+            start = System.nanoTime();
+            board.initializePassesStartIndex();
+            passesStart = Math.min(passesStart, System.nanoTime() - start);
+         }
+         
+         System.out.printf("%d nodes: distances %.1f ms (%d KiB), passes-start index %.1f ms", nodeCount,
+            distances / 1e6, matrix.getByteCount() / 1024, passesStart / 1e6);
+         
+         if (nodeCount <= MAXIMUM_EXPANSION_NODES)
+         {
+            long start = System.nanoTime();
+            int[][] adjacencyMatrix = expand(board);
+            long expansion = System.nanoTime() - start;
+            
+            System.out.printf(", old expansion %.1f ms, distances match: %s", expansion / 1e6,
+               matches(matrix, adjacencyMatrix) ? "PASS" : "FAIL");
+         }
+         
+         System.out.println();
+      }
+   }
+   
+   /**
+    * Returns a board shaped roughly like the built-in one: a loop of nodes, with every eighth node
+    * also leading a third of the way around, and the start node at index zero.
+    */
+   static Board generateBoard(int nodeCount)
+   {
+      Board board = new Board();
+      
+      for (int ndx = 0; ndx < nodeCount; ndx++)
+      {
+         Node node = new Node();
+         
+         node.setID(String.format("Node_%05d", ndx));
+         board.addNode(node);
+      }
+      
+      for (int ndx = 0; ndx < nodeCount; ndx++)
+      {
+         Node node = board.getNode(ndx);
+         
+         node.addDestination(board.getNode((ndx + 1) % nodeCount));
+         
+         if (ndx % 8 == 0)
+            node.addDestination(board.getNode((ndx + nodeCount / 3) % nodeCount));
+      }
+      
+      board.getNode(0).setStartNode(true);
+      board.setStartNode(board.getNode(0));
+      
+      return board;
+   }
+   
+   /** The adjacency matrix expansion that used to run every time a board loaded. */
+   private static int[][] expand(Board board)
+   {
+      int[][] adjacencyMatrix = new int[board.getNodeCount()][];
+      
+      for (int row = 0; row < adjacencyMatrix.length; row++)
+      {
+         adjacencyMatrix[row] = new int[adjacencyMatrix.length];
+         Arrays.fill(adjacencyMatrix[row], -1);
+         adjacencyMatrix[row][row] = 0;
+      }
+      
+      for (int ndx = 0; ndx < board.getNodeCount(); ndx++)
+      {
+         Node from = board.getNode(ndx);
+         
+         for (Node to : from.getDestinations())
+            adjacencyMatrix[from.getIndex()][to.getIndex()] = adjacencyMatrix[to.getIndex()][from.getIndex()] = 1;
+      }
+      
+      for (int dist = 1; dist < adjacencyMatrix.length; dist++)
+      {
+         for (int row = 0; row < adjacencyMatrix.length; row++)
+         {
+            for (int col = 0; col < adjacencyMatrix.length; col++)
+            {
+               if (adjacencyMatrix[row][col] == dist)
+               {
+                  for (int col2 = 0; col2 < adjacencyMatrix.length; col2++)
+                  {
+                     if (adjacencyMatrix[col][col2] == 1 && adjacencyMatrix[row][col2] == -1)
+                        adjacencyMatrix[row][col2] = dist + 1;
+                  }
+               }
+            }
+         }
+      }
+      
+      return adjacencyMatrix;
+   }
+   
+   private static boolean matches(DistanceMatrix matrix, int[][] adjacencyMatrix)
+   {
+      for (int from = 0; from < adjacencyMatrix.length; from++)
+         for (int to = 0; to < adjacencyMatrix.length; to++)
+            if (matrix.get(from, to) != adjacencyMatrix[from][to])
+               return false;
+      
+      return true;
+   }
+}
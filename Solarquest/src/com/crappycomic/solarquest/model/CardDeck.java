@@ -0,0 +1,148 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The draw pile of Red Shift cards: an order over a game's list of cards, plus a cursor into it.
+ * Drawing a card moves the cursor and nothing else, so a draw takes the same time however many
+ * cards there are. The deck is shuffled on the first draw, using the game's random number
+ * generator, in exactly the way {@link Collections#shuffle(List, Random)} would have shuffled the
+ * list of cards.
+ * <p>
+ * A serialized deck is just the order and the cursor, one byte per card for decks of up to 256
+ * cards, so it costs next to nothing in a saved game or a snapshot.
+ */
+class CardDeck implements Serializable
+{
+   private static final long serialVersionUID = 0;
+   
+   /** What happens once every card in the deck has been drawn. */
+   static enum ReshufflePolicy
+   {
+      /** Drawn cards go to the bottom of the deck, so the same order repeats forever. */
+      NEVER,
+      
+      /** The deck is shuffled again each time the last card is drawn. */
+      EVERY_PASS
+   }
+   
+   private ReshufflePolicy policy;
+   
+   // card indexes, in draw order; null until the first draw
+   private transient int[] order;
+   
+   // index into order of the next card to draw
+   private transient int cursor;
+   
+   CardDeck(ReshufflePolicy policy)
+   {
+      this.policy = policy;
+   }
+   
+   /** Returns the index of the next card to draw, from a deck of the given number of cards. */
+   int draw(int cardCount, Random random)
+   {
+      if (order == null)
+      {
+         order = new int[cardCount];
+         
+         for (int ndx = 0; ndx < cardCount; ndx++)
+            order[ndx] = ndx;
+         
+         shuffle(random);
+      }
+      
+      int card = order[cursor++];
+      
+      if (cursor == order.length)
+      {
+         cursor = 0;
+         
+         if (policy == ReshufflePolicy.EVERY_PASS)
+            shuffle(random);
+      }
+      
+      return card;
+   }
+   
+   /** Same swaps, and same calls to the random number generator, as Collections.shuffle. */
+   private void shuffle(Random random)
+   {
+      for (int ndx = order.length; ndx > 1; ndx--)
+      {
+         int other = random.nextInt(ndx);
+         int swap = order[ndx - 1];
+         
+         order[ndx - 1] = order[other];
+         order[other] = swap;
+      }
+   }
+   
+   /** Returns a copy of this deck, in the same state, that draws independently. */
+   CardDeck copy()
+   {
+      CardDeck copy = new CardDeck(policy);
+      
+      copy.order = order == null ? null : order.clone();
+      copy.cursor = cursor;
+      
+      return copy;
+   }
+   
+   /** Writes the order and the cursor, or -1 if the deck has not been shuffled yet. */
+   void write(DataOutput out) throws IOException
+   {
+      if (order == null)
+      {
+         out.writeShort(-1);
+         return;
+      }
+      
+      out.writeShort(order.length);
+      out.writeShort(cursor);
+      
+      for (int card : order)
+      {
+         if (order.length <= 256)
+            out.writeByte(card);
+         else
+            out.writeShort(card);
+      }
+   }
+   
+   /** Reads what {@link #write(DataOutput)} wrote. */
+   void read(DataInput in) throws IOException
+   {
+      int cardCount = in.readShort();
+      
+      if (cardCount < 0)
+      {
+         order = null;
+         cursor = 0;
+         return;
+      }
+      
+      order = new int[cardCount];
+      cursor = in.readShort();
+      
+      for (int ndx = 0; ndx < cardCount; ndx++)
+         order[ndx] = cardCount <= 256 ? in.readUnsignedByte() : in.readUnsignedShort();
+   }
+   
+   private void writeObject(ObjectOutputStream out) throws IOException
+   {
+      out.defaultWriteObject();
+      write(out);
+   }
+   
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      read(in);
+   }
+}
@@ -5,6 +5,7 @@
 package com.crappycomic.solarquest.model;
 
 import java.io.Serializable;
+import java.util.*;
 
 import com.crappycomic.solarquest.view.*;
 import com.crappycomic.solarquest.view.ViewMessage.Type;
@@ -43,6 +44,38 @@ public class ClientModel extends Model implements Serializable
     * the message's {@link Node}, if passed.
     */
    public void forwardMessage(ViewMessage message)
+   {
+      view.receiveMessage(applyMessage(message));
+   }
+   
+   /**
+    * Applies every message in the given batch to the local game state, in order, then hands the
+    * whole batch to the {@link View} at once.
+    */
+   public void forwardMessages(ViewMessageBatch batch)
+   {
+      List<ViewMessage> messages = batch.getMessages();
+      List<ViewMessage> localMessages = new ArrayList<ViewMessage>(messages.size());
+      
+      for (ViewMessage message : messages)
+         localMessages.add(applyMessage(message));
+      
+      view.receiveMessages(localMessages);
+   }
+   
+   /**
+    * Replaces the local game state with the given snapshot, for a client that missed too much to
+    * catch up message by message, then tells the {@link View} to redraw everything.
+    */
+   public void applySnapshot(ModelSnapshot snapshot)
+   {
+      snapshot.applyTo(this);
+      currentPlayer = playerMap.get(snapshot.getCurrentPlayer());
+      view.modelResynchronized();
+   }
+   
+   /** Applies the given message to the local game state and returns a copy that refers to local objects. */
+   private ViewMessage applyMessage(ViewMessage message)
    {
       Type type = message.getType();
       Player player = message.getPlayer() == null ? null : playerMap.get(message.getPlayer().getNumber());
@@ -59,7 +92,7 @@ public class ClientModel extends Model implements Serializable
             break;
          case PLAYER_ADVANCED_TO_NODE:
             purchasedFuelAtCurrentNode = false;
-            player.setCurrentNode(node);
+            setCurrentNode(player, node);
             break;
          case PLAYER_CHANGED_CASH:
             player.changeCash((Integer)value);
@@ -83,8 +116,7 @@ public class ClientModel extends Model implements Serializable
             break;
          case PLAYER_OBTAINED_NODE:
          case PLAYER_PURCHASED_NODE:
-            player.addNode(node);
-            node.setOwner(player);
+            setOwner(node, player);
             break;
          case PLAYER_PLACED_FUEL_STATION:
             node.setFuelStation(true);
@@ -94,8 +126,7 @@ public class ClientModel extends Model implements Serializable
             break;
          case PLAYER_RELINQUISHED_NODE:
          case PLAYER_SOLD_NODE:
-            player.removeNode(node);
-            node.setOwner(null);
+            setOwner(node, null);
             break;
          case PLAYER_SOLD_FUEL_STATION:
             fuelStationsRemaining++;
@@ -141,7 +172,48 @@ public class ClientModel extends Model implements Serializable
       }
       
       // Message now refers to our local copies.
-      view.receiveMessage(new ViewMessage(type, player, value));
+      return new ViewMessage(type, player, value);
+   }
+   
+   /**
+    * Returns an independent copy of this model, for a client in the same VM as the server. Copies
+    * the board and players directly, which is much cheaper than serializing them, and shares only
+    * what never changes once a game starts: node prices, rents, and distances, and the rules. The
+    * copy has no {@link View}.
+    */
+   public ClientModel copy()
+   {
+      ClientModel copy = new ClientModel();
+      
+      copy.board = board.copy();
+      copy.defaultView = defaultView;
+      copy.players = new ArrayList<Player>(players.size());
+      copy.playerMap = new HashMap<Integer, Player>();
+      copy.fuelStationsRemaining = fuelStationsRemaining;
+      copy.ruleSet = ruleSet;
+      copy.rules = rules;
+      
+      for (Player player : players)
+      {
+         Player playerCopy = player.copy(copy.board);
+         
+         copy.players.add(playerCopy);
+         copy.playerMap.put(playerCopy.getNumber(), playerCopy);
+      }
+      
+      for (int ndx = 0; ndx < board.getNodeCount(); ndx++)
+      {
+         Player owner = board.getNode(ndx).getOwner();
+         
+         if (owner != null)
+            copy.board.getNode(ndx).setOwner(copy.playerMap.get(owner.getNumber()));
+      }
+      
+      copy.currentPlayer = currentPlayer == null ? null : copy.playerMap.get(currentPlayer.getNumber());
+      copy.purchasedFuelAtCurrentNode = purchasedFuelAtCurrentNode;
+      copy.bypassAllowed = bypassAllowed;
+      
+      return copy;
    }
    
    void setCurrentPlayer(Player currentPlayer)
@@ -0,0 +1,265 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.Serializable;
+
+/**
+ * An immutable snapshot of a {@link RuleSet}, with every value the model reads resolved into a
+ * primitive field. Looking a value up here is a field read, where the rule set itself hashes the
+ * rule's name and unboxes the result every time. Red Shift rolls and transaction availability are
+ * worked out ahead of time, too, for every roll and every type of node.
+ * <p>
+ * Changing the rule set afterward does not change the snapshot; {@link Model#setRuleSet(RuleSet)}
+ * compiles a new one.
+ */
+public final class CompiledRuleSet implements Serializable
+{
+   private static final long serialVersionUID = 0;
+   
+   private final int initialCash;
+   
+   private final int initialFuel;
+   
+   private final int initialFuelStations;
+   
+   private final int totalFuelStations;
+   
+   private final int passStartCash;
+   
+   private final int landOnStartCash;
+   
+   private final boolean canPlaceFuelStationsOnAnyNode;
+   
+   private final int fuelStationPrice;
+   
+   private final int fuelPriceOnStart;
+   
+   private final int maximumFuel;
+   
+   private final int diePips;
+   
+   private final int lowFuel;
+   
+   private final int minimumFuel;
+   
+   private final boolean laserBattlesAllowed;
+   
+   private final int laserBattleFuelCost;
+   
+   private final int laserBattleMaximumDistance;
+   
+   private final int laserBattleDamageCost;
+   
+   private final boolean lasersCanFireFromStart;
+   
+   private final boolean lasersCanFireAtStart;
+   
+   private final boolean bypassAllowed;
+   
+   private final int bypassCash;
+   
+   private final boolean fuelAvailableOnUnownedNode;
+   
+   // indexed by (die1 - 1) * diePips + die2 - 1
+   private final boolean[] redShifts;
+   
+   // indexed by node type ordinal
+   private final boolean[] fuelStationPurchaseAvailable;
+   
+   private final boolean[] fuelStationBuybackAvailable;
+   
+   private final boolean[] nodeBuybackAvailable;
+   
+   CompiledRuleSet(RuleSet ruleSet)
+   {
+      initialCash = getValue(ruleSet, RuleSet.INITIAL_CASH);
+      initialFuel = getValue(ruleSet, RuleSet.INITIAL_FUEL);
+      initialFuelStations = getValue(ruleSet, RuleSet.INITIAL_FUEL_STATIONS);
+      totalFuelStations = getValue(ruleSet, RuleSet.TOTAL_FUEL_STATIONS);
+      passStartCash = getValue(ruleSet, RuleSet.PASS_START_CASH);
+      landOnStartCash = getValue(ruleSet, RuleSet.LAND_ON_START_CASH);
+      canPlaceFuelStationsOnAnyNode = getValue(ruleSet, RuleSet.CAN_PLACE_FUEL_STATIONS_ON_ANY_NODE);
+      fuelStationPrice = getValue(ruleSet, RuleSet.FUEL_STATION_PRICE);
+      fuelPriceOnStart = getValue(ruleSet, RuleSet.FUEL_PRICE_ON_START);
+      maximumFuel = getValue(ruleSet, RuleSet.MAXIMUM_FUEL);
+      diePips = getValue(ruleSet, RuleSet.DIE_PIPS);
+      lowFuel = getValue(ruleSet, RuleSet.LOW_FUEL);
+      minimumFuel = getValue(ruleSet, RuleSet.MINIMUM_FUEL);
+      laserBattlesAllowed = getValue(ruleSet, RuleSet.LASER_BATTLES_ALLOWED);
+      laserBattleFuelCost = getValue(ruleSet, RuleSet.LASER_BATTLE_FUEL_COST);
+      laserBattleMaximumDistance = getValue(ruleSet, RuleSet.LASER_BATTLE_MAXIMUM_DISTANCE);
+      laserBattleDamageCost = getValue(ruleSet, RuleSet.LASER_BATTLE_DAMAGE_COST);
+      lasersCanFireFromStart = getValue(ruleSet, RuleSet.LASERS_CAN_FIRE_FROM_START);
+      lasersCanFireAtStart = getValue(ruleSet, RuleSet.LASERS_CAN_FIRE_AT_START);
+      bypassAllowed = getValue(ruleSet, RuleSet.BYPASS_ALLOWED);
+      bypassCash = getValue(ruleSet, RuleSet.BYPASS_CASH);
+      fuelAvailableOnUnownedNode = getValue(ruleSet, RuleSet.FUEL_AVAILABLE_ON_UNOWNED_NODE);
+      
+      RuleSet.RedShiftRoll redShiftRoll = getValue(ruleSet, RuleSet.RED_SHIFT_ROLL);
+      
+      redShifts = new boolean[diePips * diePips];
+      
+      for (int die1 = 1; die1 <= diePips; die1++)
+         for (int die2 = 1; die2 <= diePips; die2++)
+            redShifts[(die1 - 1) * diePips + die2 - 1] = RuleSet.isRedShift(redShiftRoll, diePips, die1, die2);
+      
+      fuelStationPurchaseAvailable = compile(getValue(ruleSet, RuleSet.FUEL_STATION_PURCHASE_AVAILABILITY));
+      fuelStationBuybackAvailable = compile(getValue(ruleSet, RuleSet.FUEL_STATION_BUYBACK_AVAILABILITY));
+      nodeBuybackAvailable = compile(getValue(ruleSet, RuleSet.NODE_BUYBACK_AVAILABILITY));
+   }
+   
+   private static <T> T getValue(RuleSet ruleSet, RuleSet.Rule<T> rule)
+   {
+      T value = ruleSet.getValue(rule);
+      
+      if (value == null)
+         throw new IllegalArgumentException("Rule set " + ruleSet.getID() + " has no value for " + rule.getName());
+      
+      return value;
+   }
+   
+   /** Returns whether the given availability allows a transaction on each type of node. */
+   private static boolean[] compile(RuleSet.TransactionAvailability availability)
+   {
+      boolean[] available = new boolean[Node.Type.values().length];
+      
+      for (Node.Type type : Node.Type.values())
+         available[type.ordinal()] = RuleSet.isTransactionAvailable(availability, type);
+      
+      return available;
+   }
+   
+   public int getInitialCash()
+   {
+      return initialCash;
+   }
+   
+   public int getInitialFuel()
+   {
+      return initialFuel;
+   }
+   
+   public int getInitialFuelStations()
+   {
+      return initialFuelStations;
+   }
+   
+   public int getTotalFuelStations()
+   {
+      return totalFuelStations;
+   }
+   
+   public int getPassStartCash()
+   {
+      return passStartCash;
+   }
+   
+   public int getLandOnStartCash()
+   {
+      return landOnStartCash;
+   }
+   
+   public boolean canPlaceFuelStationsOnAnyNode()
+   {
+      return canPlaceFuelStationsOnAnyNode;
+   }
+   
+   public int getFuelStationPrice()
+   {
+      return fuelStationPrice;
+   }
+   
+   public int getFuelPriceOnStart()
+   {
+      return fuelPriceOnStart;
+   }
+   
+   public int getMaximumFuel()
+   {
+      return maximumFuel;
+   }
+   
+   public int getDiePips()
+   {
+      return diePips;
+   }
+   
+   public int getLowFuel()
+   {
+      return lowFuel;
+   }
+   
+   public int getMinimumFuel()
+   {
+      return minimumFuel;
+   }
+   
+   public boolean isLaserBattlesAllowed()
+   {
+      return laserBattlesAllowed;
+   }
+   
+   public int getLaserBattleFuelCost()
+   {
+      return laserBattleFuelCost;
+   }
+   
+   public int getLaserBattleMaximumDistance()
+   {
+      return laserBattleMaximumDistance;
+   }
+   
+   public int getLaserBattleDamageCost()
+   {
+      return laserBattleDamageCost;
+   }
+   
+   public boolean canLasersFireFromStart()
+   {
+      return lasersCanFireFromStart;
+   }
+   
+   public boolean canLasersFireAtStart()
+   {
+      return lasersCanFireAtStart;
+   }
+   
+   public boolean isBypassAllowed()
+   {
+      return bypassAllowed;
+   }
+   
+   public int getBypassCash()
+   {
+      return bypassCash;
+   }
+   
+   public boolean isFuelAvailableOnUnownedNode()
+   {
+      return fuelAvailableOnUnownedNode;
+   }
+   
+   /** Returns true if the given roll of two dice, each between one and the number of pips, is a Red Shift. */
+   public boolean isRedShift(int die1, int die2)
+   {
+      return redShifts[(die1 - 1) * diePips + die2 - 1];
+   }
+   
+   public boolean isFuelStationPurchaseAvailable(Node node)
+   {
+      return fuelStationPurchaseAvailable[node.getType().ordinal()];
+   }
+   
+   public boolean isFuelStationBuybackAvailable(Node node)
+   {
+      return fuelStationBuybackAvailable[node.getType().ordinal()];
+   }
+   
+   public boolean isNodeBuybackAvailable(Node node)
+   {
+      return nodeBuybackAvailable[node.getType().ordinal()];
+   }
+}
@@ -0,0 +1,205 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The number of steps between every pair of nodes on a {@link Board}, ignoring the direction of
+ * travel, as used for laser battles. Distances are symmetric, so only one triangle of the matrix is
+ * stored, and each entry takes a byte, a short, or an int, whichever is the smallest that can hold
+ * the longest possible distance on a board of that size. Built with one breadth-first search from
+ * each node, spread across a fork/join pool on large boards. Instances never change once built.
+ */
+class DistanceMatrix
+{
+   /** The distance between nodes that cannot reach each other. */
+   static final int UNREACHABLE = -1;
+   
+   /** Number of searches each task runs without splitting. Smaller boards are done in one thread. */
+   private static final int SOURCES_PER_TASK = 32;
+   
+   /** Searches from a range of nodes, splitting the range first if it is large. */
+   private class Rows extends RecursiveAction
+   {
+      private static final long serialVersionUID = 0;
+      
+      private int from;
+      
+      private int to;
+      
+      private Rows(int from, int to)
+      {
+         this.from = from;
+         this.to = to;
+      }
+      
+      @Override
+      protected void compute()
+      {
+         if (to - from > SOURCES_PER_TASK)
+         {
+            int middle = (from + to) >>> 1;
+            
+            invokeAll(new Rows(from, middle), new Rows(middle, to));
+            
+            return;
+         }
+         
+         int[] distance = new int[nodeCount];
+         int[] queue = new int[nodeCount];
+         
+         for (int source = from; source < to; source++)
+            search(source, distance, queue);
+      }
+   }
+   
+   private int nodeCount;
+   
+   // undirected adjacency, packed: the neighbors of node n are neighbors[offsets[n]] up to neighbors[offsets[n + 1]]
+   private int[] offsets;
+   
+   private int[] neighbors;
+   
+   // exactly one of these holds the upper triangle, row by row
+   private byte[] bytes;
+   
+   private short[] shorts;
+   
+   private int[] ints;
+   
+   DistanceMatrix(List<Node> nodesByIndex)
+   {
+      nodeCount = nodesByIndex.size();
+      packNeighbors(nodesByIndex);
+      
+      long size = (long)nodeCount * (nodeCount - 1) / 2;
+      
+      // The longest possible distance is one less than the number of nodes.
+      if (nodeCount - 1 <= Byte.MAX_VALUE)
+         bytes = new byte[(int)size];
+      else if (nodeCount - 1 <= Short.MAX_VALUE)
+         shorts = new short[(int)size];
+      else
+         ints = new int[(int)size];
+      
+      if (nodeCount > SOURCES_PER_TASK)
+         ForkJoinPool.commonPool().invoke(new Rows(0, nodeCount));
+      else
+         new Rows(0, nodeCount).compute();
+      
+      // Only needed while searching.
+      offsets = null;
+      neighbors = null;
+   }
+   
+   /** Returns the distance between the nodes with the given indexes, or {@link #UNREACHABLE}. */
+   int get(int from, int to)
+   {
+      if (from == to)
+         return 0;
+      
+      int entry = from < to ? entry(from, to) : entry(to, from);
+      
+      if (bytes != null)
+         return bytes[entry];
+      else if (shorts != null)
+         return shorts[entry];
+      else
+         return ints[entry];
+   }
+   
+   /** Returns the number of bytes the distances take up. */
+   long getByteCount()
+   {
+      if (bytes != null)
+         return bytes.length;
+      else if (shorts != null)
+         return 2L * shorts.length;
+      else
+         return 4L * ints.length;
+   }
+   
+   private void packNeighbors(List<Node> nodesByIndex)
+   {
+      int[] degrees = new int[nodeCount];
+      
+      for (Node node : nodesByIndex)
+      {
+         for (Node destination : node.getDestinations())
+         {
+            degrees[node.getIndex()]++;
+            degrees[destination.getIndex()]++;
+         }
+      }
+      
+      offsets = new int[nodeCount + 1];
+      
+      for (int ndx = 0; ndx < nodeCount; ndx++)
+         offsets[ndx + 1] = offsets[ndx] + degrees[ndx];
+      
+      neighbors = new int[offsets[nodeCount]];
+      Arrays.fill(degrees, 0);
+      
+      for (Node node : nodesByIndex)
+      {
+         for (Node destination : node.getDestinations())
+         {
+            int from = node.getIndex();
+            int to = destination.getIndex();
+            
+            neighbors[offsets[from] + degrees[from]++] = to;
+            neighbors[offsets[to] + degrees[to]++] = from;
+         }
+      }
+   }
+   
+   /** Fills in the row for the given node: its distance to every node with a higher index. */
+   private void search(int source, int[] distance, int[] queue)
+   {
+      int head = 0;
+      int tail = 0;
+      
+      Arrays.fill(distance, UNREACHABLE);
+      distance[source] = 0;
+      queue[tail++] = source;
+      
+      while (head < tail)
+      {
+         int current = queue[head++];
+         
+         for (int ndx = offsets[current]; ndx < offsets[current + 1]; ndx++)
+         {
+            int neighbor = neighbors[ndx];
+            
+            if (distance[neighbor] == UNREACHABLE)
+            {
+               distance[neighbor] = distance[current] + 1;
+               queue[tail++] = neighbor;
+            }
+         }
+      }
+      
+      // Each task writes only its own rows, so the threads never touch the same entry.
+      int rowStart = entry(source, source + 1);
+      
+      for (int to = source + 1; to < nodeCount; to++)
+      {
+         if (bytes != null)
+            bytes[rowStart + to - source - 1] = (byte)distance[to];
+         else if (shorts != null)
+            shorts[rowStart + to - source - 1] = (short)distance[to];
+         else
+            ints[rowStart + to - source - 1] = distance[to];
+      }
+   }
+   
+   /** Returns the position of the distance between the given nodes, where from is less than to. */
+   private int entry(int from, int to)
+   {
+      return (int)((long)from * nodeCount - (long)from * (from + 1) / 2 + to - from - 1);
+   }
+}
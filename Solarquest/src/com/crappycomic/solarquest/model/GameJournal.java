@@ -0,0 +1,562 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only record of a hosted game, kept in a directory of its own, from which the game can
+ * be rebuilt after a crash. The game starts from a snapshot of its {@link ServerModel}, in the
+ * format of a {@link SaveFile}, with its random number generator seeded from a number the journal
+ * records. From then on, the journal records every {@link ModelMessage} the model accepts, as
+ * {@link ValueCodec} writes it, and every player dropped, in order. Rolls
+ * and card draws come from the seeded generator, so playing the same records against the same
+ * snapshot always arrives at the same game.
+ * <p>
+ * Records are written in order by a thread of the journal's own. Whatever accumulates while it
+ * waits for the disk goes out in one write and one <code>fsync</code>, so a busy game costs one
+ * <code>fsync</code> per group of records, not one per record. The game never waits for the disk;
+ * a crash loses, at most, the records of the group that was being written.
+ * <p>
+ * Every so often, the journal takes a fresh snapshot and starts a new file for the records that
+ * follow it, deleting the old snapshot and records. Rebuilding a game reads one snapshot and
+ * replays no more records than were written between two snapshots, however long the game has run.
+ */
+public class GameJournal implements Closeable
+{
+   /** System property naming the directory in which to keep journals of newly hosted games. */
+   public static final String DIRECTORY_PROPERTY = "solarquest.journalDirectory";
+   
+   /**
+    * System property giving the number of records written between snapshots. A journal keeps the
+    * records since its latest snapshot only, so a large interval keeps whole games for
+    * {@link Replay}.
+    */
+   public static final String SNAPSHOT_INTERVAL_PROPERTY = "solarquest.journalSnapshotInterval";
+   
+   /** Default number of records written between snapshots. */
+   public static final int DEFAULT_SNAPSHOT_INTERVAL = 1000;
+   
+   private static final int MAGIC = 0x53514A4E; // "SQJN"
+   
+   // version 1 wrote message values in a format of its own, before ValueCodec
+   private static final short VERSION = 2;
+   
+   static final String SNAPSHOT_PREFIX = "snapshot-";
+   
+   static final String SNAPSHOT_SUFFIX = ".sqs";
+   
+   static final String RECORDS_PREFIX = "journal-";
+   
+   static final String RECORDS_SUFFIX = ".sqj";
+   
+   private static final String TEMPORARY_SUFFIX = ".tmp";
+   
+   // anything longer is taken to be a damaged length
+   static final int MAXIMUM_RECORD_LENGTH = 1 << 20;
+   
+   // kinds of record
+   static final byte MESSAGE = 0;
+   
+   static final byte PLAYERS_DROPPED = 1;
+   
+   /** Something for the writer to write: either one record or one snapshot. */
+   private static class Entry
+   {
+      private long sequence;
+      
+      private byte[] bytes;
+      
+      private boolean snapshot;
+      
+      private Entry(long sequence, byte[] bytes, boolean snapshot)
+      {
+         this.sequence = sequence;
+         this.bytes = bytes;
+         this.snapshot = snapshot;
+      }
+   }
+   
+   private File directory;
+   
+   private long seed;
+   
+   private int snapshotInterval = Integer.getInteger(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL);
+   
+   // records accepted so far over the whole game; only the game thread changes it
+   private volatile long sequence;
+   
+   // the sequence of the latest snapshot taken
+   private long snapshotSequence;
+   
+   // guards everything below it
+   private Object lock = new Object();
+   
+   private List<Entry> pending = new ArrayList<Entry>();
+   
+   // records known to be on disk
+   private long durableSequence;
+   
+   private boolean closed;
+   
+   private IOException failure;
+   
+   // owned by the writer thread
+   private FileChannel records;
+   
+   private Thread writer;
+   
+   private GameJournal(File directory, long seed, long sequence)
+   {
+      this.directory = directory;
+      this.seed = seed;
+      this.sequence = sequence;
+      this.snapshotSequence = sequence;
+      this.durableSequence = sequence;
+   }
+   
+   /**
+    * Starts a journal of the given game, as it stands, in the given directory. Reseeds the game's
+    * random number generator, takes the first snapshot, and attaches the journal to the game,
+    * which writes to it from then on.
+    *
+    * @throws IOException if the directory already holds a journal, or cannot be written
+    */
+   public static GameJournal create(File directory, ServerModel model) throws IOException
+   {
+      if (!directory.isDirectory() && !directory.mkdirs())
+         throw new IOException("Cannot create journal directory " + directory);
+      
+      if (!listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).isEmpty())
+         throw new IOException(directory + " already holds a journal");
+      
+      long seed = new Random().nextLong();
+      
+      model.setRandom(new GameRandom(seed));
+      
+      return open(directory, seed, 0, model);
+   }
+   
+   /**
+    * Rebuilds the game journaled in the given directory from its latest snapshot and the records
+    * that follow it, stopping at the first record that did not make it to disk whole. The game
+    * comes back with its journal attached, ready to be hosted again, and compacted: the rebuilt
+    * game is the new snapshot.
+    *
+    * @throws IOException if the directory holds no readable snapshot
+    */
+   public static ServerModel recover(File directory) throws IOException
+   {
+      Replay replay = Replay.load(directory);
+      ServerModel model = replay.run(null);
+      
+      open(directory, replay.getSeed(), replay.getLastSequence(), model);
+      
+      return model;
+   }
+   
+   /** Takes the first snapshot at the given sequence, starts the writer, and attaches the journal. */
+   private static GameJournal open(File directory, long seed, long sequence, ServerModel model) throws IOException
+   {
+      final GameJournal journal = new GameJournal(directory, seed, sequence);
+      
+      journal.writeSnapshot(new Entry(sequence, serialize(model), true));
+      journal.writer = new Thread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            journal.write();
+         }
+      }, "Journal of " + directory.getName());
+      journal.writer.setDaemon(true);
+      journal.writer.start();
+      
+      model.setJournal(journal);
+      
+      return journal;
+   }
+   
+   public File getDirectory()
+   {
+      return directory;
+   }
+   
+   /** Returns the seed the game's random number generator started from. */
+   public long getSeed()
+   {
+      return seed;
+   }
+   
+   /** Returns the number of records written over the whole game. */
+   public long getSequence()
+   {
+      return sequence;
+   }
+   
+   public void setSnapshotInterval(int snapshotInterval)
+   {
+      if (snapshotInterval < 1)
+         throw new IllegalArgumentException("Snapshot interval must be positive: " + snapshotInterval);
+      
+      this.snapshotInterval = snapshotInterval;
+   }
+   
+   /**
+    * Records a message the given model just accepted. Called by the model, on its own thread,
+    * once the message has been processed, so a snapshot taken here includes it.
+    */
+   void append(ServerModel model, ModelMessage message)
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+      DataOutputStream out = new DataOutputStream(bytes);
+      
+      try
+      {
+         out.writeByte(MESSAGE);
+         ValueCodec.writeModelMessage(out, message, model);
+      }
+      catch (IOException ioe)
+      {
+         // A message whose value cannot be serialized could not have arrived over the network.
+         throw new IllegalArgumentException("Cannot journal " + message, ioe);
+      }
+      
+      append(model, bytes.toByteArray());
+   }
+   
+   /** Records that the given players dropped out of the given model. */
+   void appendPlayersDropped(ServerModel model, Collection<Integer> players)
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + 4 * players.size());
+      DataOutputStream out = new DataOutputStream(bytes);
+      
+      try
+      {
+         out.writeByte(PLAYERS_DROPPED);
+         out.writeInt(players.size());
+         
+         for (int player : players)
+            out.writeInt(player);
+      }
+      catch (IOException ioe)
+      {
+         throw new IllegalStateException(ioe);
+      }
+      
+      append(model, bytes.toByteArray());
+   }
+   
+   private void append(ServerModel model, byte[] record)
+   {
+      sequence++;
+      enqueue(new Entry(sequence, record, false));
+      
+      if (sequence - snapshotSequence >= snapshotInterval)
+      {
+         snapshotSequence = sequence;
+         
+         try
+         {
+            enqueue(new Entry(sequence, serialize(model), true));
+         }
+         catch (IOException ioe)
+         {
+            // The records alone still rebuild the game, from the previous snapshot.
+            ioe.printStackTrace();
+         }
+      }
+   }
+   
+   private void enqueue(Entry entry)
+   {
+      synchronized (lock)
+      {
+         if (closed)
+            return;
+         
+         pending.add(entry);
+         lock.notifyAll();
+      }
+   }
+   
+   /**
+    * Waits until every record appended so far is on disk.
+    *
+    * @throws IOException if the journal could not be written
+    */
+   public void flush() throws IOException
+   {
+      long target = sequence;
+      
+      synchronized (lock)
+      {
+         while (durableSequence < target && failure == null)
+         {
+            try
+            {
+               lock.wait();
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               throw new InterruptedIOException();
+            }
+         }
+         
+         if (failure != null)
+            throw new IOException("Journal could not be written", failure);
+      }
+   }
+   
+   /** Writes whatever is still waiting, then stops the writer. */
+   @Override
+   public void close() throws IOException
+   {
+      synchronized (lock)
+      {
+         closed = true;
+         lock.notifyAll();
+      }
+      
+      try
+      {
+         writer.join();
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException();
+      }
+      
+      if (failure != null)
+         throw new IOException("Journal could not be written", failure);
+   }
+   
+   /** The writer thread: takes whatever has accumulated, writes it, and forces it to disk. */
+   private void write()
+   {
+      try
+      {
+         while (true)
+         {
+            List<Entry> entries;
+            
+            synchronized (lock)
+            {
+               while (pending.isEmpty() && !closed)
+                  lock.wait();
+               
+               if (pending.isEmpty())
+                  break;
+               
+               entries = pending;
+               pending = new ArrayList<Entry>();
+            }
+            
+            int start = 0;
+            
+            for (int ndx = 0; ndx < entries.size(); ndx++)
+            {
+               Entry entry = entries.get(ndx);
+               
+               if (entry.snapshot)
+               {
+                  writeRecords(entries, start, ndx);
+                  writeSnapshot(entry);
+                  start = ndx + 1;
+               }
+            }
+            
+            writeRecords(entries, start, entries.size());
+            
+            synchronized (lock)
+            {
+               durableSequence = entries.get(entries.size() - 1).sequence;
+               lock.notifyAll();
+            }
+         }
+         
+         records.close();
+      }
+      catch (InterruptedException ie)
+      {
+         // Nothing more will be written.
+      }
+      catch (IOException ioe)
+      {
+         ioe.printStackTrace();
+         
+         synchronized (lock)
+         {
+            failure = ioe;
+            closed = true;
+            pending.clear();
+            lock.notifyAll();
+         }
+      }
+   }
+   
+   /** Writes the given records, from start up to end, with one gathering write and one fsync. */
+   private void writeRecords(List<Entry> entries, int start, int end) throws IOException
+   {
+      if (start == end)
+         return;
+      
+      ByteBuffer[] buffers = new ByteBuffer[2 * (end - start)];
+      CRC32 crc = new CRC32();
+      long remaining = 0;
+      
+      for (int ndx = start; ndx < end; ndx++)
+      {
+         byte[] bytes = entries.get(ndx).bytes;
+         ByteBuffer header = ByteBuffer.allocate(8);
+         
+         crc.reset();
+         crc.update(bytes, 0, bytes.length);
+         header.putInt(bytes.length).putInt((int)crc.getValue()).flip();
+         buffers[2 * (ndx - start)] = header;
+         buffers[2 * (ndx - start) + 1] = ByteBuffer.wrap(bytes);
+         remaining += 8 + bytes.length;
+      }
+      
+      while (remaining > 0)
+         remaining -= records.write(buffers);
+      
+      records.force(false);
+   }
+   
+   /**
+    * Writes the given snapshot under a temporary name and renames it once it is safely on disk,
+    * then starts a new file of records to follow it and deletes everything older.
+    */
+   private void writeSnapshot(Entry entry) throws IOException
+   {
+      File temporary = new File(directory, SNAPSHOT_PREFIX + entry.sequence + TEMPORARY_SUFFIX);
+      FileOutputStream file = new FileOutputStream(temporary);
+      
+      try
+      {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+         
+         writeHeader(out, entry.sequence);
+         out.write(entry.bytes);
+         out.flush();
+         file.getFD().sync();
+      }
+      finally
+      {
+         file.close();
+      }
+      
+      Files.move(temporary.toPath(), new File(directory, SNAPSHOT_PREFIX + entry.sequence + SNAPSHOT_SUFFIX).toPath(),
+         StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      
+      if (records != null)
+         records.close();
+      
+      records = FileChannel.open(new File(directory, RECORDS_PREFIX + entry.sequence + RECORDS_SUFFIX).toPath(),
+         StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      
+      ByteArrayOutputStream header = new ByteArrayOutputStream(22);
+      
+      writeHeader(new DataOutputStream(header), entry.sequence);
+      records.write(ByteBuffer.wrap(header.toByteArray()));
+      records.force(true);
+      
+      for (File old : listFiles(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+         if (getSequence(old, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < entry.sequence)
+            old.delete();
+      
+      for (File old : listFiles(directory, RECORDS_PREFIX, RECORDS_SUFFIX))
+         if (getSequence(old, RECORDS_PREFIX, RECORDS_SUFFIX) < entry.sequence)
+            old.delete();
+   }
+   
+   private void writeHeader(DataOutputStream out, long sequence) throws IOException
+   {
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeLong(sequence);
+      out.writeLong(seed);
+   }
+   
+   /** Checks the magic number and version, and returns the sequence. The seed comes next. */
+   static long readHeader(DataInputStream in, File file) throws IOException
+   {
+      if (in.readInt() != MAGIC)
+         throw new IOException(file + " is not part of a journal");
+      
+      short version = in.readShort();
+      
+      if (version != VERSION)
+         throw new IOException(file + " has unsupported journal version " + version);
+      
+      return in.readLong();
+   }
+   
+   /** Returns the given game as a {@link SaveFile} would hold it. */
+   private static byte[] serialize(ServerModel model) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+      DataOutputStream out = new DataOutputStream(bytes);
+      
+      SaveFile.write(model, out);
+      out.close();
+      
+      return bytes.toByteArray();
+   }
+   
+   /** Returns the files in the given directory with the given prefix and suffix, oldest sequence first. */
+   static List<File> listFiles(File directory, final String prefix, final String suffix)
+   {
+      File[] files = directory.listFiles(new FilenameFilter()
+      {
+         @Override
+         public boolean accept(File dir, String name)
+         {
+            return name.startsWith(prefix) && name.endsWith(suffix) && getSequence(name, prefix, suffix) >= 0;
+         }
+      });
+      List<File> list = new ArrayList<File>(files == null ? Collections.<File>emptyList() : Arrays.asList(files));
+      
+      Collections.sort(list, new Comparator<File>()
+      {
+         @Override
+         public int compare(File file1, File file2)
+         {
+            long sequence1 = getSequence(file1, prefix, suffix);
+            long sequence2 = getSequence(file2, prefix, suffix);
+            
+            return sequence1 < sequence2 ? -1 : sequence1 > sequence2 ? 1 : 0;
+         }
+      });
+      
+      return list;
+   }
+   
+   private static long getSequence(File file, String prefix, String suffix)
+   {
+      return getSequence(file.getName(), prefix, suffix);
+   }
+   
+   /** Returns the sequence in the given file name, or -1 if there isn't one. */
+   private static long getSequence(String name, String prefix, String suffix)
+   {
+      try
+      {
+         return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+      }
+      catch (NumberFormatException nfe)
+      {
+         return -1;
+      }
+   }
+}
@@ -0,0 +1,73 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.Random;
+
+/**
+ * A {@link Random} whose state can be read back as a single number, so a saved game can carry on
+ * rolling exactly the dice it would have rolled. It generates the very same numbers as a
+ * {@link Random} with the same seed, using the same linear congruential formula, but keeps the
+ * state in a field of its own, where {@link Random} hides it.
+ */
+class GameRandom extends Random
+{
+   private static final long serialVersionUID = 0;
+   
+   private static final long MULTIPLIER = 0x5DEECE66DL;
+   
+   private static final long ADDEND = 0xBL;
+   
+   private static final long MASK = (1L << 48) - 1;
+   
+   private long state;
+   
+   GameRandom()
+   {
+      super();
+   }
+   
+   GameRandom(long seed)
+   {
+      super(seed);
+   }
+   
+   /** Called by the constructors of {@link Random}, too, before this class has initialized anything. */
+   @Override
+   public synchronized void setSeed(long seed)
+   {
+      super.setSeed(seed);
+      state = (seed ^ MULTIPLIER) & MASK;
+   }
+   
+   @Override
+   protected int next(int bits)
+   {
+      state = (state * MULTIPLIER + ADDEND) & MASK;
+      
+      return (int)(state >>> (48 - bits));
+   }
+   
+   /** Returns a generator in the same state, which goes on to generate the same numbers on its own. */
+   GameRandom copy()
+   {
+      GameRandom copy = new GameRandom(0);
+      
+      copy.state = state;
+      
+      return copy;
+   }
+   
+   /** Returns the state, which {@link #setState(long)} restores. */
+   long getState()
+   {
+      return state;
+   }
+   
+   void setState(long state)
+   {
+      this.state = state & MASK;
+   }
+}
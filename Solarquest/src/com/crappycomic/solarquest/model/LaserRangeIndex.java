@@ -0,0 +1,104 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.Arrays;
+
+/**
+ * For every node on a {@link Board}, the nodes within laser range of it, sorted by distance, so
+ * the nodes within any shorter range are a prefix of the same list. Built from the board's
+ * distances for one maximum range. Instances never change once built.
+ */
+class LaserRangeIndex
+{
+   private int maximumDistance;
+   
+   // the nodes near node n are nodes[starts[n]] up to nodes[ends[n * (maximumDistance + 1) + maximumDistance]]
+   private int[] starts;
+   
+   // by node and distance: the end of the nodes that are no farther than that distance
+   private int[] ends;
+   
+   private int[] nodes;
+   
+   LaserRangeIndex(Board board, int maximumDistance)
+   {
+      int nodeCount = board.getNodeCount();
+      int[] counts = new int[maximumDistance + 1];
+      int size = 0;
+      
+      this.maximumDistance = maximumDistance;
+      starts = new int[nodeCount];
+      ends = new int[nodeCount * (maximumDistance + 1)];
+      
+      for (int from = 0; from < nodeCount; from++)
+      {
+         for (int to = 0; to < nodeCount; to++)
+         {
+            int distance = board.getDistance(from, to);
+            
+            if (distance >= 0 && distance <= maximumDistance)
+               size++;
+         }
+      }
+      
+      nodes = new int[size];
+      size = 0;
+      
+      for (int from = 0; from < nodeCount; from++)
+      {
+         int row = from * (maximumDistance + 1);
+         
+         Arrays.fill(counts, 0);
+         
+         for (int to = 0; to < nodeCount; to++)
+         {
+            int distance = board.getDistance(from, to);
+            
+            if (distance >= 0 && distance <= maximumDistance)
+               counts[distance]++;
+         }
+         
+         starts[from] = size;
+         
+         for (int distance = 0; distance <= maximumDistance; distance++)
+         {
+            size += counts[distance];
+            ends[row + distance] = size;
+         }
+         
+         // Counting sort, in order of node index within each distance.
+         for (int to = 0; to < nodeCount; to++)
+         {
+            int distance = board.getDistance(from, to);
+            
+            if (distance >= 0 && distance <= maximumDistance)
+               nodes[ends[row + distance] - counts[distance]--] = to;
+         }
+      }
+   }
+   
+   int getMaximumDistance()
+   {
+      return maximumDistance;
+   }
+   
+   /** Returns the position of the first node near the given one, which is the node itself. */
+   int getStart(int from)
+   {
+      return starts[from];
+   }
+   
+   /** Returns the position just past the last node no farther from the given node than the given distance. */
+   int getEnd(int from, int distance)
+   {
+      return ends[from * (maximumDistance + 1) + Math.min(distance, maximumDistance)];
+   }
+   
+   int getNode(int position)
+   {
+      return nodes[position];
+   }
+}
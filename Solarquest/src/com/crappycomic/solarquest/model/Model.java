@@ -4,13 +4,21 @@
 
 package com.crappycomic.solarquest.model;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
 public abstract class Model implements Serializable
 {
    private static final long serialVersionUID = 0;
    
+   /**
+    * System property that, when true, has {@link #getTotalWorth(Player)} check its running totals
+    * against a full recomputation every time, throwing an exception if they disagree.
+    */
+   public static final String CHECK_TOTAL_WORTH_PROPERTY = "solarquest.checkTotalWorth";
+   
+   private static final boolean CHECK_TOTAL_WORTH = Boolean.getBoolean(CHECK_TOTAL_WORTH_PROPERTY);
+   
    protected Board board;
    
    protected String defaultView;
@@ -23,28 +31,93 @@ public abstract class Model implements Serializable
    
    protected RuleSet ruleSet;
    
+   // compiled from ruleSet whenever it is set; the model reads its values from here
+   protected CompiledRuleSet rules;
+   
+   // built from the nodes' owners when first needed, then kept current by setOwner
+   private transient OwnershipIndex ownership;
+   
+   // built from the players' nodes when first needed, then kept current by setCurrentNode
+   private transient OccupancyIndex occupancy;
+   
    public abstract Player getCurrentPlayer();
    
    public List<Node> getUnownedNodes()
    {
-      List<Node> nodes = new ArrayList<Node>();
-      
-      for (Node node : board.getNodes())
-         if (node.isPurchaseable())
-            nodes.add(node);
-      
-      return nodes;
+      return getOwnership().getUnownedNodes();
    }
 
+   public boolean hasUnownedNodes()
+   {
+      return getOwnership().hasUnownedNodes();
+   }
+   
    public List<Node> getOwnedNodes(Player exclude)
    {
-      List<Node> nodes = new ArrayList<Node>();
+      return getOwnership().getOwnedNodes(exclude);
+   }
+   
+   /** Returns true if any player other than the given one owns a node. */
+   public boolean hasOwnedNodes(Player exclude)
+   {
+      return getOwnership().hasOwnedNodes(exclude);
+   }
+   
+   private OwnershipIndex getOwnership()
+   {
+      if (ownership == null)
+         ownership = new OwnershipIndex(board, players);
       
-      for (Node node : board.getNodes())
-         if (node.getOwner() != null && !node.getOwner().equals(exclude))
-            nodes.add(node);
+      return ownership;
+   }
+   
+   /**
+    * Gives the given node to the given player, taking it from its current owner, if any. A null
+    * player returns the node to the League. All changes of ownership go through here, so the
+    * ownership index stays current.
+    */
+   void setOwner(Node node, Player owner)
+   {
+      Player previousOwner = node.getOwner();
+      
+      if (previousOwner == owner)
+         return;
+      
+      getOwnership().setOwner(node, owner);
+      
+      if (previousOwner != null)
+         previousOwner.removeNode(node);
+      
+      if (owner != null)
+         owner.addNode(node);
+      
+      node.setOwner(owner);
+   }
+   
+   private OccupancyIndex getOccupancy()
+   {
+      if (occupancy == null)
+         occupancy = new OccupancyIndex(board, players);
       
-      return nodes;
+      return occupancy;
+   }
+   
+   /** Moves the given player to the given node. All moves go through here, so the occupancy index stays current. */
+   void setCurrentNode(Player player, Node node)
+   {
+      getOccupancy().setCurrentNode(player, node);
+      player.setCurrentNode(node);
+   }
+   
+   /** Returns the player with the given number, or null if no such player exists. */
+   public Player getPlayer(int number)
+   {
+      return playerMap.get(number);
+   }
+   
+   public Board getBoard()
+   {
+      return board;
    }
    
    public Node getStartNode()
@@ -57,7 +130,29 @@ public abstract class Model implements Serializable
       return fuelStationsRemaining;
    }
    
+   /**
+    * Returns the player's cash plus what the League would pay for everything the player owns.
+    * Built from totals the player keeps current as cash, fuel stations, and nodes change hands.
+    */
    public int getTotalWorth(Player player)
+   {
+      int totalWorth = player.getCash() + player.getOwnedNodePrices()
+         + getFuelStationPrice() * (player.getFuelStations() + player.getPlacedFuelStations());
+      
+      if (CHECK_TOTAL_WORTH)
+      {
+         int recomputedTotalWorth = recomputeTotalWorth(player);
+         
+         if (totalWorth != recomputedTotalWorth)
+            throw new IllegalStateException("Total worth of " + player + " is " + totalWorth
+               + " but should be " + recomputedTotalWorth);
+      }
+      
+      return totalWorth;
+   }
+   
+   /** Adds up the player's total worth from scratch. */
+   int recomputeTotalWorth(Player player)
    {
       int totalWorth = player.getCash();
       
@@ -81,12 +176,14 @@ public abstract class Model implements Serializable
 
    public int getFuelStationPrice()
    {
-      return ruleSet.getValue(RuleSet.FUEL_STATION_PRICE);
+      return rules.getFuelStationPrice();
    }
 
    public void setPlayers(List<Player> players)
    {
       this.players = players;
+      ownership = null;
+      occupancy = null;
       
       playerMap = new HashMap<Integer, Player>();
       
@@ -127,12 +224,12 @@ public abstract class Model implements Serializable
    
    public int getMinimumFuel()
    {
-      return ruleSet.getValue(RuleSet.MINIMUM_FUEL);
+      return rules.getMinimumFuel();
    }
    
    public int getLowFuel()
    {
-      return ruleSet.getValue(RuleSet.LOW_FUEL);
+      return rules.getLowFuel();
    }
    
    public int getFuelPrice()
@@ -145,7 +242,7 @@ public abstract class Model implements Serializable
    
    public int getFuelPrice(Player player, Node node)
    {
-      return node.getFuelPrice(ruleSet, player);
+      return node.getFuelPrice(rules, player);
    }
 
    public boolean isFuelStationSalableNormally()
@@ -159,7 +256,7 @@ public abstract class Model implements Serializable
    protected boolean isFuelStationSalableNormally(Player player, Node node)
    {
       return isFuelStationSalableAtAll(player)
-         && RuleSet.isTransactionAvailable(ruleSet.getValue(RuleSet.FUEL_STATION_BUYBACK_AVAILABILITY), node);
+         && rules.isFuelStationBuybackAvailable(node);
    }
    
    public boolean isFuelStationSalableForDebtSettlement(Player player)
@@ -184,7 +281,7 @@ public abstract class Model implements Serializable
    protected boolean isNodeSalableNormally(Player player, Node node)
    {
       return isNodeSalableAtAll(player)
-         && RuleSet.isTransactionAvailable(ruleSet.getValue(RuleSet.NODE_BUYBACK_AVAILABILITY), node);
+         && rules.isNodeBuybackAvailable(node);
    }
 
    public boolean isNodeSalableForDebtSettlement(Player player)
@@ -235,14 +332,14 @@ public abstract class Model implements Serializable
    
    protected boolean isFuelPurchaseable(Player player, Node node)
    {
-      return node.hasFuel(ruleSet.getValue(RuleSet.FUEL_AVAILABLE_ON_UNOWNED_NODE))
-         && player.getCash() >= node.getFuelPrice(ruleSet, player)
+      return node.hasFuel(rules.isFuelAvailableOnUnownedNode())
+         && player.getCash() >= node.getFuelPrice(rules, player)
          && player.getFuel() < getMaximumFuel();
    }
    
    public List<Node> getFuelStationPlaceableNodes(Player player)
    {
-      boolean canPlaceOnAnyNode = ruleSet.getValue(RuleSet.CAN_PLACE_FUEL_STATIONS_ON_ANY_NODE);
+      boolean canPlaceOnAnyNode = rules.canPlaceFuelStationsOnAnyNode();
       List<Node> nodes = new ArrayList<Node>();
       
       for (Node node : player.getOwnedNodes())
@@ -282,7 +379,7 @@ public abstract class Model implements Serializable
    
    protected boolean isFuelStationPurchaseable(Player player, Node node)
    {
-      return RuleSet.isTransactionAvailable(ruleSet.getValue(RuleSet.FUEL_STATION_PURCHASE_AVAILABILITY), node)
+      return rules.isFuelStationPurchaseAvailable(node)
          && hasUnpurchasedFuelStation() && player.getCash() >= getFuelStationPrice();
    }
 
@@ -293,7 +390,7 @@ public abstract class Model implements Serializable
 
    private int getMaximumFuel()
    {
-      return ruleSet.getValue(RuleSet.MAXIMUM_FUEL);
+      return rules.getMaximumFuel();
    }
    
    public int getMaximumPurchaseableFuel()
@@ -306,7 +403,7 @@ public abstract class Model implements Serializable
    public int getMaximumPurchaseableFuel(Player player, Node node)
    {
       int spaceInTank = getMaximumFuel() - player.getFuel();
-      int fuelPrice = node.getFuelPrice(ruleSet, player);
+      int fuelPrice = node.getFuelPrice(rules, player);
       int affordableFuel = fuelPrice == 0 ? getMaximumFuel() : player.getCash() / fuelPrice;
       
       return Math.min(spaceInTank, affordableFuel);
@@ -332,7 +429,7 @@ public abstract class Model implements Serializable
 
    public boolean isLaserBattleEverAllowed()
    {
-      return ruleSet.getValue(RuleSet.LASER_BATTLES_ALLOWED);
+      return rules.isLaserBattlesAllowed();
    }
    
    public boolean isLaserBattleAllowed()
@@ -347,16 +444,18 @@ public abstract class Model implements Serializable
       return getLaserTargetablePlayers(getCurrentPlayer());
    }
    
+   /**
+    * Returns the players the given player can fire upon, in order of play. Looks up the players
+    * within range, rather than measuring the distance to every player.
+    */
    List<Player> getLaserTargetablePlayers(Player player)
    {
-      List<Player> targetablePlayers = new ArrayList<Player>();
-      
       // Can't fire from start node if rules don't allow it.
       if (player.getCurrentNode().isStartNode()
-            && !ruleSet.getValue(RuleSet.LASERS_CAN_FIRE_FROM_START))
-         return targetablePlayers;
+            && !rules.canLasersFireFromStart())
+         return new ArrayList<Player>();
       
-      int laserBattleFuelCost = ruleSet.getValue(RuleSet.LASER_BATTLE_FUEL_COST);
+      int laserBattleFuelCost = rules.getLaserBattleFuelCost();
       int maximumDistance;
       
       if (laserBattleFuelCost == 0)
@@ -364,30 +463,32 @@ public abstract class Model implements Serializable
       else
          maximumDistance = player.getFuel() / laserBattleFuelCost - 1;
       
-      maximumDistance = Math.min(maximumDistance, ruleSet.getValue(RuleSet.LASER_BATTLE_MAXIMUM_DISTANCE));
+      maximumDistance = Math.min(maximumDistance, rules.getLaserBattleMaximumDistance());
       
       // Can't fire if we don't even have enough fuel for a zero-distance shot.
       if (maximumDistance < 0)
-         return targetablePlayers;
+         return new ArrayList<Player>();
+      
+      // Can fire if other player is close enough.
+      List<Player> targetablePlayers = getOccupancy().getPlayersNear(
+         board.getLaserRanges(rules.getLaserBattleMaximumDistance()), player.getCurrentNode(), maximumDistance);
       
-      for (Player otherPlayer : getPlayers())
+      for (Iterator<Player> iterator = targetablePlayers.iterator(); iterator.hasNext();)
       {
+         Player otherPlayer = iterator.next();
+         
          // Can't fire on yourself because lasers don't point that way.
          if (player.equals(otherPlayer))
-            continue;
+            iterator.remove();
          
          // Can't beat dead horses.
-         if (otherPlayer.isGameOver())
-            continue;
+         else if (otherPlayer.isGameOver())
+            iterator.remove();
          
          // Can't fire at start node if rules don't allow it.
-         if (otherPlayer.getCurrentNode().isStartNode()
-               && !ruleSet.getValue(RuleSet.LASERS_CAN_FIRE_AT_START))
-            continue;
-         
-         // Can fire if other player is close enough.
-         if (board.getDistanceBetweenNodes(player.getCurrentNode(), otherPlayer.getCurrentNode()) <= maximumDistance)
-            targetablePlayers.add(otherPlayer);
+         else if (otherPlayer.getCurrentNode().isStartNode()
+               && !rules.canLasersFireAtStart())
+            iterator.remove();
       }
       
       return targetablePlayers;
@@ -396,17 +497,20 @@ public abstract class Model implements Serializable
    public int getLaserBattleFuelCost(Node targetedNode)
    {
       return (board.getDistanceBetweenNodes(getCurrentPlayer().getCurrentNode(), targetedNode) + 1)
-         * ruleSet.getValue(RuleSet.LASER_BATTLE_FUEL_COST);
+         * rules.getLaserBattleFuelCost();
    }
    
    public boolean isBypassEverAllowed()
    {
-      return ruleSet.getValue(RuleSet.BYPASS_ALLOWED);
+      return rules.isBypassAllowed();
    }
    
+   /** Sets the rules of the game. Changes made to the rule set afterward are not seen. */
    public void setRuleSet(RuleSet ruleSet)
    {
       this.ruleSet = ruleSet;
+      
+      rules = ruleSet.compile();
    }
 
    public RuleSet getRuleSet()
@@ -417,6 +521,8 @@ public abstract class Model implements Serializable
    public void setBoard(Board board)
    {
       this.board = board;
+      ownership = null;
+      occupancy = null;
    }
 
    public void fixOwnedNodes()
@@ -433,7 +539,23 @@ public abstract class Model implements Serializable
       
       for (Player player : players)
       {
-         player.fixGroupCounts();
+         player.fixOwnedNodeTotals();
       }
+      
+      ownership = null;
+      occupancy = null;
+   }
+   
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      
+      // Models saved before the rules were compiled come with the rule set only.
+      if (rules == null && ruleSet != null)
+         rules = ruleSet.compile();
+      
+      // Players saved before they kept their nodes by index come back owning nothing.
+      if (board != null && players != null)
+         fixOwnedNodes();
    }
 }
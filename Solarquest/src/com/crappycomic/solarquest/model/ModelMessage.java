@@ -13,7 +13,10 @@ public class ModelMessage implements Serializable
 {
    private static final long serialVersionUID = 672249984093234004L;
 
-   /** Enumerates the possible actions that a {@link Player} may take. */
+   /**
+    * Enumerates the possible actions that a {@link Player} may take. Saved games and journals
+    * record them by ordinal, so new ones go at the end. See {@link SaveFile}.
+    */
    public static enum Type
    {
       NO_PRE_ROLL,
@@ -0,0 +1,197 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * The part of a game's state that changes during play, packed into a few small arrays: each
+ * player's cash, fuel, fuel stations, position, and status, plus each node's owner and fuel
+ * station. The board and rules never change once a game starts, so a client that already has a
+ * {@link ClientModel} can catch up with a snapshot of a few hundred bytes.
+ */
+public class ModelSnapshot implements Serializable
+{
+   private static final long serialVersionUID = 0;
+   
+   private static final int NONE = -1;
+   
+   private int currentPlayer;
+   
+   private int fuelStationsRemaining;
+   
+   private int[] playerNumbers;
+   
+   private int[] cash;
+   
+   private int[] fuel;
+   
+   private int[] fuelStations;
+   
+   private int[] currentNodes;
+   
+   private boolean[] gameOver;
+   
+   private byte[] owners;
+   
+   private boolean[] placedFuelStations;
+   
+   private ModelSnapshot()
+   {
+   }
+   
+   /** Captures the given model's state. The caller must make sure the model is not changing meanwhile. */
+   public ModelSnapshot(Model model)
+   {
+      int playerCount = model.players.size();
+      
+      currentPlayer = model.getCurrentPlayer() == null ? NONE : model.getCurrentPlayer().getNumber();
+      fuelStationsRemaining = model.fuelStationsRemaining;
+      playerNumbers = new int[playerCount];
+      cash = new int[playerCount];
+      fuel = new int[playerCount];
+      fuelStations = new int[playerCount];
+      currentNodes = new int[playerCount];
+      gameOver = new boolean[playerCount];
+      
+      for (int ndx = 0; ndx < playerCount; ndx++)
+      {
+         Player player = model.players.get(ndx);
+         
+         playerNumbers[ndx] = player.getNumber();
+         cash[ndx] = player.getCash();
+         fuel[ndx] = player.getFuel();
+         fuelStations[ndx] = player.getFuelStations();
+         currentNodes[ndx] = player.getCurrentNode() == null ? NONE : player.getCurrentNode().getIndex();
+         gameOver[ndx] = player.isGameOver();
+      }
+      
+      int nodeCount = model.board.getNodeCount();
+      
+      owners = new byte[nodeCount];
+      placedFuelStations = new boolean[nodeCount];
+      
+      for (int ndx = 0; ndx < nodeCount; ndx++)
+      {
+         Node node = model.board.getNode(ndx);
+         
+         owners[ndx] = (byte)(node.getOwner() == null ? NONE : node.getOwner().getNumber());
+         placedFuelStations[ndx] = node.hasFuelStation();
+      }
+   }
+   
+   /** Returns the number of the player whose turn it was, or -1 if there was none. */
+   public int getCurrentPlayer()
+   {
+      return currentPlayer;
+   }
+   
+   /** Writes the snapshot as primitive values, for a {@link SaveFile}. */
+   void write(DataOutput out) throws IOException
+   {
+      out.writeInt(currentPlayer);
+      out.writeInt(fuelStationsRemaining);
+      out.writeShort(playerNumbers.length);
+      
+      for (int ndx = 0; ndx < playerNumbers.length; ndx++)
+      {
+         out.writeByte(playerNumbers[ndx]);
+         out.writeInt(cash[ndx]);
+         out.writeInt(fuel[ndx]);
+         out.writeInt(fuelStations[ndx]);
+         out.writeShort(currentNodes[ndx]);
+         out.writeBoolean(gameOver[ndx]);
+      }
+      
+      BitSet fuelStationBits = new BitSet(owners.length);
+      
+      for (int ndx = 0; ndx < owners.length; ndx++)
+         fuelStationBits.set(ndx, placedFuelStations[ndx]);
+      
+      byte[] fuelStationBytes = fuelStationBits.toByteArray();
+      
+      out.writeShort(owners.length);
+      out.write(owners);
+      out.writeShort(fuelStationBytes.length);
+      out.write(fuelStationBytes);
+   }
+   
+   /** Reads what {@link #write(DataOutput)} wrote. */
+   static ModelSnapshot read(DataInput in) throws IOException
+   {
+      ModelSnapshot snapshot = new ModelSnapshot();
+      
+      snapshot.currentPlayer = in.readInt();
+      snapshot.fuelStationsRemaining = in.readInt();
+      
+      int playerCount = in.readShort();
+      
+      snapshot.playerNumbers = new int[playerCount];
+      snapshot.cash = new int[playerCount];
+      snapshot.fuel = new int[playerCount];
+      snapshot.fuelStations = new int[playerCount];
+      snapshot.currentNodes = new int[playerCount];
+      snapshot.gameOver = new boolean[playerCount];
+      
+      for (int ndx = 0; ndx < playerCount; ndx++)
+      {
+         snapshot.playerNumbers[ndx] = in.readByte();
+         snapshot.cash[ndx] = in.readInt();
+         snapshot.fuel[ndx] = in.readInt();
+         snapshot.fuelStations[ndx] = in.readInt();
+         snapshot.currentNodes[ndx] = in.readShort();
+         snapshot.gameOver[ndx] = in.readBoolean();
+      }
+      
+      int nodeCount = in.readShort();
+      
+      snapshot.owners = new byte[nodeCount];
+      in.readFully(snapshot.owners);
+      
+      byte[] fuelStationBytes = new byte[in.readShort()];
+      
+      in.readFully(fuelStationBytes);
+      
+      BitSet fuelStationBits = BitSet.valueOf(fuelStationBytes);
+      
+      snapshot.placedFuelStations = new boolean[nodeCount];
+      
+      for (int ndx = 0; ndx < nodeCount; ndx++)
+         snapshot.placedFuelStations[ndx] = fuelStationBits.get(ndx);
+      
+      return snapshot;
+   }
+   
+   /**
+    * Overwrites the given model's state with this snapshot's. The model must be of the same game,
+    * with the same board and players, as the one the snapshot was taken from.
+    */
+   void applyTo(Model model)
+   {
+      model.fuelStationsRemaining = fuelStationsRemaining;
+      
+      for (int ndx = 0; ndx < playerNumbers.length; ndx++)
+      {
+         Player player = model.getPlayer(playerNumbers[ndx]);
+         
+         player.changeCash(cash[ndx] - player.getCash());
+         player.changeFuel(fuel[ndx] - player.getFuel());
+         player.changeFuelStations(fuelStations[ndx] - player.getFuelStations());
+         model.setCurrentNode(player, currentNodes[ndx] == NONE ? null : model.board.getNode(currentNodes[ndx]));
+         player.setGameOver(gameOver[ndx]);
+      }
+      
+      for (int ndx = 0; ndx < owners.length; ndx++)
+      {
+         Node node = model.board.getNode(ndx);
+         Player owner = owners[ndx] == NONE ? null : model.getPlayer(owners[ndx]);
+         
+         model.setOwner(node, owner);
+         
+         node.setFuelStation(placedFuelStations[ndx]);
+      }
+   }
+}
@@ -457,7 +457,8 @@ public class ModelXMLLoader extends DefaultHandler
             for (String destinationID : entry.getValue())
                entry.getKey().addDestination(board.getNode(destinationID));
          
-         board.initializeAdjacencyMatrix();
+         board.initializeDistances();
+         board.initializePassesStartIndex();
       }
       else if (lastState == State.DEFAULT_RULE_SET)
       {
@@ -529,6 +530,7 @@ public class ModelXMLLoader extends DefaultHandler
       validateDestinations();
       validateDeeds();
       validateConnectivity();
+      validatePassesStartIndex();
    }
 
    private void validateDestinations()
@@ -621,6 +623,25 @@ public class ModelXMLLoader extends DefaultHandler
          + (unvisitedNodes.isEmpty() ? "PASS" : "FAIL (" + unvisitedNodes.size() + ")"));
    }
    
+   private void validatePassesStartIndex()
+   {
+      boolean indexMatchesSearch = true;
+      
+      for (Node fromNode : board.getNodes())
+      {
+         for (Node toNode : board.getNodes())
+         {
+            if (board.passesStart(fromNode, toNode) != board.searchPassesStart(fromNode, toNode))
+            {
+               System.out.println("Passes-start index is wrong from " + fromNode.getID() + " to " + toNode.getID());
+               indexMatchesSearch = false;
+            }
+         }
+      }
+      
+      System.out.println("Passes-start index matches search for every pair of nodes: " + (indexMatchesSearch ? "PASS" : "FAIL"));
+   }
+   
    private static void visitNodes(Node node, Set<Node> unvisitedNodes)
    {
       Collection<Node> destinations = node.getDestinations();
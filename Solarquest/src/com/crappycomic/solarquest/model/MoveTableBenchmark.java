@@ -0,0 +1,106 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Driver class that checks the move table against the walk it replaces on every built-in game,
+ * then times both over every node and every roll of two dice.
+ * <p>
+ * Usage: <code>MoveTableBenchmark [rounds] [rule set]</code>. The defaults are 20,000 rounds under
+ * the built-in 1985 rules.
+ */
+public class MoveTableBenchmark
+{
+   private static final int DEFAULT_ROUNDS = 20000;
+   
+   private static final int WARMUP_ROUNDS = 2000;
+   
+   private static final int VERIFIED_DISTANCE = 100;
+   
+   public static void main(String[] args) throws SAXException, IOException
+   {
+      int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+      RuleSet ruleSet = new ModelXMLLoader().loadRuleSet(args.length > 1 ? args[1] : "Solarquest_1985");
+      
+      for (ModelXMLLoader.XMLOption option : ModelXMLLoader.getAvailableGames())
+      {
+         ServerModel game = new ModelXMLLoader().loadGame(option.getID());
+         Board board = game.getBoard();
+         
+         game.setRuleSet(ruleSet);
+         game.initializeBoardTables();
+         
+         System.out.println(option.getID() + ": " + board.getNodeCount() + " nodes, move table matches walk: "
+            + (verify(board) ? "PASS" : "FAIL"));
+         
+         int maximumRoll = 2 * ruleSet.getValue(RuleSet.DIE_PIPS);
+         
+         time(board, maximumRoll, WARMUP_ROUNDS, true);
+         time(board, maximumRoll, WARMUP_ROUNDS, false);
+         
+         double walk = time(board, maximumRoll, rounds, true);
+         double table = time(board, maximumRoll, rounds, false);
+         
+         System.out.printf("walk %.1f ns/op, table %.1f ns/op (%.0fx)%n", walk, table, walk / table);
+      }
+   }
+   
+   /** Returns true if every entry in the move table lists the same nodes, in the same order, as the walk. */
+   private static boolean verify(Board board)
+   {
+      for (int ndx = 0; ndx < board.getNodeCount(); ndx++)
+      {
+         Node node = board.getNode(ndx);
+         
+         // Well past the end of the table, where both should be walking anyway.
+         for (int distance = 0; distance <= VERIFIED_DISTANCE; distance++)
+         {
+            if (!new ArrayList<Node>(board.getAllowedMoves(node, distance)).equals(
+               new ArrayList<Node>(board.walkAllowedMoves(node, distance))))
+               return false;
+         }
+      }
+      
+      return true;
+   }
+   
+   /** Returns the average nanoseconds per lookup over the given number of rounds. */
+   private static double time(Board board, int maximumRoll, int rounds, boolean walk)
+   {
+      int sink = 0;
+      long start = System.nanoTime();
+      
+      for (int round = 0; round < rounds; round++)
+      {
+         for (int ndx = 0; ndx < board.getNodeCount(); ndx++)
+         {
+            Node node = board.getNode(ndx);
+            
+            for (int roll = 2; roll <= maximumRoll; roll++)
+            {
+               Set<Node> allowedMoves = walk ? board.walkAllowedMoves(node, roll) : board.getAllowedMoves(node, roll);
+               
+               // Use the result, the way ServerModel.roll does, so none of the work can be skipped.
+               sink += allowedMoves.size();
+               
+               if (!allowedMoves.isEmpty())
+                  sink += allowedMoves.iterator().next().getIndex();
+            }
+         }
+      }
+      
+      long elapsed = System.nanoTime() - start;
+      
+      if (sink == 42)
+         System.out.println();
+      
+      return (double)elapsed / rounds / board.getNodeCount() / (maximumRoll - 1);
+   }
+}
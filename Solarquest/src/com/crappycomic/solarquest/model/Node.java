@@ -4,7 +4,7 @@
 
 package com.crappycomic.solarquest.model;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
 /** A position on a {@link Board}. Nodes describe the various paths a {@link Player} can take. */
@@ -47,12 +47,15 @@ public class Node implements Comparable<Node>, Serializable
 
    /** Deed group to which this node belongs. */
    private String group;
+   
+   /** Index of {@link #group} among the groups on the board, or -1 if this node has no group. */
+   private int groupIndex = -1;
 
-   /** List of rents this node charges when landed upon, in ascending order, or null if this node may not be purchased. */
-   private List<Integer> rents;
+   /** Rents this node charges when landed upon, in ascending order, or null if this node may not be purchased. */
+   private int[] rents;
 
-   /** List of fuel prices for this node, or null if fuel may never be purchased on this node. Length must equal that of {@link #rents}. */
-   private List<Integer> fuels;
+   /** Fuel prices for this node, or null if fuel may never be purchased on this node. Length must equal that of {@link #rents}. */
+   private int[] fuels;
    
    /** Actions that take place upon landing on this node. */
    private List<Action> actions;
@@ -75,7 +78,7 @@ public class Node implements Comparable<Node>, Serializable
       this.index = index;
    }
    
-   int getIndex()
+   public int getIndex()
    {
       return index;
    }
@@ -129,6 +132,16 @@ public class Node implements Comparable<Node>, Serializable
    {
       return group;
    }
+   
+   void setGroupIndex(int groupIndex)
+   {
+      this.groupIndex = groupIndex;
+   }
+   
+   int getGroupIndex()
+   {
+      return groupIndex;
+   }
 
    void setOwner(Player owner)
    {
@@ -142,28 +155,43 @@ public class Node implements Comparable<Node>, Serializable
 
    void addRent(int rent)
    {
-      if (rents == null)
-         rents = new ArrayList<Integer>();
-
-      rents.add(rent);
+      rents = append(rents, rent);
    }
    
    public List<Integer> getRents()
    {
-      return rents == null ? null : Collections.unmodifiableList(rents);
+      return toList(rents);
    }
 
    void addFuel(int fuel)
    {
-      if (fuels == null)
-         fuels = new ArrayList<Integer>();
-
-      fuels.add(fuel);
+      fuels = append(fuels, fuel);
    }
    
    public List<Integer> getFuels()
    {
-      return fuels == null ? null : Collections.unmodifiableList(fuels);
+      return toList(fuels);
+   }
+   
+   private static int[] append(int[] values, int value)
+   {
+      values = values == null ? new int[1] : Arrays.copyOf(values, values.length + 1);
+      values[values.length - 1] = value;
+      
+      return values;
+   }
+   
+   private static List<Integer> toList(int[] values)
+   {
+      if (values == null)
+         return null;
+      
+      List<Integer> list = new ArrayList<Integer>(values.length);
+      
+      for (int value : values)
+         list.add(value);
+      
+      return Collections.unmodifiableList(list);
    }
 
    void addAction(Action action)
@@ -179,6 +207,30 @@ public class Node implements Comparable<Node>, Serializable
       return actions == null ? null : Collections.unmodifiableList(actions);
    }
    
+   /**
+    * Returns a copy of this node with its fuel station, but without destinations or an owner,
+    * since those refer to objects the copy must not share. Rents, fuels, and actions never change
+    * once the board is loaded, so the copy shares them.
+    */
+   Node copy()
+   {
+      Node copy = new Node();
+      
+      copy.id = id;
+      copy.index = index;
+      copy.type = type;
+      copy.startNode = startNode;
+      copy.fuelStation = fuelStation;
+      copy.price = price;
+      copy.group = group;
+      copy.groupIndex = groupIndex;
+      copy.rents = rents;
+      copy.fuels = fuels;
+      copy.actions = actions;
+      
+      return copy;
+   }
+   
    @Override
    public String toString()
    {
@@ -229,15 +281,15 @@ public class Node implements Comparable<Node>, Serializable
 
             out.append('\n');
 
-            for (int ndx = 0; ndx < rents.size(); ndx++)
+            for (int ndx = 0; ndx < rents.length; ndx++)
             {
                out.append('\t');
-               out.append(rents.get(ndx));
+               out.append(rents[ndx]);
 
                if (fuels != null)
                {
                   out.append('\t');
-                  out.append(fuels.get(ndx));
+                  out.append(fuels[ndx]);
                }
 
                out.append('\n');
@@ -319,6 +371,9 @@ public class Node implements Comparable<Node>, Serializable
    
    void setFuelStation(boolean fuelStation)
    {
+      if (owner != null && fuelStation != this.fuelStation)
+         owner.changePlacedFuelStations(fuelStation ? 1 : -1);
+      
       this.fuelStation = fuelStation;      
    }
 
@@ -359,21 +414,21 @@ public class Node implements Comparable<Node>, Serializable
    }
    
    /** Returns price of one hydron of fuel, regardless of whether refuelling is actually allowed. */
-   public int getFuelPrice(RuleSet ruleSet, Player player)
+   public int getFuelPrice(CompiledRuleSet rules, Player player)
    {
       if (startNode)
-         return ruleSet.getValue(RuleSet.FUEL_PRICE_ON_START);
+         return rules.getFuelPriceOnStart();
       
       if (fuels == null)
          return 0;
       
       if (owner == null) // Purchase from league at cheapest price
-         return fuels.get(0);
+         return fuels[0];
       
       if (owner.equals(player))
          return 0;
       
-      return fuels.get(owner.getGroupCount(getGroup()));
+      return fuels[owner.getGroupCount(this)];
    }
    
    /**
@@ -388,6 +443,45 @@ public class Node implements Comparable<Node>, Serializable
       if (owner.equals(player))
          return 0;
       
-      return rents.get(owner.getGroupCount(getGroup()));
+      return rents[owner.getGroupCount(this)];
+   }
+   
+   /**
+    * Reads the fields one by one, since nodes saved before the rents and fuels were kept in arrays
+    * have them as lists, and have no group index, which their board assigns once it has them all.
+    */
+   @SuppressWarnings("unchecked")
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      ObjectInputStream.GetField fields = in.readFields();
+      
+      id = (String)fields.get("id", null);
+      index = fields.get("index", 0);
+      type = (Type)fields.get("type", null);
+      startNode = fields.get("startNode", false);
+      fuelStation = fields.get("fuelStation", false);
+      destinations = (List<Node>)fields.get("destinations", null);
+      price = fields.get("price", 0);
+      group = (String)fields.get("group", null);
+      groupIndex = fields.get("groupIndex", -1);
+      rents = readValues(fields.get("rents", null));
+      fuels = readValues(fields.get("fuels", null));
+      actions = (List<Action>)fields.get("actions", null);
+      owner = (Player)fields.get("owner", null);
+   }
+   
+   @SuppressWarnings("unchecked")
+   private static int[] readValues(Object values)
+   {
+      if (!(values instanceof List<?>))
+         return (int[])values;
+      
+      List<Integer> list = (List<Integer>)values;
+      int[] array = new int[list.size()];
+      
+      for (int ndx = 0; ndx < array.length; ndx++)
+         array[ndx] = list.get(ndx);
+      
+      return array;
    }
 }
@@ -0,0 +1,94 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+
+/**
+ * Which players stand on each node of one game, kept current as they move so that finding the
+ * players near a node never has to check every player. Players are recorded by their place in the
+ * model's list of players, one bit each, so a lookup can hand them back in that order. Built from
+ * the players' current nodes, then updated through {@link #setCurrentNode(Player, Node)}.
+ */
+class OccupancyIndex
+{
+   private List<Player> players;
+   
+   // place in the list of players, by player number
+   private int[] positions;
+   
+   private int wordsPerNode;
+   
+   // the players on node n are the bits of words n * wordsPerNode up to (n + 1) * wordsPerNode
+   private long[] occupants;
+   
+   OccupancyIndex(Board board, List<Player> players)
+   {
+      int maximumNumber = -1;
+      
+      this.players = players;
+      
+      for (Player player : players)
+         maximumNumber = Math.max(maximumNumber, player.getNumber());
+      
+      positions = new int[maximumNumber + 1];
+      wordsPerNode = (players.size() + 63) >>> 6;
+      occupants = new long[board.getNodeCount() * wordsPerNode];
+      
+      for (int position = 0; position < players.size(); position++)
+      {
+         Player player = players.get(position);
+         
+         positions[player.getNumber()] = position;
+         
+         if (player.getCurrentNode() != null)
+            flip(player.getCurrentNode(), position);
+      }
+   }
+   
+   /** Records the move of the given player, which must not have been made on the player yet. */
+   void setCurrentNode(Player player, Node node)
+   {
+      int position = positions[player.getNumber()];
+      
+      if (player.getCurrentNode() != null)
+         flip(player.getCurrentNode(), position);
+      
+      if (node != null)
+         flip(node, position);
+   }
+   
+   /**
+    * Returns the players standing no farther from the given node than the given distance, in the
+    * order of the list of players. The list is a new one, which the caller may change.
+    */
+   List<Player> getPlayersNear(LaserRangeIndex ranges, Node node, int distance)
+   {
+      long[] found = new long[wordsPerNode];
+      List<Player> players = new ArrayList<Player>();
+      int end = ranges.getEnd(node.getIndex(), distance);
+      
+      for (int ndx = ranges.getStart(node.getIndex()); ndx < end; ndx++)
+      {
+         int word = ranges.getNode(ndx) * wordsPerNode;
+         
+         for (int offset = 0; offset < wordsPerNode; offset++)
+            found[offset] |= occupants[word + offset];
+      }
+      
+      for (int offset = 0; offset < wordsPerNode; offset++)
+      {
+         for (long bits = found[offset]; bits != 0; bits &= bits - 1)
+            players.add(this.players.get((offset << 6) + Long.numberOfTrailingZeros(bits)));
+      }
+      
+      return players;
+   }
+   
+   private void flip(Node node, int position)
+   {
+      occupants[node.getIndex() * wordsPerNode + (position >>> 6)] ^= 1L << position;
+   }
+}
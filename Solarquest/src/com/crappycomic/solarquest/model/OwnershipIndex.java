@@ -0,0 +1,126 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+
+/**
+ * Who owns which nodes of one game, kept current as nodes change hands so that questions like
+ * "what can still be bought?" never have to scan the whole board. Built from the owners the nodes
+ * already have, then updated through {@link #setOwner(Node, Player)}.
+ * <p>
+ * Each node gets the bit for its place in {@link Board#getNodes()}, so the lists come out in the
+ * same order a scan of the board would have produced.
+ */
+class OwnershipIndex
+{
+   // node for each bit
+   private Node[] nodes;
+   
+   // bit for each node index
+   private int[] bits;
+   
+   // nodes that can be owned but are not
+   private BitSet unownedNodes = new BitSet();
+   
+   // nodes that are owned by anybody
+   private BitSet ownedNodes = new BitSet();
+   
+   // by player number
+   private BitSet[] playerNodes;
+   
+   OwnershipIndex(Board board, Collection<Player> players)
+   {
+      int maximumNumber = -1;
+      
+      nodes = board.getNodes().toArray(new Node[board.getNodeCount()]);
+      bits = new int[nodes.length];
+      
+      for (int bit = 0; bit < nodes.length; bit++)
+         bits[nodes[bit].getIndex()] = bit;
+      
+      for (Player player : players)
+         maximumNumber = Math.max(maximumNumber, player.getNumber());
+      
+      playerNodes = new BitSet[maximumNumber + 1];
+      
+      for (Player player : players)
+         playerNodes[player.getNumber()] = new BitSet();
+      
+      for (int bit = 0; bit < nodes.length; bit++)
+      {
+         Node node = nodes[bit];
+         
+         if (node.getOwner() != null)
+         {
+            ownedNodes.set(bit);
+            playerNodes[node.getOwner().getNumber()].set(bit);
+         }
+         else if (node.canOwn())
+         {
+            unownedNodes.set(bit);
+         }
+      }
+   }
+   
+   /** Records the change of the given node's owner, which must not have been made on the node yet. */
+   void setOwner(Node node, Player owner)
+   {
+      int bit = bits[node.getIndex()];
+      
+      if (node.getOwner() != null)
+         playerNodes[node.getOwner().getNumber()].clear(bit);
+      
+      if (owner == null)
+      {
+         ownedNodes.clear(bit);
+         unownedNodes.set(bit);
+      }
+      else
+      {
+         unownedNodes.clear(bit);
+         ownedNodes.set(bit);
+         playerNodes[owner.getNumber()].set(bit);
+      }
+   }
+   
+   boolean hasUnownedNodes()
+   {
+      return !unownedNodes.isEmpty();
+   }
+   
+   List<Node> getUnownedNodes()
+   {
+      return getNodes(unownedNodes, null);
+   }
+   
+   /** Returns true if anybody but the given player owns a node. */
+   boolean hasOwnedNodes(Player exclude)
+   {
+      return ownedNodes.cardinality() > getOwnedNodeCount(exclude);
+   }
+   
+   /** Returns the nodes owned by anybody but the given player, which may be null. */
+   List<Node> getOwnedNodes(Player exclude)
+   {
+      return getNodes(ownedNodes, exclude == null ? null : playerNodes[exclude.getNumber()]);
+   }
+   
+   int getOwnedNodeCount(Player player)
+   {
+      return player == null ? 0 : playerNodes[player.getNumber()].cardinality();
+   }
+   
+   private List<Node> getNodes(BitSet set, BitSet exclude)
+   {
+      List<Node> list = new ArrayList<Node>(set.cardinality());
+      
+      for (int bit = set.nextSetBit(0); bit >= 0; bit = set.nextSetBit(bit + 1))
+         if (exclude == null || !exclude.get(bit))
+            list.add(nodes[bit]);
+      
+      return list;
+   }
+}
@@ -0,0 +1,145 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Answers {@link Board#passesStart(Node, Node)} for every pair of nodes, one bit per pair. Built
+ * with one breadth-first search from each node, spread across a fork/join pool on large boards.
+ * Each node is reached first along the same path {@link Board#searchPassesStart(Node, Node)}
+ * would have found, so the answers are the same; the searches just track one bit per node instead
+ * of a copy of the path. Instances never change once built.
+ */
+class PassesStartIndex
+{
+   /** Number of searches each task runs without splitting. Smaller boards are done in one thread. */
+   private static final int SOURCES_PER_TASK = 32;
+   
+   /** Searches from a range of nodes, splitting the range first if it is large. */
+   private class Rows extends RecursiveAction
+   {
+      private static final long serialVersionUID = 0;
+      
+      private int from;
+      
+      private int to;
+      
+      private Rows(int from, int to)
+      {
+         this.from = from;
+         this.to = to;
+      }
+      
+      @Override
+      protected void compute()
+      {
+         if (to - from > SOURCES_PER_TASK)
+         {
+            int middle = (from + to) >>> 1;
+            
+            invokeAll(new Rows(from, middle), new Rows(middle, to));
+            
+            return;
+         }
+         
+         int[] queue = new int[nodeCount];
+         boolean[] visited = new boolean[nodeCount];
+         boolean[] passed = new boolean[nodeCount];
+         
+         for (int source = from; source < to; source++)
+            if (!startNodes[source])
+               search(source, queue, visited, passed);
+      }
+   }
+   
+   private int nodeCount;
+   
+   // each row starts on a word of its own, so threads filling different rows never share one
+   private int wordsPerRow;
+   
+   private long[] bits;
+   
+   // directed adjacency, packed: the destinations of node n are destinations[offsets[n]] up to destinations[offsets[n + 1]]
+   private int[] offsets;
+   
+   private int[] destinations;
+   
+   private boolean[] startNodes;
+   
+   PassesStartIndex(List<Node> nodesByIndex)
+   {
+      nodeCount = nodesByIndex.size();
+      wordsPerRow = (nodeCount + 63) >>> 6;
+      bits = new long[nodeCount * wordsPerRow];
+      offsets = new int[nodeCount + 1];
+      startNodes = new boolean[nodeCount];
+      
+      for (Node node : nodesByIndex)
+      {
+         offsets[node.getIndex() + 1] = offsets[node.getIndex()] + node.getDestinations().size();
+         startNodes[node.getIndex()] = node.isStartNode();
+      }
+      
+      destinations = new int[offsets[nodeCount]];
+      
+      for (Node node : nodesByIndex)
+      {
+         int ndx = offsets[node.getIndex()];
+         
+         // Same order as the node's own list, which decides which path is found first.
+         for (Node destination : node.getDestinations())
+            destinations[ndx++] = destination.getIndex();
+      }
+      
+      if (nodeCount > SOURCES_PER_TASK)
+         ForkJoinPool.commonPool().invoke(new Rows(0, nodeCount));
+      else
+         new Rows(0, nodeCount).compute();
+      
+      // Only needed while searching.
+      offsets = null;
+      destinations = null;
+      startNodes = null;
+   }
+   
+   boolean get(int from, int to)
+   {
+      return (bits[from * wordsPerRow + (to >>> 6)] & (1L << to)) != 0;
+   }
+   
+   private void search(int source, int[] queue, boolean[] visited, boolean[] passed)
+   {
+      int head = 0;
+      int tail = 0;
+      int row = source * wordsPerRow;
+      
+      Arrays.fill(visited, false);
+      queue[tail++] = source;
+      visited[source] = true;
+      passed[source] = false;
+      
+      while (head < tail)
+      {
+         int current = queue[head++];
+         
+         if (passed[current] && !startNodes[current])
+            bits[row + (current >>> 6)] |= 1L << current;
+         
+         for (int ndx = offsets[current]; ndx < offsets[current + 1]; ndx++)
+         {
+            int destination = destinations[ndx];
+            
+            if (!visited[destination])
+            {
+               visited[destination] = true;
+               passed[destination] = passed[current] || startNodes[destination];
+               queue[tail++] = destination;
+            }
+         }
+      }
+   }
+}
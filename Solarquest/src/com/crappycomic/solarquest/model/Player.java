@@ -4,7 +4,7 @@
 
 package com.crappycomic.solarquest.model;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
 public class Player implements Serializable
@@ -25,11 +25,74 @@ public class Player implements Serializable
    
    private Node currentNode;
    
-   private Set<Node> ownedNodes = new HashSet<Node>();
+   // by node index
+   private BitSet ownedNodes = new BitSet();
    
-   private transient boolean ownedNodesRehashed;
+   // the owned nodes themselves, by node index, so the set can hand them out
+   private Node[] ownedNodeSlots = new Node[0];
    
-   private Map<String, Integer> groupCounts = new HashMap<String, Integer>();
+   private int ownedNodeCount;
+   
+   // number of nodes owned in each deed group, by group index
+   private int[] groupCounts = new int[0];
+   
+   // sum of the base prices of the owned nodes
+   private int ownedNodePrices;
+   
+   // number of owned nodes with a fuel station on them
+   private int placedFuelStations;
+   
+   private transient Set<Node> ownedNodesView;
+   
+   /** Read-only view of the owned nodes, in order of node index. */
+   private class OwnedNodes extends AbstractSet<Node>
+   {
+      @Override
+      public Iterator<Node> iterator()
+      {
+         return new Iterator<Node>()
+         {
+            private int next = ownedNodes.nextSetBit(0);
+            
+            @Override
+            public boolean hasNext()
+            {
+               return next >= 0;
+            }
+            
+            @Override
+            public Node next()
+            {
+               if (next < 0)
+                  throw new NoSuchElementException();
+               
+               Node node = ownedNodeSlots[next];
+               
+               next = ownedNodes.nextSetBit(next + 1);
+               
+               return node;
+            }
+            
+            @Override
+            public void remove()
+            {
+               throw new UnsupportedOperationException();
+            }
+         };
+      }
+      
+      @Override
+      public int size()
+      {
+         return ownedNodeCount;
+      }
+      
+      @Override
+      public boolean contains(Object object)
+      {
+         return object instanceof Node && owns((Node)object);
+      }
+   }
    
    public Player(int number)
    {
@@ -115,54 +178,133 @@ public class Player implements Serializable
    
    void addNode(Node node)
    {
-      if (ownedNodes.add(node))
-         incrementGroupCount(node.getGroup());
+      int ndx = node.getIndex();
+      
+      if (ownedNodes.get(ndx))
+         return;
+      
+      if (ndx >= ownedNodeSlots.length)
+         ownedNodeSlots = Arrays.copyOf(ownedNodeSlots, Math.max(ndx + 1, 2 * ownedNodeSlots.length));
+      
+      ownedNodes.set(ndx);
+      ownedNodeSlots[ndx] = node;
+      ownedNodeCount++;
+      changeGroupCount(node, 1);
+      ownedNodePrices += node.getPrice();
+      
+      if (node.hasFuelStation())
+         placedFuelStations++;
    }
    
    void removeNode(Node node)
    {
-      if (ownedNodes.remove(node))
-         decrementGroupCount(node.getGroup());
+      int ndx = node.getIndex();
+      
+      if (!ownedNodes.get(ndx))
+         return;
+      
+      ownedNodes.clear(ndx);
+      ownedNodeSlots[ndx] = null;
+      ownedNodeCount--;
+      changeGroupCount(node, -1);
+      ownedNodePrices -= node.getPrice();
+      
+      if (node.hasFuelStation())
+         placedFuelStations--;
+   }
+   
+   /** Returns true if this player owns the given node, or the node at the same index of another copy of the board. */
+   public boolean owns(Node node)
+   {
+      return ownedNodes.get(node.getIndex());
    }
    
+   /**
+    * Returns a copy of this player that stands on, and owns, the corresponding nodes of the given
+    * board, which must be a {@link Board#copy() copy} of this player's board.
+    */
+   Player copy(Board board)
+   {
+      Player copy = new Player(number);
+      
+      copy.name = name;
+      copy.gameOver = gameOver;
+      copy.cash = cash;
+      copy.fuelStations = fuelStations;
+      copy.fuel = fuel;
+      copy.currentNode = currentNode == null ? null : board.getNode(currentNode.getIndex());
+      
+      for (int ndx = ownedNodes.nextSetBit(0); ndx >= 0; ndx = ownedNodes.nextSetBit(ndx + 1))
+         copy.addNode(board.getNode(ndx));
+      
+      return copy;
+   }
+   
+   /** Returns the nodes this player owns, in order of node index. The set changes along with them. */
    public Set<Node> getOwnedNodes()
    {
-      // This is pretty dumb, but it's a decent enough fix for Java's deserialization woes.
-      // See bug #4957674 on Sun's site.
-      if (!ownedNodesRehashed)
-      {
-         ownedNodes = new HashSet<Node>(ownedNodes);
-         ownedNodesRehashed = true;
-      }
+      if (ownedNodesView == null)
+         ownedNodesView = new OwnedNodes();
       
-      return Collections.unmodifiableSet(ownedNodes);
+      return ownedNodesView;
    }
    
-   private void incrementGroupCount(String group)
+   private void changeGroupCount(Node node, int amount)
    {
-      if (groupCounts.containsKey(group))
-         groupCounts.put(group, groupCounts.get(group) + 1);
-      else
-         groupCounts.put(group, 0);
+      int group = node.getGroupIndex();
+      
+      if (group < 0)
+         return;
+      
+      if (group >= groupCounts.length)
+         groupCounts = Arrays.copyOf(groupCounts, group + 1);
+      
+      groupCounts[group] += amount;
    }
    
-   private void decrementGroupCount(String group)
+   /**
+    * Returns one less than the number of nodes this player owns in the given node's deed group,
+    * which is the index of the rent and fuel price the node charges.
+    */
+   public int getGroupCount(Node node)
    {
-      groupCounts.put(group, groupCounts.get(group) - 1);
+      int group = node.getGroupIndex();
+      
+      return group < 0 || group >= groupCounts.length ? -1 : groupCounts[group] - 1;
    }
    
-   public int getGroupCount(String group)
+   /** Returns the sum of the base prices of the owned nodes, not counting their fuel stations. */
+   int getOwnedNodePrices()
    {
-      return groupCounts.get(group);
+      return ownedNodePrices;
    }
    
-   void fixGroupCounts()
+   /** Returns the number of fuel stations placed on the owned nodes. */
+   int getPlacedFuelStations()
    {
-      groupCounts.clear();
+      return placedFuelStations;
+   }
+   
+   /** Called by a node this player owns when a fuel station is placed on it or removed from it. */
+   void changePlacedFuelStations(int amount)
+   {
+      placedFuelStations += amount;
+   }
+   
+   /** Recomputes the group counts and other totals kept for the owned nodes. */
+   void fixOwnedNodeTotals()
+   {
+      Arrays.fill(groupCounts, 0);
+      ownedNodePrices = 0;
+      placedFuelStations = 0;
       
       for (Node node : getOwnedNodes())
       {
-         incrementGroupCount(node.getGroup());
+         changeGroupCount(node, 1);
+         ownedNodePrices += node.getPrice();
+         
+         if (node.hasFuelStation())
+            placedFuelStations++;
       }
    }
 
@@ -171,4 +313,40 @@ public class Player implements Serializable
    {
       return name;
    }
+   
+   /**
+    * Reads the fields one by one, since players saved before their nodes were kept by index have
+    * them as a set, and their group counts as a map by group name. Such players come back owning
+    * nothing, and {@link Model#fixOwnedNodes()} gives them their nodes back from the nodes' owners.
+    */
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      ObjectInputStream.GetField fields = in.readFields();
+      
+      number = fields.get("number", 0);
+      name = (String)fields.get("name", null);
+      gameOver = fields.get("gameOver", false);
+      cash = fields.get("cash", 0);
+      fuelStations = fields.get("fuelStations", 0);
+      fuel = fields.get("fuel", 0);
+      currentNode = (Node)fields.get("currentNode", null);
+      
+      Object ownedNodes = fields.get("ownedNodes", null);
+      
+      if (ownedNodes instanceof BitSet)
+      {
+         this.ownedNodes = (BitSet)ownedNodes;
+         ownedNodeSlots = (Node[])fields.get("ownedNodeSlots", null);
+         ownedNodeCount = fields.get("ownedNodeCount", 0);
+         groupCounts = (int[])fields.get("groupCounts", null);
+         ownedNodePrices = fields.get("ownedNodePrices", 0);
+         placedFuelStations = fields.get("placedFuelStations", 0);
+      }
+      else
+      {
+         this.ownedNodes = new BitSet();
+         ownedNodeSlots = new Node[0];
+         groupCounts = new int[0];
+      }
+   }
 }
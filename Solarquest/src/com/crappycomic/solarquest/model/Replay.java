@@ -0,0 +1,403 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import com.crappycomic.solarquest.view.ViewMessage;
+
+/**
+ * Plays a {@link GameJournal} back through a {@link ServerModel}, in the calling thread, and hands
+ * over every {@link ViewMessage} the model sends, in the order it sent them while the game was
+ * hosted. The journal's snapshot carries the state of the game's random number generator, and the
+ * records carry every message the game accepted, so the model rolls the same dice, draws the same
+ * cards, and sends the same messages on every replay, down to the last bit.
+ * <p>
+ * A replay reads the whole journal into memory when it is loaded, checking each record once, so
+ * running it involves no I/O and no checksums, only decoding the records and processing them. It
+ * may be run any number of times, each time on a fresh copy of the game, and any number of replays
+ * may run in different threads at once.
+ * <p>
+ * A journal holds the records since its latest snapshot only, so a replay starts from there. To
+ * keep whole games, journal them with a large
+ * {@link GameJournal#SNAPSHOT_INTERVAL_PROPERTY snapshot interval}.
+ * <p>
+ * Usage: <code>Replay [-print] [-verify] directory...</code>, where each directory holds a journal
+ * or holds directories that do. Prints, for each journal, the number of records and messages and a
+ * {@link Digest} of the messages, which changes if anything the game sends changes. With
+ * <code>-print</code>, prints every message, too. With <code>-verify</code>, replays each journal
+ * twice and reports any journal whose digests differ.
+ */
+public class Replay
+{
+   /** Receives the messages a replayed game sends. */
+   public static interface Listener
+   {
+      /**
+       * Called with the messages the model sent in reply to the record with the given sequence, or,
+       * given the sequence of the snapshot, the messages it sent on resuming the game. The model is
+       * live, so listeners should only read it.
+       */
+      void messagesSent(ServerModel model, long sequence, List<ViewMessage> messages);
+   }
+   
+   /**
+    * Digests every message sent, as a {@link SaveFile} would encode it, which depends only on the
+    * messages' content. Two replays that send the same messages have the same digest.
+    */
+   public static class Digest implements Listener
+   {
+      private MessageDigest digest;
+      
+      private ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      
+      private DataOutputStream out = new DataOutputStream(bytes);
+      
+      private long messages;
+      
+      public Digest()
+      {
+         try
+         {
+            digest = MessageDigest.getInstance("SHA-256");
+         }
+         catch (NoSuchAlgorithmException nsae)
+         {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(nsae);
+         }
+      }
+      
+      @Override
+      public void messagesSent(ServerModel model, long sequence, List<ViewMessage> messages)
+      {
+         bytes.reset();
+         
+         try
+         {
+            for (ViewMessage message : messages)
+               SaveFile.writeMessage(out, message, model);
+         }
+         catch (IOException ioe)
+         {
+            // Nothing here does I/O.
+            throw new IllegalStateException(ioe);
+         }
+         
+         digest.update(bytes.toByteArray());
+         this.messages += messages.size();
+      }
+      
+      /** Returns the number of messages digested. */
+      public long getMessages()
+      {
+         return messages;
+      }
+      
+      /** Returns the digest, in hexadecimal, and starts a new one. */
+      @Override
+      public String toString()
+      {
+         StringBuilder builder = new StringBuilder();
+         
+         for (byte b : digest.digest())
+            builder.append(String.format("%02x", b));
+         
+         return builder.toString();
+      }
+   }
+   
+   // file header: magic number, version, and sequence, then the seed
+   private static final int HEADER_LENGTH = 4 + 2 + 8 + 8;
+   
+   private File directory;
+   
+   private long seed;
+   
+   // the sequence of the snapshot
+   private long sequence;
+   
+   // the game, as a save file
+   private byte[] snapshot;
+   
+   private byte[] records;
+   
+   // where each whole record's contents start in records, and how long they are
+   private int[] offsets;
+   
+   private int[] lengths;
+   
+   private int recordCount;
+   
+   private Replay(File directory)
+   {
+      this.directory = directory;
+   }
+   
+   /**
+    * Reads the journal in the given directory: its latest readable snapshot, and the records that
+    * follow it, up to the first record that did not make it to disk whole.
+    *
+    * @throws IOException if the directory holds no readable snapshot
+    */
+   public static Replay load(File directory) throws IOException
+   {
+      List<File> snapshots = GameJournal.listFiles(directory, GameJournal.SNAPSHOT_PREFIX, GameJournal.SNAPSHOT_SUFFIX);
+      IOException lastException = null;
+      Replay replay = new Replay(directory);
+      
+      // Newest first, in case the newest is damaged.
+      for (int ndx = snapshots.size() - 1; ndx >= 0; ndx--)
+      {
+         File snapshot = snapshots.get(ndx);
+         
+         try
+         {
+            byte[] bytes = Files.readAllBytes(snapshot.toPath());
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            
+            replay.sequence = GameJournal.readHeader(in, snapshot);
+            replay.seed = in.readLong();
+            replay.snapshot = Arrays.copyOfRange(bytes, HEADER_LENGTH, bytes.length);
+            SaveFile.read(in);
+         }
+         catch (IOException ioe)
+         {
+            lastException = ioe;
+            continue;
+         }
+         
+         replay.readRecords(new File(directory, GameJournal.RECORDS_PREFIX + replay.sequence + GameJournal.RECORDS_SUFFIX));
+         
+         return replay;
+      }
+      
+      throw lastException == null ? new IOException("No journal in " + directory) : lastException;
+   }
+   
+   /** Reads the given file of records and finds every whole one. */
+   private void readRecords(File file) throws IOException
+   {
+      offsets = new int[64];
+      lengths = new int[64];
+      
+      if (!file.exists())
+      {
+         records = new byte[0];
+         return;
+      }
+      
+      records = Files.readAllBytes(file.toPath());
+      
+      if (GameJournal.readHeader(new DataInputStream(new ByteArrayInputStream(records)), file) != sequence)
+         throw new IOException(file + " does not follow its snapshot");
+      
+      ByteBuffer buffer = ByteBuffer.wrap(records);
+      CRC32 crc = new CRC32();
+      int offset = HEADER_LENGTH;
+      
+      while (offset + 8 <= records.length)
+      {
+         int length = buffer.getInt(offset);
+         int checksum = buffer.getInt(offset + 4);
+         
+         if (length <= 0 || length > GameJournal.MAXIMUM_RECORD_LENGTH || length > records.length - offset - 8)
+            break;
+         
+         crc.reset();
+         crc.update(records, offset + 8, length);
+         
+         if ((int)crc.getValue() != checksum)
+            break;
+         
+         if (recordCount == offsets.length)
+         {
+            offsets = Arrays.copyOf(offsets, 2 * recordCount);
+            lengths = Arrays.copyOf(lengths, 2 * recordCount);
+         }
+         
+         offsets[recordCount] = offset + 8;
+         lengths[recordCount] = length;
+         recordCount++;
+         offset += 8 + length;
+      }
+   }
+   
+   public File getDirectory()
+   {
+      return directory;
+   }
+   
+   /** Returns the seed the game's random number generator started from. */
+   public long getSeed()
+   {
+      return seed;
+   }
+   
+   /** Returns the sequence of the snapshot the replay starts from. */
+   public long getFirstSequence()
+   {
+      return sequence;
+   }
+   
+   /** Returns the sequence of the last record the replay applies. */
+   public long getLastSequence()
+   {
+      return sequence + recordCount;
+   }
+   
+   public int getRecordCount()
+   {
+      return recordCount;
+   }
+   
+   /**
+    * Replays the whole journal on a fresh copy of its game, handing every message the game sends
+    * to the given listener, if any, and returns the game as the last record left it.
+    */
+   public ServerModel run(Listener listener) throws IOException
+   {
+      ServerModel model = SaveFile.read(new DataInputStream(new ByteArrayInputStream(snapshot)));
+      List<ViewMessage> messages = model.beginReplay();
+      
+      if (listener != null)
+         listener.messagesSent(model, sequence, messages);
+      
+      for (int ndx = 0; ndx < recordCount; ndx++)
+      {
+         messages = apply(new DataInputStream(new ByteArrayInputStream(records, offsets[ndx], lengths[ndx])), model);
+         
+         if (listener != null)
+            listener.messagesSent(model, sequence + ndx + 1, messages);
+      }
+      
+      return model;
+   }
+   
+   private static List<ViewMessage> apply(DataInputStream in, ServerModel model) throws IOException
+   {
+      byte kind = in.readByte();
+      
+      if (kind == GameJournal.MESSAGE)
+      {
+         return model.simulateMessage(ValueCodec.readModelMessage(in, model));
+      }
+      else if (kind == GameJournal.PLAYERS_DROPPED)
+      {
+         int count = in.readInt();
+         List<Integer> players = new ArrayList<Integer>(count);
+         
+         for (int ndx = 0; ndx < count; ndx++)
+            players.add(in.readInt());
+         
+         return model.replayPlayersDropped(players);
+      }
+      
+      throw new IOException("Unknown journal record: " + kind);
+   }
+   
+   public static void main(String[] args) throws IOException
+   {
+      boolean print = false;
+      boolean verify = false;
+      List<File> directories = new ArrayList<File>();
+      
+      for (String arg : args)
+      {
+         if (arg.equals("-print"))
+            print = true;
+         else if (arg.equals("-verify"))
+            verify = true;
+         else
+            findJournals(new File(arg), directories);
+      }
+      
+      long records = 0;
+      long messages = 0;
+      long nanos = 0;
+      int mismatches = 0;
+      
+      for (File directory : directories)
+      {
+         Replay replay = load(directory);
+         Digest digest = new Digest();
+         Listener listener = digest;
+         
+         if (print)
+         {
+            final Digest printed = digest;
+            
+            listener = new Listener()
+            {
+               @Override
+               public void messagesSent(ServerModel model, long sequence, List<ViewMessage> messages)
+               {
+                  for (ViewMessage message : messages)
+                     System.out.println(sequence + ": " + message);
+                  
+                  printed.messagesSent(model, sequence, messages);
+               }
+            };
+         }
+         
+         long start = System.nanoTime();
+         
+         replay.run(listener);
+         nanos += System.nanoTime() - start;
+         records += replay.getRecordCount();
+         messages += digest.getMessages();
+         
+         String result = digest.toString();
+         
+         System.out.printf("%s: records %d to %d, %d messages, %s%n", directory, replay.getFirstSequence(),
+            replay.getLastSequence(), digest.getMessages(), result);
+         
+         if (verify)
+         {
+            Digest again = new Digest();
+            
+            replay.run(again);
+            
+            if (!again.toString().equals(result))
+            {
+               System.out.printf("%s: replayed differently, %s%n", directory, again);
+               mismatches++;
+            }
+         }
+      }
+      
+      System.out.printf("%d journals, %d records, %d messages, %.0f records per second%n", directories.size(),
+         records, messages, records / (nanos / 1e9));
+      
+      if (verify)
+         System.out.printf("%d journals replayed differently%n", mismatches);
+   }
+   
+   /** Adds the given directory if it holds a journal, or else any directories in it that do. */
+   private static void findJournals(File directory, List<File> directories)
+   {
+      if (!GameJournal.listFiles(directory, GameJournal.SNAPSHOT_PREFIX, GameJournal.SNAPSHOT_SUFFIX).isEmpty())
+      {
+         directories.add(directory);
+         return;
+      }
+      
+      File[] files = directory.listFiles();
+      
+      if (files == null)
+         return;
+      
+      Arrays.sort(files);
+      
+      for (File file : files)
+         if (file.isDirectory())
+            findJournals(file, directories);
+   }
+}
@@ -232,13 +232,18 @@ public class RuleSet implements Serializable
    }
    
    public static boolean isTransactionAvailable(TransactionAvailability availability, Node node)
+   {
+      return isTransactionAvailable(availability, node.getType());
+   }
+   
+   public static boolean isTransactionAvailable(TransactionAvailability availability, Node.Type type)
    {
       switch (availability)
       {
          case NOWHERE:
             return false;
          case STATIONS:
-            return node.getType() == Node.Type.STATION;
+            return type == Node.Type.STATION;
          case EVERYWHERE:
             return true;
       }
@@ -250,4 +255,10 @@ public class RuleSet implements Serializable
    {
       return ruleValueMap.size();
    }
+   
+   /** Returns a snapshot of the current values, for looking up quickly during a game. */
+   public CompiledRuleSet compile()
+   {
+      return new CompiledRuleSet(this);
+   }
 }
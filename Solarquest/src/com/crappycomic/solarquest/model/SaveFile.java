@@ -0,0 +1,226 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.xml.sax.SAXException;
+
+import com.crappycomic.solarquest.view.ViewMessage;
+
+/**
+ * Reads and writes saved games in a compact binary format. The board, cards, and views never
+ * change during a game, so a save file names its game by ID and reloads the rest from the game's
+ * XML. It holds the rules by name and value, since they may have been changed before the game
+ * started, and then only what changes during play: the players' cash, fuel, fuel stations,
+ * positions, and status, each node's owner and fuel station, as a {@link ModelSnapshot}, and then
+ * the deck, the random number generator, the debts, and where the game is in its turn.
+ * <p>
+ * Every file starts with a format {@link #VERSION}, so a later format can still read this one.
+ * Rules are written by name, and the messages and values in play by {@link ValueCodec}, the same
+ * way the records of a {@link GameJournal} and the network write them. The state of the game is
+ * written as an enum ordinal. The order of {@link ServerModel.State}, {@link ViewMessage.Type}, and
+ * {@link ModelMessage.Type} is therefore frozen for each version: new constants go at the end,
+ * and reordering or removing any requires a new version. Games saved as a serialized
+ * {@link ServerModel}, the way they used to be, still load, and are saved in this format from then
+ * on.
+ */
+public class SaveFile
+{
+   static final int VERSION = 2;
+   
+   // the first version, written before ValueCodec had integer lists; this version reads it as is
+   private static final int FIRST_VERSION = 1;
+   
+   private static final int MAGIC = 0x53515356; // "SQSV"
+   
+   // each game as loaded from XML, by ID; loading a save copies one
+   private static final Map<String, ServerModel> games = new HashMap<String, ServerModel>();
+   
+   private SaveFile()
+   {
+   }
+   
+   /** Saves the given game to the given file, which the caller must make sure is not changing meanwhile. */
+   public static void save(ServerModel model, File file) throws IOException
+   {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      
+      try
+      {
+         write(model, out);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+   
+   /**
+    * Loads the game saved in the given file, in this format or as a serialized
+    * {@link ServerModel}. The whole file is read at once, so there is one read however large the
+    * file.
+    */
+   public static ServerModel load(File file) throws IOException
+   {
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      
+      if (bytes.length < 4 || ByteBuffer.wrap(bytes).getInt() != MAGIC)
+      {
+         try
+         {
+            return (ServerModel)new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+         }
+         catch (ClassNotFoundException cnfe)
+         {
+            throw new IOException("Not a saved game: " + file, cnfe);
+         }
+      }
+      
+      return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+   }
+   
+   /** Writes the given game, starting with the magic number and version. */
+   static void write(ServerModel model, DataOutputStream out) throws IOException
+   {
+      write(model, new ModelSnapshot(model), out);
+   }
+   
+   /**
+    * Writes the given game, taking its players' and nodes' state from the given snapshot instead
+    * of from the game itself. Used by {@link Autosave}, which writes a copy of the game while the
+    * game plays on.
+    */
+   static void write(ServerModel model, ModelSnapshot snapshot, DataOutputStream out) throws IOException
+   {
+      RuleSet ruleSet = model.getRuleSet();
+      
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      out.writeUTF(model.getID());
+      out.writeBoolean(ruleSet.getID() != null);
+      
+      if (ruleSet.getID() != null)
+         out.writeUTF(ruleSet.getID());
+      
+      out.writeShort(ruleSet.size());
+      
+      for (RuleSet.Rule<?> rule : ruleSet.getRules())
+      {
+         out.writeUTF(rule.getName());
+         out.writeUTF(String.valueOf(ruleSet.getValue(rule)));
+      }
+      
+      out.writeShort(model.players.size());
+      
+      for (Player player : model.players)
+      {
+         out.writeByte(player.getNumber());
+         out.writeUTF(player.getName());
+      }
+      
+      snapshot.write(out);
+      model.writeState(out);
+   }
+   
+   /** Reads what {@link #write(ServerModel, DataOutputStream)} wrote. */
+   static ServerModel read(DataInputStream in) throws IOException
+   {
+      if (in.readInt() != MAGIC)
+         throw new IOException("Not a saved game");
+      
+      int version = in.readShort();
+      
+      if (version != VERSION && version != FIRST_VERSION)
+         throw new IOException("Unsupported save file version: " + version);
+      
+      String id = in.readUTF();
+      RuleSet ruleSet = new RuleSet();
+      
+      if (in.readBoolean())
+         ruleSet.setID(in.readUTF());
+      
+      for (int count = in.readShort(); count > 0; count--)
+      {
+         RuleSet.Rule<?> rule = RuleSet.getRule(in.readUTF());
+         String value = in.readUTF();
+         
+         // A rule this version does not know about cannot matter to it.
+         if (rule != null)
+            ruleSet.setValue(rule, value);
+      }
+      
+      ServerModel model = copyGame(id, ruleSet);
+      int playerCount = in.readShort();
+      List<Player> players = new ArrayList<Player>(playerCount);
+      
+      for (int ndx = 0; ndx < playerCount; ndx++)
+      {
+         Player player = new Player(in.readByte());
+         
+         player.setName(in.readUTF());
+         players.add(player);
+      }
+      
+      model.setPlayers(players);
+      ModelSnapshot.read(in).applyTo(model);
+      model.readState(in);
+      
+      return model;
+   }
+   
+   /**
+    * Returns a fresh copy of the game with the given ID and the given rules, loading it from XML
+    * only the first time. The copy shares the board's tables with every other copy, so they, too,
+    * are built only the first time the rules call for them.
+    */
+   private static ServerModel copyGame(String id, RuleSet ruleSet) throws IOException
+   {
+      synchronized (games)
+      {
+         ServerModel game = games.get(id);
+         
+         if (game == null)
+         {
+            try
+            {
+               game = new ModelXMLLoader().loadGame(id);
+            }
+            catch (SAXException se)
+            {
+               throw new IOException("Cannot load game " + id, se);
+            }
+            
+            games.put(id, game);
+         }
+         
+         game.setRuleSet(ruleSet);
+         game.initializeBoardTables();
+         
+         return game.copyGame();
+      }
+   }
+   
+   static void writeMessage(DataOutputStream out, ViewMessage message, ServerModel model) throws IOException
+   {
+      out.writeBoolean(message != null);
+      
+      if (message == null)
+         return;
+      
+      ValueCodec.writeViewMessage(out, message, model);
+   }
+   
+   static ViewMessage readMessage(DataInputStream in, ServerModel model) throws IOException
+   {
+      if (!in.readBoolean())
+         return null;
+      
+      return ValueCodec.readViewMessage(in, model);
+   }
+}
@@ -0,0 +1,138 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.util.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Driver class that plays a game between {@link BasicStrategy} players partway through, then saves
+ * and loads it over and over, both as a {@link SaveFile} and as a serialized {@link ServerModel},
+ * the way games used to be saved. Reports the size of each file and the average time to save and
+ * load it.
+ * <p>
+ * Usage: <code>SaveFileBenchmark [rounds] [turns] [game] [rule set]</code>. The defaults are 2,000
+ * rounds of a game of four players, 100 turns in, using the built-in 1985 game and rules.
+ */
+public class SaveFileBenchmark
+{
+   private static final int DEFAULT_ROUNDS = 2000;
+   
+   private static final int DEFAULT_TURNS = 100;
+   
+   private static final int PLAYERS = 4;
+   
+   public static void main(String[] args) throws SAXException, IOException, ClassNotFoundException
+   {
+      int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+      int turns = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TURNS;
+      String game = args.length > 2 ? args[2] : "Solarquest_1985";
+      String ruleSet = args.length > 3 ? args[3] : "Solarquest_1985";
+      ServerModel model = play(new ModelXMLLoader().loadGame(game), new ModelXMLLoader().loadRuleSet(ruleSet), turns);
+      File file = File.createTempFile("solarquest", ".sav");
+      
+      file.deleteOnExit();
+      
+      // Warm up first, so the JIT has its chance before anything is timed.
+      run(model, file, rounds / 4);
+      
+      long[] times = run(model, file, rounds);
+      
+      System.out.printf("Game of %d players, %d turns in, %d rounds%n", PLAYERS, model.getTurns(), rounds);
+      System.out.printf("Save file:         %6d bytes, %8.1f us to save, %8.1f us to load%n",
+         times[0], times[1] / 1e3 / rounds, times[2] / 1e3 / rounds);
+      System.out.printf("Serialized model:  %6d bytes, %8.1f us to save, %8.1f us to load%n",
+         times[3], times[4] / 1e3 / rounds, times[5] / 1e3 / rounds);
+   }
+   
+   /** Returns a game the given number of turns in, or over, if it ended sooner. */
+   private static ServerModel play(ServerModel game, RuleSet ruleSet, int turns)
+   {
+      List<Player> players = new ArrayList<Player>();
+      BasicStrategy strategy = new BasicStrategy();
+      
+      for (int ndx = 0; ndx < PLAYERS; ndx++)
+      {
+         Player player = new Player(ndx);
+         
+         player.setName("Player " + ndx);
+         players.add(player);
+      }
+      
+      game.setRuleSet(ruleSet);
+      game.setRandom(new GameRandom(0));
+      game.setPlayers(players);
+      game.initialize();
+      game.beginSimulation();
+      
+      while (game.getState() != ServerModel.State.GAME_OVER && game.getTurns() < turns)
+         game.simulateMessage(decide(game, strategy));
+      
+      return game;
+   }
+   
+   private static ModelMessage decide(ServerModel model, BasicStrategy strategy)
+   {
+      Player player = model.getCurrentPlayer();
+      
+      switch (model.getState())
+      {
+         case PRE_ROLL:
+            return strategy.preRoll(model, player);
+         case PRE_LAND:
+            return strategy.preLand(model, player);
+         case CHOOSING_ALLOWED_MOVE:
+            return strategy.chooseAllowedMove(model, player, model.getAllowedMoves());
+         case SETTLING_DEBT:
+            return strategy.settleDebt(model, model.getDebtor(), model.getCreditor(), model.getDebtAmount());
+         case CHOOSING_NODE_LOST_TO_LEAGUE:
+            return strategy.chooseNodeLostToLeague(model, player);
+         case CHOOSING_NODE_WON_FROM_LEAGUE:
+            return strategy.chooseNodeWonFromLeague(model, player);
+         case CHOOSING_NODE_WON_FROM_PLAYER:
+            return strategy.chooseNodeWonFromPlayer(model, player);
+         default:
+            return strategy.postRoll(model, player);
+      }
+   }
+   
+   /** Returns the size, save time, and load time of the save file, then the same for the serialized model. */
+   private static long[] run(ServerModel model, File file, int rounds) throws IOException, ClassNotFoundException
+   {
+      long[] times = new long[6];
+      
+      for (int round = 0; round < rounds; round++)
+      {
+         long start = System.nanoTime();
+         
+         SaveFile.save(model, file);
+         times[1] += System.nanoTime() - start;
+         times[0] = file.length();
+         
+         start = System.nanoTime();
+         SaveFile.load(file);
+         times[2] += System.nanoTime() - start;
+         
+         start = System.nanoTime();
+         ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+         
+         out.writeObject(model);
+         out.close();
+         times[4] += System.nanoTime() - start;
+         times[3] = file.length();
+         
+         start = System.nanoTime();
+         ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+         
+         in.readObject();
+         in.close();
+         times[5] += System.nanoTime() - start;
+      }
+      
+      return times;
+   }
+}
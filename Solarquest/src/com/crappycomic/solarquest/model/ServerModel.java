@@ -4,21 +4,25 @@
 
 package com.crappycomic.solarquest.model;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
 
 import com.crappycomic.solarquest.net.Server;
 import com.crappycomic.solarquest.net.ServerSideConnection;
 import com.crappycomic.solarquest.view.ViewMessage;
+import com.crappycomic.solarquest.view.ViewMessageBatch;
 import com.crappycomic.solarquest.view.ViewMessage.Type;
 
 public class ServerModel extends Model implements Runnable
 {
    private static final long serialVersionUID = 3L; // version number, I guess
    
-   private static enum State
+   /** Maximum number of messages processed per scheduling when running on an executor. */
+   private static final int MAILBOX_BATCH_SIZE = 32;
+   
+   // Saved games and journals record states by ordinal, so new ones go at the end. See SaveFile.
+   static enum State
    {
       PRE_ROLL,
       PRE_LAND,
@@ -66,18 +70,51 @@ public class ServerModel extends Model implements Runnable
    // as loaded by ModelXMLLoader
    private List<Card> cards = new ArrayList<Card>();
    
+   // Cards drawn go to the bottom of the deck, as in the board game.
+   private static final CardDeck.ReshufflePolicy DECK_RESHUFFLE_POLICY = CardDeck.ReshufflePolicy.NEVER;
+   
    // shuffled draw pile of cards
-   private List<Card> currentDeck;
+   private CardDeck deck;
    
-   private Random random = new Random();
+   // always a GameRandom, except in games saved before there was one
+   private Random random = new GameRandom();
    
    private int currentPlayer;
    
    private int playersRemaining;
    
-   private BlockingQueue<Pair<ServerSideConnection, ModelMessage>> messages
+   // Messages not yet processed belong to no saved game; a journal records them once they are.
+   private transient BlockingQueue<Pair<ServerSideConnection, ModelMessage>> messages
       = new LinkedBlockingQueue<Pair<ServerSideConnection, ModelMessage>>();
    
+   // null unless the game is journaled
+   private transient GameJournal journal;
+   
+   // null unless the game is autosaved
+   private transient Autosave autosave;
+   
+   // true if the message being processed was rejected, and so changed nothing
+   private transient boolean rejected;
+   
+   // null unless started on an executor instead of a dedicated thread
+   private transient Executor executor;
+   
+   // true while a mailbox drainer is queued or running; guarded by messages
+   private transient boolean scheduled;
+   
+   private transient boolean begun;
+   
+   private transient Runnable mailboxDrainer;
+   
+   // null unless started on a dedicated thread
+   private transient Thread thread;
+   
+   // true once the game has been stopped before it was over
+   private transient volatile boolean stopped;
+   
+   // messages waiting to go out together; null unless a transition is in progress
+   private transient List<ViewMessage> batch;
+   
    private State state;
    
    private ViewMessage lastSentMessage;
@@ -100,386 +137,659 @@ public class ServerModel extends Model implements Runnable
    
    private boolean bypassAllowed;
    
+   private int turns;
+   
    public void initialize()
    {
-      int initialCash = ruleSet.getValue(RuleSet.INITIAL_CASH);
-      int initialFuel = ruleSet.getValue(RuleSet.INITIAL_FUEL);
-      int initialFuelStations = ruleSet.getValue(RuleSet.INITIAL_FUEL_STATIONS);
+      int initialCash = rules.getInitialCash();
+      int initialFuel = rules.getInitialFuel();
+      int initialFuelStations = rules.getInitialFuelStations();
       
-      fuelStationsRemaining = ruleSet.getValue(RuleSet.TOTAL_FUEL_STATIONS);
+      fuelStationsRemaining = rules.getTotalFuelStations();
       
       for (Player player : players)
       {
          player.changeCash(initialCash);
          player.changeFuel(initialFuel);
          player.changeFuelStations(initialFuelStations);
-         player.setCurrentNode(board.getStartNode());
+         setCurrentNode(player, board.getStartNode());
          
          fuelStationsRemaining -= initialFuelStations;
       }
       
       playersRemaining = players.size();
-      currentDeck = new ArrayList<Card>();
+      deck = new CardDeck(DECK_RESHUFFLE_POLICY);
    }
    
    public void start()
    {
-      new Thread(this).start();
+      thread = new Thread(this);
+      thread.start();
+   }
+   
+   /** Starts the game loop on a thread from the given factory, such as a virtual thread. */
+   public void start(ThreadFactory threadFactory)
+   {
+      thread = threadFactory.newThread(this);
+      thread.start();
+   }
+   
+   /**
+    * Starts the game without a dedicated thread. Instead, the model behaves like an actor: it is
+    * scheduled on the given executor only while its mailbox has messages waiting, so one bounded
+    * pool of worker threads can host any number of games.
+    */
+   public void startOn(Executor executor)
+   {
+      this.executor = executor;
+      
+      synchronized (messages)
+      {
+         scheduled = true;
+      }
+      
+      executor.execute(getMailboxDrainer());
+   }
+   
+   /**
+    * Stops the game for good, wherever it stands. Messages still waiting, and any that arrive
+    * later, are ignored, and the journal and autosave, if any, are closed. A game that is over has
+    * already stopped.
+    */
+   public void stop()
+   {
+      synchronized (this)
+      {
+         if (stopped || state == State.GAME_OVER)
+            return;
+         
+         stopped = true;
+         messages.clear();
+         
+         if (journal != null)
+            closeJournal();
+         
+         if (autosave != null)
+         {
+            try
+            {
+               autosave.close();
+            }
+            catch (IOException ioe)
+            {
+               ioe.printStackTrace();
+            }
+         }
+      }
+      
+      if (thread != null)
+         thread.interrupt();
+   }
+   
+   /** Returns true if the game will handle no more messages, because it is over or was stopped. */
+   private boolean isFinished()
+   {
+      return stopped || state == State.GAME_OVER;
    }
    
-   @SuppressWarnings("unchecked")
    @Override
    public void run()
    {
-      if (lastSentMessage == null)
-         setState(State.PRE_ROLL);
-      else
-         sendMessage(lastSentMessage);
+      begin();
       
-      while (state != State.GAME_OVER)
+      while (!isFinished())
       {
          Pair<ServerSideConnection, ModelMessage> pair;
-         ServerSideConnection connection;
-         ModelMessage message;
          
          try
          {
             pair = messages.take();
-            connection = pair.getFirst();
-            message = pair.getSecond();
          }
          catch (InterruptedException ie)
          {
             break;
          }
          
-         Player player = playerMap.get(message.getPlayer());
-         Node node = player.getCurrentNode();
+         handleMessage(pair.getFirst(), pair.getSecond());
+      }
+   }
+   
+   /** Sends the initial state of the game, or repeats the last message sent before the game was saved. */
+   private synchronized void begin()
+   {
+      initializeBoardTables();
+      beginBatch();
+      
+      try
+      {
+         if (lastSentMessage == null)
+            setState(State.PRE_ROLL);
+         else
+            sendMessage(lastSentMessage);
+      }
+      finally
+      {
+         endBatch();
+      }
+   }
+   
+   private Runnable getMailboxDrainer()
+   {
+      if (mailboxDrainer == null)
+      {
+         mailboxDrainer = new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               drainMailbox();
+            }
+         };
+      }
+      
+      return mailboxDrainer;
+   }
+   
+   /**
+    * Processes a limited number of waiting messages, then either reschedules itself, if more
+    * messages arrived in the meantime, or goes idle until {@link #receiveMessage} schedules it again.
+    */
+   private void drainMailbox()
+   {
+      if (!begun)
+      {
+         begun = true;
+         begin();
+      }
+      
+      for (int count = 0; count < MAILBOX_BATCH_SIZE && !isFinished(); count++)
+      {
+         Pair<ServerSideConnection, ModelMessage> pair = messages.poll();
          
-         switch (message.getType())
+         if (pair == null)
+            break;
+         
+         handleMessage(pair.getFirst(), pair.getSecond());
+      }
+      
+      synchronized (messages)
+      {
+         if (messages.isEmpty() || isFinished())
+         {
+            scheduled = false;
+            return;
+         }
+      }
+      
+      executor.execute(getMailboxDrainer());
+   }
+   
+   /**
+    * Processes one message as a single transition: every {@link ViewMessage} it produces reaches
+    * each connection together, in one {@link ViewMessageBatch}.
+    */
+   private synchronized void handleMessage(ServerSideConnection connection, ModelMessage message)
+   {
+      // A message taken off the mailbox just before the game stopped.
+      if (stopped)
+         return;
+      
+      int previousTurns = turns;
+      
+      beginBatch();
+      
+      try
+      {
+         rejected = false;
+         processMessage(connection, message);
+         
+         if (journal != null && !rejected)
          {
-            case NO_PRE_ROLL:
-               if (state == State.PRE_ROLL)
+            journal.append(this, message);
+            
+            if (state == State.GAME_OVER)
+               closeJournal();
+         }
+         
+         autosave(previousTurns);
+      }
+      finally
+      {
+         endBatch();
+      }
+   }
+   
+   /**
+    * Sends the initial state of the game without a {@link Server}, returning the messages instead.
+    * Used by {@link Simulation}.
+    */
+   List<ViewMessage> beginSimulation()
+   {
+      initializeBoardTables();
+      beginBatch();
+      setState(State.PRE_ROLL);
+      
+      return takeBatch();
+   }
+   
+   /**
+    * Processes the given message right away, in the calling thread, and returns the messages it
+    * produced instead of sending them anywhere. Used by {@link Simulation} and {@link Replay},
+    * which have no {@link Server}.
+    */
+   List<ViewMessage> simulateMessage(ModelMessage message)
+   {
+      beginBatch();
+      processMessage(null, message);
+      
+      return takeBatch();
+   }
+   
+   /**
+    * Sends what the game sends when it is hosted, as {@link #begin()} does, but returns the
+    * messages instead. Used by {@link Replay}.
+    */
+   List<ViewMessage> beginReplay()
+   {
+      initializeBoardTables();
+      beginBatch();
+      
+      if (lastSentMessage == null)
+         setState(State.PRE_ROLL);
+      else
+         sendMessage(lastSentMessage);
+      
+      return takeBatch();
+   }
+   
+   /** Drops players as recorded in a {@link GameJournal}, returning the messages it produces. */
+   List<ViewMessage> replayPlayersDropped(Collection<Integer> droppedPlayers)
+   {
+      beginBatch();
+      
+      for (int player : droppedPlayers)
+         removePlayer(playerMap.get(player));
+      
+      return takeBatch();
+   }
+   
+   /**
+    * Compiles the board's move table as far as the longest possible roll: both dice showing their
+    * highest face, times the largest multiplier of any card or node. Also builds the laser range
+    * index for the range the rules allow. Board copies share both, so this costs nothing after the
+    * first time.
+    */
+   void initializeBoardTables()
+   {
+      int multiplier = 1;
+      
+      for (Card card : cards)
+         for (Action action : card.getActions())
+            multiplier = Math.max(multiplier, action.getRollMultiplier());
+      
+      for (Node node : board.getNodes())
+         if (node.getActions() != null)
+            for (Action action : node.getActions())
+               multiplier = Math.max(multiplier, action.getRollMultiplier());
+      
+      board.initializeMoveTable(2 * rules.getDiePips() * multiplier);
+      board.initializeLaserRanges(rules.getLaserBattleMaximumDistance());
+   }
+   
+   private void beginBatch()
+   {
+      batch = new ArrayList<ViewMessage>();
+   }
+   
+   private List<ViewMessage> takeBatch()
+   {
+      List<ViewMessage> messages = batch;
+      
+      batch = null;
+      
+      return messages;
+   }
+   
+   /** Sends whatever the current transition produced. A lone message is sent without a batch around it. */
+   private void endBatch()
+   {
+      List<ViewMessage> messages = takeBatch();
+      
+      if (messages.size() == 1)
+         server.sendObject(messages.get(0));
+      else if (!messages.isEmpty())
+         server.sendObject(new ViewMessageBatch(messages));
+   }
+   
+   @SuppressWarnings("unchecked")
+   private void processMessage(ServerSideConnection connection, ModelMessage message)
+   {
+      Player player = playerMap.get(message.getPlayer());
+      Node node = player.getCurrentNode();
+      
+      switch (message.getType())
+      {
+         case NO_PRE_ROLL:
+            if (state == State.PRE_ROLL)
+            {
+               if (isFuelCritical(player, node))
                {
-                  if (isFuelCritical(player, node))
-                  {
-                     sendMessage(Type.PLAYER_LOST_DUE_TO_STRANDING, player);
-                     removePlayer(player);
-                     nextTurn();
-                  }
-                  else
-                  {
-                     roll();
-                  
-                     if (state == State.PRE_ROLL)
-                     {
-                        setState(State.POST_ROLL);
-                     }
-                  }
+                  sendMessage(Type.PLAYER_LOST_DUE_TO_STRANDING, player);
+                  removePlayer(player);
+                  nextTurn();
                }
                else
                {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case NO_PRE_LAND:
-               if (state == State.PRE_LAND)
-               {
-                  playerAdvancedToOrRemainedOnNode(player, node);
+                  roll();
                   
-                  if (state == State.PRE_LAND)
+                  if (state == State.PRE_ROLL)
                   {
                      setState(State.POST_ROLL);
                   }
                }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case BYPASS_OR_ROLL_AGAIN:
-               if (bypassAllowed && (state == State.PRE_LAND || state == State.POST_ROLL))
-               {
-                  roll(player, 1, false);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case NO_PRE_LAND:
+            if (state == State.PRE_LAND)
+            {
+               playerAdvancedToOrRemainedOnNode(player, node);
                   
-                  // Don't send the state if something wacky happened.
-                  if (state == State.PRE_LAND || state == State.POST_ROLL)
-                  {
-                     setState(State.POST_ROLL);
-                  }
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case NO_POST_ROLL:
-               if (state == State.POST_ROLL)
+               if (state == State.PRE_LAND)
                {
-                  nextTurn();
+                  setState(State.POST_ROLL);
                }
-               else
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case BYPASS_OR_ROLL_AGAIN:
+            if (bypassAllowed && (state == State.PRE_LAND || state == State.POST_ROLL))
+            {
+               roll(player, 1, false);
+               
+               // Don't send the state if something wacky happened.
+               if (state == State.PRE_LAND || state == State.POST_ROLL)
                {
-                  sendInvalidModelState(connection);
+                  setState(State.POST_ROLL);
                }
-               break;
-            case QUIT:
-               removePlayer(player);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case NO_POST_ROLL:
+            if (state == State.POST_ROLL)
+            {
                nextTurn();
-               break;
-            case PURCHASE_NODE:
-               if (state == State.POST_ROLL && isNodePurchaseable(player, node))
-               {
-                  purchaseNode(player, node);
-                  sendMessage(Type.MODEL_POST_ROLL);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case PURCHASE_FUEL:
-               if ((state == State.PRE_ROLL || state == State.POST_ROLL) && isFuelPurchaseable(player, node))
-               {
-                  purchaseFuel(player, node, (Integer)message.getValue());
-                  setState(state);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case PURCHASE_FUEL_STATION:
-               if ((state == State.PRE_ROLL || state == State.POST_ROLL) && isFuelStationPurchaseable(player, node))
-               {
-                  purchaseFuelStation(player);
-                  setState(state);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case PLACE_FUEL_STATION:
+            }
+            else
             {
-               Node chosenNode = board.getNode((String)message.getValue());
+               sendInvalidModelState(connection);
+            }
+            break;
+         case QUIT:
+            removePlayer(player);
+            nextTurn();
+            break;
+         case PURCHASE_NODE:
+            if (state == State.POST_ROLL && isNodePurchaseable(player, node))
+            {
+               purchaseNode(player, node);
+               sendMessage(Type.MODEL_POST_ROLL);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case PURCHASE_FUEL:
+            if ((state == State.PRE_ROLL || state == State.POST_ROLL) && isFuelPurchaseable(player, node))
+            {
+               purchaseFuel(player, node, (Integer)message.getValue());
+               setState(state);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case PURCHASE_FUEL_STATION:
+            if ((state == State.PRE_ROLL || state == State.POST_ROLL) && isFuelStationPurchaseable(player, node))
+            {
+               purchaseFuelStation(player);
+               setState(state);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case PLACE_FUEL_STATION:
+         {
+            Node chosenNode = board.getNode((String)message.getValue());
                
-               if ((state == State.PRE_ROLL || state == State.POST_ROLL)
-                  && player.getFuelStations() > 0
-                  && getFuelStationPlaceableNodes(player).contains(chosenNode))
-               {
-                  placeFuelStation(player, chosenNode);
-                  setState(state);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+            if ((state == State.PRE_ROLL || state == State.POST_ROLL)
+               && player.getFuelStations() > 0
+               && getFuelStationPlaceableNodes(player).contains(chosenNode))
+            {
+               placeFuelStation(player, chosenNode);
+               setState(state);
             }
-            case CHOOSE_ALLOWED_MOVE:
+            else
             {
-               String chosenMove = (String)message.getValue();
+               sendInvalidModelState(connection);
+            }
+            break;
+         }
+         case CHOOSE_ALLOWED_MOVE:
+         {
+            String chosenMove = (String)message.getValue();
                
-               if (state == State.CHOOSING_ALLOWED_MOVE && allowedMovesList.contains(board.getNode(chosenMove)))
-               {
-                  advancePlayerToNode(player, chosenMove);
+            if (state == State.CHOOSING_ALLOWED_MOVE && allowedMovesList.contains(board.getNode(chosenMove)))
+            {
+               advancePlayerToNode(player, chosenMove);
                   
-                  if (state == State.CHOOSING_ALLOWED_MOVE)
-                  {
-                     setState(State.POST_ROLL);
-                  }
-               }
-               else
+               if (state == State.CHOOSING_ALLOWED_MOVE)
                {
-                  sendInvalidModelState(connection);
+                  setState(State.POST_ROLL);
                }
-               break;
             }
-            case SELL_FUEL_STATION_NORMALLY:
-               if ((state == State.PRE_ROLL || state == State.POST_ROLL) && isFuelStationSalableNormally(player, node))
-               {
-                  sellFuelStation(player);
-                  setState(state);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case SELL_FUEL_STATION_FOR_DEBT_SETTLEMENT:
-               if (state == State.SETTLING_DEBT
-                  && isPlayerSettlingDebt(player)
-                  && isFuelStationSalableForDebtSettlement(player))
-               {
-                  sellFuelStation(player);
-                  attemptToSettleDebt();
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case SELL_NODE_NORMALLY:
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         }
+         case SELL_FUEL_STATION_NORMALLY:
+            if ((state == State.PRE_ROLL || state == State.POST_ROLL) && isFuelStationSalableNormally(player, node))
+            {
+               sellFuelStation(player);
+               setState(state);
+            }
+            else
             {
-               Node chosenNode = board.getNode((String)message.getValue());
+               sendInvalidModelState(connection);
+            }
+            break;
+         case SELL_FUEL_STATION_FOR_DEBT_SETTLEMENT:
+            if (state == State.SETTLING_DEBT
+               && isPlayerSettlingDebt(player)
+               && isFuelStationSalableForDebtSettlement(player))
+            {
+               sellFuelStation(player);
+               attemptToSettleDebt();
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case SELL_NODE_NORMALLY:
+         {
+            Node chosenNode = board.getNode((String)message.getValue());
                
-               if ((state == State.PRE_ROLL || state == State.POST_ROLL)
-                  && isNodeSalableNormally(player, node)
-                  && chosenNode != null && player.equals(chosenNode.getOwner()))
-               {
-                  sellNode(player, chosenNode);
-                  setState(state);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+            if ((state == State.PRE_ROLL || state == State.POST_ROLL)
+               && isNodeSalableNormally(player, node)
+               && chosenNode != null && player.equals(chosenNode.getOwner()))
+            {
+               sellNode(player, chosenNode);
+               setState(state);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         }
+         case SELL_NODE_FOR_DEBT_SETTLEMENT:
+         {
+            Node chosenNode = board.getNode((String)message.getValue());
+            
+            if (state == State.SETTLING_DEBT
+               && isPlayerSettlingDebt(player)
+               && isNodeSalableForDebtSettlement(player)
+               && chosenNode != null && player.equals(chosenNode.getOwner()))
+            {
+               sellNode(player, chosenNode);
+               attemptToSettleDebt();
             }
-            case SELL_NODE_FOR_DEBT_SETTLEMENT:
+            else
             {
-               Node chosenNode = board.getNode((String)message.getValue());
-               
-               if (state == State.SETTLING_DEBT
-                  && isPlayerSettlingDebt(player)
-                  && isNodeSalableForDebtSettlement(player)
-                  && chosenNode != null && player.equals(chosenNode.getOwner()))
-               {
-                  sellNode(player, chosenNode);
-                  attemptToSettleDebt();
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+               sendInvalidModelState(connection);
             }
-            case DECLARE_BANKRUPTCY:
-               if (state == State.SETTLING_DEBT)
-               {
-                  Player creditor = playerMap.get(currentCreditor);
+            break;
+         }
+         case DECLARE_BANKRUPTCY:
+            if (state == State.SETTLING_DEBT)
+            {
+               Player creditor = playerMap.get(currentCreditor);
                   
-                  sendMessage(Type.PLAYER_LOST_DUE_TO_BANKRUPTCY, player, creditor);
-                  removePlayer(player, creditor);
-                  nextTurn();
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case TRADE:
-               currentTrade = (Trade)message.getValue();
-               postTradeState = state;
-               postTradeMessage = lastSentMessage;
-               sendMessage(Type.PLAYER_STARTED_TRADE, player, currentTrade);
-               setState(State.TRADING);
-               break;
-            case TRADE_COMPLETED:
-               if (state == State.TRADING && currentTrade != null) // both or neither should ever be true
-               {
-                  completeTrade((Boolean)message.getValue());
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
-            case NEGLIGENCE_TAKEOVER:
-               if (state == State.PRE_LAND && isNegligenceTakeoverAllowed(player, node))
-               {
-                  Player owner = node.getOwner();
-                  int price = getNodePrice(node);
+               sendMessage(Type.PLAYER_LOST_DUE_TO_BANKRUPTCY, player, creditor);
+               removePlayer(player, creditor);
+               nextTurn();
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case TRADE:
+            currentTrade = (Trade)message.getValue();
+            postTradeState = state;
+            postTradeMessage = lastSentMessage;
+            sendMessage(Type.PLAYER_STARTED_TRADE, player, currentTrade);
+            setState(State.TRADING);
+            break;
+         case TRADE_COMPLETED:
+            if (state == State.TRADING && currentTrade != null) // both or neither should ever be true
+            {
+               completeTrade((Boolean)message.getValue());
+            }
+            else
+            {
+               sendInvalidModelState(connection);
+            }
+            break;
+         case NEGLIGENCE_TAKEOVER:
+            if (state == State.PRE_LAND && isNegligenceTakeoverAllowed(player, node))
+            {
+               Player owner = node.getOwner();
+               int price = getNodePrice(node);
                   
-                  changePlayerCash(player, -price);
-                  changePlayerCash(owner, price);
-                  relinquishNode(owner, node);
-                  obtainNode(player, node);
+               changePlayerCash(player, -price);
+               changePlayerCash(owner, price);
+               relinquishNode(owner, node);
+               obtainNode(player, node);
                   
-                  if (isPreLandRequired(player, node))
-                  {
-                     sendMessage(Type.MODEL_PRE_LAND);
-                  }
-                  else
-                  {
-                     playerAdvancedToOrRemainedOnNode(player, node);
-                     setState(State.POST_ROLL);
-                  }
+               if (isPreLandRequired(player, node))
+               {
+                  sendMessage(Type.MODEL_PRE_LAND);
                }
                else
                {
-                  sendInvalidModelState(connection);
+                  playerAdvancedToOrRemainedOnNode(player, node);
+                  setState(State.POST_ROLL);
                }
-               break;
-            case CHOOSE_NODE_LOST_TO_LEAGUE:
+            }
+            else
             {
-               Node chosenNode = board.getNode((String)message.getValue());
+               sendInvalidModelState(connection);
+            }
+            break;
+         case CHOOSE_NODE_LOST_TO_LEAGUE:
+         {
+            Node chosenNode = board.getNode((String)message.getValue());
                
-               if (state == State.CHOOSING_NODE_LOST_TO_LEAGUE && chosenNode != null && player.equals(chosenNode.getOwner()))
-               {
-                  relinquishNode(player, chosenNode);
-                  setState(State.POST_ROLL);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+            if (state == State.CHOOSING_NODE_LOST_TO_LEAGUE && chosenNode != null && player.equals(chosenNode.getOwner()))
+            {
+               relinquishNode(player, chosenNode);
+               setState(State.POST_ROLL);
             }
-            case CHOOSE_NODE_WON_FROM_LEAGUE:
+            else
             {
-               Node chosenNode = board.getNode((String)message.getValue());
+               sendInvalidModelState(connection);
+            }
+            break;
+         }
+         case CHOOSE_NODE_WON_FROM_LEAGUE:
+         {
+            Node chosenNode = board.getNode((String)message.getValue());
                
-               if (state == State.CHOOSING_NODE_WON_FROM_LEAGUE && chosenNode != null && chosenNode.getOwner() == null)
-               {
-                  obtainNode(player, chosenNode);
-                  setState(State.POST_ROLL);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+            if (state == State.CHOOSING_NODE_WON_FROM_LEAGUE && chosenNode != null && chosenNode.getOwner() == null)
+            {
+               obtainNode(player, chosenNode);
+               setState(State.POST_ROLL);
             }
-            case CHOOSE_NODE_WON_FROM_PLAYER:
+            else
             {
-               Node chosenNode = board.getNode((String)message.getValue());
+               sendInvalidModelState(connection);
+            }
+            break;
+         }
+         case CHOOSE_NODE_WON_FROM_PLAYER:
+         {
+            Node chosenNode = board.getNode((String)message.getValue());
                
-               if (state == State.CHOOSING_NODE_WON_FROM_PLAYER && chosenNode != null && chosenNode.getOwner() != null
-                  && !player.equals(chosenNode.getOwner()))
-               {
-                  relinquishNode(chosenNode.getOwner(), chosenNode);
-                  obtainNode(player, chosenNode);
-                  setState(State.POST_ROLL);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+            if (state == State.CHOOSING_NODE_WON_FROM_PLAYER && chosenNode != null && chosenNode.getOwner() != null
+               && !player.equals(chosenNode.getOwner()))
+            {
+               relinquishNode(chosenNode.getOwner(), chosenNode);
+               obtainNode(player, chosenNode);
+               setState(State.POST_ROLL);
             }
-            case FIRE_LASERS:
+            else
             {
-               List<Integer> targetedPlayerNumbers = (List<Integer>)message.getValue();
-               List<Player> targetedPlayers = new ArrayList<Player>();
+               sendInvalidModelState(connection);
+            }
+            break;
+         }
+         case FIRE_LASERS:
+         {
+            List<Integer> targetedPlayerNumbers = (List<Integer>)message.getValue();
+            List<Player> targetedPlayers = new ArrayList<Player>();
                
-               for (int targetedPlayerNumber : targetedPlayerNumbers)
-               {
-                  targetedPlayers.add(playerMap.get(targetedPlayerNumber));
-               }
+            for (int targetedPlayerNumber : targetedPlayerNumbers)
+            {
+               targetedPlayers.add(playerMap.get(targetedPlayerNumber));
+            }
                
-               if (isLaserBattleAllowed(player)
-                  && getLaserTargetablePlayers(player).containsAll(targetedPlayers))
-               {
-                  fireLasers(player, targetedPlayers);
-               }
-               else
-               {
-                  sendInvalidModelState(connection);
-               }
-               break;
+            if (isLaserBattleAllowed(player)
+               && getLaserTargetablePlayers(player).containsAll(targetedPlayers))
+            {
+               fireLasers(player, targetedPlayers);
+            }
+            else
+            {
+               sendInvalidModelState(connection);
             }
+            break;
          }
       }
    }
@@ -528,6 +838,15 @@ public class ServerModel extends Model implements Runnable
    
    private void sendInvalidModelState(ServerSideConnection connection)
    {
+      rejected = true;
+      
+      // A simulation has nobody to tell but itself.
+      if (server == null)
+      {
+         batch.add(new ViewMessage(Type.MODEL_INVALID_STATE, null, null));
+         return;
+      }
+      
       System.out.println("Invalid state for latest message: " + state);
       
       server.sendObject(new ViewMessage(Type.MODEL_INVALID_STATE, null, null), connection);
@@ -558,11 +877,6 @@ public class ServerModel extends Model implements Runnable
       this.defaultView = defaultView;
    }
    
-   public Board getBoard()
-   {
-      return board;
-   }
-   
    void addCard(Card card)
    {
       cards.add(card);
@@ -586,7 +900,11 @@ public class ServerModel extends Model implements Runnable
    private void sendMessage(ViewMessage message)
    {
       lastSentMessage = message;
-      server.sendObject(message);
+      
+      if (batch != null)
+         batch.add(message);
+      else
+         server.sendObject(message);
    }
    
    void changePlayerCash(Player player, int amount)
@@ -695,20 +1013,20 @@ public class ServerModel extends Model implements Runnable
       boolean passesStartNode = board.passesStart(player.getCurrentNode(), node);
       boolean landsOnStartNode = node.isStartNode();
       
-      player.setCurrentNode(node);
+      setCurrentNode(player, node);
       
       sendMessage(Type.PLAYER_ADVANCED_TO_NODE, player, node);
       
       if (passesStartNode)
       {
          sendMessage(Type.PLAYER_PASSED_START_NODE, player);
-         changePlayerCash(player, ruleSet.getValue(RuleSet.PASS_START_CASH));
+         changePlayerCash(player, rules.getPassStartCash());
       }
       
       if (landsOnStartNode)
       {
          sendMessage(Type.PLAYER_LANDED_ON_START_NODE, player);
-         changePlayerCash(player, ruleSet.getValue(RuleSet.LAND_ON_START_CASH));
+         changePlayerCash(player, rules.getLandOnStartCash());
       }
 
       if (node.getActions() != null)
@@ -810,7 +1128,7 @@ public class ServerModel extends Model implements Runnable
    
    private Pair<Integer, Integer> rollDice()
    {
-      int diePips = ruleSet.getValue(RuleSet.DIE_PIPS);
+      int diePips = rules.getDiePips();
       int die1 = random.nextInt(diePips) + 1;
       int die2 = random.nextInt(diePips) + 1;
       
@@ -843,7 +1161,7 @@ public class ServerModel extends Model implements Runnable
       
       if (allowSpecialRollsAndUseFuel)
       {
-         if (RuleSet.isRedShift(ruleSet.getValue(RuleSet.RED_SHIFT_ROLL), ruleSet.getValue(RuleSet.DIE_PIPS), die1, die2))
+         if (rules.isRedShift(die1, die2))
          {
             Card card = getNextCard();
             
@@ -865,7 +1183,7 @@ public class ServerModel extends Model implements Runnable
             bypassAllowed = true;
             
             sendMessage(Type.PLAYER_CAN_BYPASS, player);
-            changePlayerCash(player, ruleSet.getValue(RuleSet.BYPASS_CASH));
+            changePlayerCash(player, rules.getBypassCash());
          }
       }
       else
@@ -920,16 +1238,7 @@ public class ServerModel extends Model implements Runnable
    
    void winDisputeWithLeague(Player player)
    {
-      boolean nodeIsAvailable = false;
-      
-      for (Node node : board.getNodes())
-      {
-         if (node.isPurchaseable())
-         {
-            nodeIsAvailable = true;
-            break;
-         }
-      }
+      boolean nodeIsAvailable = hasUnownedNodes();
       
       sendMessage(Type.PLAYER_WON_DISPUTE_WITH_LEAGUE, player);
 
@@ -945,18 +1254,7 @@ public class ServerModel extends Model implements Runnable
    
    void winDisputeWithPlayer(Player player)
    {
-      boolean nodeIsAvailable = false;
-      
-      for (Player owner : players)
-      {
-         if (owner.equals(player))
-            continue;
-         if (!owner.getOwnedNodes().isEmpty())
-         {
-            nodeIsAvailable = true;
-            break;
-         }
-      }
+      boolean nodeIsAvailable = hasOwnedNodes(player);
       
       sendMessage(Type.PLAYER_WON_DISPUTE_WITH_PLAYER, player);
       
@@ -985,6 +1283,7 @@ public class ServerModel extends Model implements Runnable
       while (players.get(currentPlayer).isGameOver());
       
       purchasedFuelDuringPreRoll = false;
+      turns++;
       
       setState(State.PRE_ROLL);
    }
@@ -992,8 +1291,7 @@ public class ServerModel extends Model implements Runnable
    private void purchaseNode(Player player, Node node)
    {
       changePlayerCash(player, -getNodePrice(node));
-      player.addNode(node);
-      node.setOwner(player);
+      setOwner(node, player);
       
       sendMessage(Type.PLAYER_PURCHASED_NODE, player, node);
    }
@@ -1001,8 +1299,7 @@ public class ServerModel extends Model implements Runnable
    private void sellNode(Player player, Node node)
    {
       changePlayerCash(player, getNodePrice(node));
-      player.removeNode(node);
-      node.setOwner(null);
+      setOwner(node, null);
       
       sendMessage(Type.PLAYER_SOLD_NODE, player, node);
    }
@@ -1019,7 +1316,7 @@ public class ServerModel extends Model implements Runnable
 
       purchasedFuelDuringPreRoll = state == State.PRE_ROLL;
       
-      int fuelPrice = node.getFuelPrice(ruleSet, player);
+      int fuelPrice = node.getFuelPrice(rules, player);
       int totalFuelPrice = fuelPrice * hydrons;
       Player owner = node.getOwner();
       
@@ -1073,22 +1370,32 @@ public class ServerModel extends Model implements Runnable
    
    private Card getNextCard()
    {
-      if (currentDeck.isEmpty())
-      {
-         currentDeck.addAll(cards);
-         Collections.shuffle(currentDeck, random);
-      }
-      
-      Card card = currentDeck.remove(0);
-      
-      currentDeck.add(card);
+      // Games saved before the deck was kept this way come without one.
+      if (deck == null)
+         deck = new CardDeck(DECK_RESHUFFLE_POLICY);
       
-      return card;
+      return cards.get(deck.draw(cards.size(), random));
    }
 
    public void receiveMessage(ServerSideConnection connection, ModelMessage modelMessage)
    {
+      if (stopped)
+         return;
+      
       messages.add(new Pair<ServerSideConnection, ModelMessage>(connection, modelMessage));
+      
+      if (executor == null)
+         return;
+      
+      synchronized (messages)
+      {
+         if (scheduled)
+            return;
+         
+         scheduled = true;
+      }
+      
+      executor.execute(getMailboxDrainer());
    }
 
    private void completeTrade(boolean accepted)
@@ -1157,15 +1464,13 @@ public class ServerModel extends Model implements Runnable
    
    private void relinquishNode(Player player, Node node)
    {
-      player.removeNode(node);
-      node.setOwner(null);
+      setOwner(node, null);
       sendMessage(Type.PLAYER_RELINQUISHED_NODE, player, node);
    }
    
    private void obtainNode(Player player, Node node)
    {
-      player.addNode(node);
-      node.setOwner(player);
+      setOwner(node, player);
       sendMessage(Type.PLAYER_OBTAINED_NODE, player, node);
    }
 
@@ -1194,11 +1499,11 @@ public class ServerModel extends Model implements Runnable
       
       sendMessage(Type.PLAYER_FIRED_LASERS, player, roll);
       
-      changePlayerFuel(player, -(distance + 1) * ruleSet.getValue(RuleSet.LASER_BATTLE_FUEL_COST));
+      changePlayerFuel(player, -(distance + 1) * rules.getLaserBattleFuelCost());
       
       for (Player targetedPlayer : targetedPlayers)
       {
-         if (die1 == ruleSet.getValue(RuleSet.DIE_PIPS) && die2 == die1)
+         if (die1 == rules.getDiePips() && die2 == die1)
          {
             sendMessage(Type.PLAYER_FIRED_LASERS_AND_DESTROYED_A_SHIP, player, targetedPlayer);
             removePlayer(targetedPlayer, player);
@@ -1206,7 +1511,7 @@ public class ServerModel extends Model implements Runnable
          else if (die1 == die2)
          {
             sendMessage(Type.PLAYER_FIRED_LASERS_AND_CAUSED_DAMAGE, player, targetedPlayer);
-            addDebt(targetedPlayer, player, ruleSet.getValue(RuleSet.LASER_BATTLE_DAMAGE_COST) * (die1 + die2));
+            addDebt(targetedPlayer, player, rules.getLaserBattleDamageCost() * (die1 + die2));
          }
          else
          {
@@ -1225,21 +1530,319 @@ public class ServerModel extends Model implements Runnable
       }
    }
    
+   State getState()
+   {
+      return state;
+   }
+   
+   /** Returns the number of turns that have ended so far. */
+   public int getTurns()
+   {
+      return turns;
+   }
+   
+   /** Returns the moves the current player is choosing between, if the player is choosing one. */
+   List<Node> getAllowedMoves()
+   {
+      return Collections.unmodifiableList(allowedMovesList);
+   }
+   
+   /** Returns the player who must settle a debt next, or null if nobody owes anything. */
+   Player getDebtor()
+   {
+      return debts.isEmpty() ? null : playerMap.get(debts.get(0).getDebtor());
+   }
+   
+   /** Returns the amount owed by the {@link #getDebtor() debtor}. */
+   int getDebtAmount()
+   {
+      return debts.get(0).getAmount();
+   }
+   
+   Player getCreditor()
+   {
+      return playerMap.get(currentCreditor);
+   }
+   
+   /** Returns the trade awaiting a decision, or null if there is none. */
+   Trade getCurrentTrade()
+   {
+      return currentTrade;
+   }
+   
+   /** Replaces the source of dice rolls and card shuffles, so a simulated game can be repeated exactly. */
+   void setRandom(GameRandom random)
+   {
+      this.random = random;
+   }
+   
+   List<Card> getCards()
+   {
+      return cards;
+   }
+   
+   /**
+    * Writes the part of the game's state that only the server knows, for a {@link SaveFile}: the
+    * deck, the random number generator, and where the game is in its turn.
+    */
+   void writeState(DataOutputStream out) throws IOException
+   {
+      if (deck == null)
+         deck = new CardDeck(DECK_RESHUFFLE_POLICY);
+      
+      deck.write(out);
+      out.writeLong(((GameRandom)random).getState());
+      out.writeInt(currentPlayer);
+      out.writeInt(playersRemaining);
+      writeStateValue(out, state);
+      SaveFile.writeMessage(out, lastSentMessage, this);
+      writeStateValue(out, postTradeState);
+      SaveFile.writeMessage(out, postTradeMessage, this);
+      writeStateValue(out, postDebtSettlementState);
+      ValueCodec.writeValue(out, (Serializable)allowedMovesList, this);
+      out.writeShort(debts.size());
+      
+      for (Debt debt : debts)
+      {
+         out.writeByte(debt.getDebtor());
+         out.writeInt(debt.getAmount());
+      }
+      
+      out.writeInt(currentCreditor);
+      ValueCodec.writeValue(out, currentTrade, this);
+      out.writeBoolean(purchasedFuelDuringPreRoll);
+      out.writeBoolean(bypassAllowed);
+      out.writeInt(turns);
+   }
+   
+   /** Reads what {@link #writeState(DataOutputStream)} wrote. */
+   @SuppressWarnings("unchecked")
+   void readState(DataInputStream in) throws IOException
+   {
+      GameRandom random = new GameRandom();
+      
+      deck = new CardDeck(DECK_RESHUFFLE_POLICY);
+      deck.read(in);
+      random.setState(in.readLong());
+      this.random = random;
+      currentPlayer = in.readInt();
+      playersRemaining = in.readInt();
+      state = readStateValue(in);
+      lastSentMessage = SaveFile.readMessage(in, this);
+      postTradeState = readStateValue(in);
+      postTradeMessage = SaveFile.readMessage(in, this);
+      postDebtSettlementState = readStateValue(in);
+      allowedMovesList = (List<Node>)ValueCodec.readValue(in, this);
+      debts.clear();
+      
+      for (int count = in.readShort(); count > 0; count--)
+         debts.add(new Debt(in.readByte(), in.readInt()));
+      
+      currentCreditor = in.readInt();
+      currentTrade = (Trade)ValueCodec.readValue(in, this);
+      purchasedFuelDuringPreRoll = in.readBoolean();
+      bypassAllowed = in.readBoolean();
+      turns = in.readInt();
+   }
+   
+   private static void writeStateValue(DataOutputStream out, State state) throws IOException
+   {
+      out.writeByte(state == null ? -1 : state.ordinal());
+   }
+   
+   private static State readStateValue(DataInputStream in) throws IOException
+   {
+      int ordinal = in.readByte();
+      
+      return ordinal < 0 ? null : State.values()[ordinal];
+   }
+   
+   /**
+    * Returns a copy of this game that holds what {@link #writeState(DataOutputStream)} writes, as
+    * it stands, and shares everything that never changes during a game. The copy is a few small
+    * arrays and lists, so taking it barely pauses the game, and it can be written on another
+    * thread while the game plays on.
+    */
+   ServerModel copyState()
+   {
+      ServerModel copy = new ServerModel();
+      
+      copy.id = id;
+      copy.cards = cards;
+      copy.board = board;
+      copy.ruleSet = ruleSet;
+      copy.rules = rules;
+      copy.players = new ArrayList<Player>(players);
+      copy.deck = deck == null ? null : deck.copy();
+      copy.random = ((GameRandom)random).copy();
+      copy.currentPlayer = currentPlayer;
+      copy.playersRemaining = playersRemaining;
+      copy.state = state;
+      copy.lastSentMessage = lastSentMessage;
+      copy.postTradeState = postTradeState;
+      copy.postTradeMessage = postTradeMessage;
+      copy.postDebtSettlementState = postDebtSettlementState;
+      copy.allowedMovesList = allowedMovesList == null ? null : new ArrayList<Node>(allowedMovesList);
+      copy.debts = new ArrayList<Debt>(debts);
+      copy.currentCreditor = currentCreditor;
+      copy.currentTrade = currentTrade;
+      copy.purchasedFuelDuringPreRoll = purchasedFuelDuringPreRoll;
+      copy.bypassAllowed = bypassAllowed;
+      copy.turns = turns;
+      
+      return copy;
+   }
+   
+   /**
+    * Returns a copy of this game as it was loaded, with a board of its own but without players.
+    * Cards and rules never change during a game, so the copy shares them.
+    */
+   ServerModel copyGame()
+   {
+      ServerModel copy = new ServerModel();
+      
+      copy.id = id;
+      copy.defaultRuleSet = defaultRuleSet;
+      copy.defaultView = defaultView;
+      copy.cards = cards;
+      copy.board = board.copy();
+      copy.ruleSet = ruleSet;
+      copy.rules = rules;
+      
+      return copy;
+   }
+   
    public void setServer(Server server)
    {
       this.server = server;
    }
    
+   /** Has every accepted message written to the given journal. Called by the journal itself. */
+   void setJournal(GameJournal journal)
+   {
+      this.journal = journal;
+   }
+   
+   /** Returns the journal of this game, or null if it is not journaled. */
+   public GameJournal getJournal()
+   {
+      return journal;
+   }
+   
+   private void closeJournal()
+   {
+      try
+      {
+         journal.close();
+      }
+      catch (IOException ioe)
+      {
+         ioe.printStackTrace();
+      }
+   }
+   
+   /** Has the game saved to the given autosave whenever a turn ends. Called by the autosave itself. */
+   void setAutosave(Autosave autosave)
+   {
+      this.autosave = autosave;
+   }
+   
+   /** Returns the autosave of this game, or null if it is not autosaved. */
+   public Autosave getAutosave()
+   {
+      return autosave;
+   }
+   
+   /**
+    * Hands the autosave a snapshot if {@link #nextTurn()} has run since there were the given
+    * number of turns, or closes it once the game is over.
+    */
+   private void autosave(int previousTurns)
+   {
+      if (autosave == null)
+         return;
+      
+      if (state == State.GAME_OVER)
+      {
+         try
+         {
+            autosave.close();
+         }
+         catch (IOException ioe)
+         {
+            ioe.printStackTrace();
+         }
+      }
+      else if (turns != previousTurns)
+      {
+         autosave.capture(this);
+      }
+   }
+   
    @Override
    public Player getCurrentPlayer()
    {
       return players.get(currentPlayer);
    }
+   
+   /** Returns the last message the game sent, which says what it is waiting for, or null if it has sent none. */
+   public ViewMessage getLastSentMessage()
+   {
+      return lastSentMessage;
+   }
 
-   public void playersDropped(Collection<Integer> droppedPlayers)
+   public synchronized void playersDropped(Collection<Integer> droppedPlayers)
    {
-      for (int player : droppedPlayers)
-         removePlayer(playerMap.get(player));
+      if (stopped)
+         return;
+      
+      // Dropping a player from within a transition joins that transition's batch.
+      if (batch != null)
+      {
+         for (int player : droppedPlayers)
+            removePlayer(playerMap.get(player));
+         
+         journalPlayersDropped(droppedPlayers);
+         return;
+      }
+      
+      int previousTurns = turns;
+      
+      beginBatch();
+      
+      try
+      {
+         for (int player : droppedPlayers)
+            removePlayer(playerMap.get(player));
+         
+         journalPlayersDropped(droppedPlayers);
+         autosave(previousTurns);
+      }
+      finally
+      {
+         endBatch();
+      }
+   }
+   
+   private void journalPlayersDropped(Collection<Integer> droppedPlayers)
+   {
+      if (journal == null)
+         return;
+      
+      journal.appendPlayersDropped(this, droppedPlayers);
+      
+      if (state == State.GAME_OVER)
+         closeJournal();
+   }
+   
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      messages = new LinkedBlockingQueue<Pair<ServerSideConnection, ModelMessage>>();
+      
+      // Carry on from an old game's generator with one whose state can be saved.
+      if (!(random instanceof GameRandom))
+         random = new GameRandom(random.nextLong());
    }
 
    public ClientModel createClientModel()
@@ -1251,6 +1854,7 @@ public class ServerModel extends Model implements Runnable
       clientModel.players = players;
       clientModel.playerMap = playerMap;
       clientModel.ruleSet = ruleSet;
+      clientModel.rules = rules;
       clientModel.fuelStationsRemaining = fuelStationsRemaining;
       clientModel.setCurrentPlayer(getCurrentPlayer());
       
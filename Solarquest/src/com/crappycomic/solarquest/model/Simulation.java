@@ -0,0 +1,249 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.util.*;
+
+import com.crappycomic.solarquest.view.ViewMessage;
+
+/**
+ * Plays whole games of a {@link ServerModel} in the calling thread, for balancing and for
+ * training computer players. There is no {@link com.crappycomic.solarquest.net.Server}, no
+ * connection, no message queue, and no serialization: each decision a {@link Strategy} makes goes
+ * straight into the model, and the model's reply comes straight back. One instance plays one game
+ * at a time, but any number of instances may share the same loaded game, and one instance may
+ * play games in any number of threads at once, as long as its strategies can too.
+ */
+public class Simulation
+{
+   /**
+    * Makes the decisions a player's {@link com.crappycomic.solarquest.view.View} would otherwise
+    * prompt for. Each method returns the message the player sends in reply, which must be valid
+    * for the model's current state. The model passed in is live, so strategies should only read it.
+    */
+   public static interface Strategy
+   {
+      ModelMessage preRoll(Model model, Player player);
+      ModelMessage preLand(Model model, Player player);
+      ModelMessage postRoll(Model model, Player player);
+      ModelMessage chooseAllowedMove(Model model, Player player, List<Node> allowedMoves);
+      ModelMessage settleDebt(Model model, Player debtor, Player creditor, int amount);
+      ModelMessage decideTrade(Model model, Player player, Trade trade);
+      ModelMessage chooseNodeLostToLeague(Model model, Player player);
+      ModelMessage chooseNodeWonFromLeague(Model model, Player player);
+      ModelMessage chooseNodeWonFromPlayer(Model model, Player player);
+   }
+   
+   /** What happened in one simulated game. */
+   public static class Result
+   {
+      private long seed;
+      
+      private int winner = NONE;
+      
+      private int turns;
+      
+      private ViewMessage.Type[] eliminations;
+      
+      private Result(long seed, int playerCount)
+      {
+         this.seed = seed;
+         eliminations = new ViewMessage.Type[playerCount];
+      }
+      
+      /** Returns the seed that, passed to {@link Simulation#play(List, long)}, plays this game again. */
+      public long getSeed()
+      {
+         return seed;
+      }
+      
+      /** Returns the number of the winning player, or -1 if the game hit the turn limit first. */
+      public int getWinner()
+      {
+         return winner;
+      }
+      
+      public boolean isFinished()
+      {
+         return winner != NONE;
+      }
+      
+      public int getTurns()
+      {
+         return turns;
+      }
+      
+      public int getPlayerCount()
+      {
+         return eliminations.length;
+      }
+      
+      /**
+       * Returns the type of message that announced the given player's elimination, such as
+       * {@link ViewMessage.Type#PLAYER_LOST_DUE_TO_BANKRUPTCY}, or null if the player survived.
+       */
+      public ViewMessage.Type getElimination(int player)
+      {
+         return eliminations[player];
+      }
+      
+      @Override
+      public String toString()
+      {
+         return "seed " + seed + ": winner " + winner + " after " + turns + " turns, eliminations " + Arrays.toString(eliminations);
+      }
+   }
+   
+   /** Default number of turns after which a game is abandoned as a stalemate. */
+   public static final int DEFAULT_TURN_LIMIT = 2000;
+   
+   private static final int NONE = -1;
+   
+   private static final Random seeds = new Random();
+   
+   private ServerModel game;
+   
+   private int turnLimit = DEFAULT_TURN_LIMIT;
+   
+   /**
+    * Creates a simulation of the given game, as loaded by {@link ModelXMLLoader}, under the given
+    * rules. The game itself is never played; each simulated game plays a copy.
+    */
+   public Simulation(ServerModel game, RuleSet ruleSet)
+   {
+      this.game = game.copyGame();
+      this.game.setRuleSet(ruleSet);
+      this.game.initializeBoardTables();
+   }
+   
+   public void setTurnLimit(int turnLimit)
+   {
+      this.turnLimit = turnLimit;
+   }
+   
+   /** Plays one game with a seed of its own. See {@link #play(List, long)}. */
+   public Result play(List<? extends Strategy> strategies)
+   {
+      return play(strategies, seeds.nextLong());
+   }
+   
+   /**
+    * Plays one game to the end, or to the turn limit, with one player per strategy. Players are
+    * numbered in the order of their strategies and take their turns in that order. Every die roll
+    * and card shuffle comes from the given seed, so the same seed and strategies always play the
+    * same game, as long as the strategies are deterministic themselves.
+    *
+    * @throws IllegalStateException if a strategy sends a message the model rejects
+    */
+   public Result play(List<? extends Strategy> strategies, long seed)
+   {
+      ServerModel model = game.copyGame();
+      List<Player> players = new ArrayList<Player>(strategies.size());
+      Result result = new Result(seed, strategies.size());
+      
+      for (int ndx = 0; ndx < strategies.size(); ndx++)
+      {
+         Player player = new Player(ndx);
+         
+         player.setName("Player " + ndx);
+         players.add(player);
+      }
+      
+      model.setRandom(new GameRandom(seed));
+      model.setPlayers(players);
+      model.initialize();
+      
+      List<ViewMessage> messages = model.beginSimulation();
+      
+      while (true)
+      {
+         record(messages, result);
+         
+         if (model.getState() == ServerModel.State.GAME_OVER)
+            break;
+         
+         result.turns = model.getTurns();
+         
+         if (result.turns >= turnLimit)
+            break;
+         
+         ServerModel.State state = model.getState();
+         ModelMessage decision = decide(model, strategies);
+         
+         messages = model.simulateMessage(decision);
+         
+         // A rejected message produces nothing but the rejection.
+         if (messages.size() == 1 && messages.get(0).getType() == ViewMessage.Type.MODEL_INVALID_STATE)
+            throw new IllegalStateException("Player " + decision.getPlayer() + " sent " + decision + " in state " + state);
+      }
+      
+      result.turns = model.getTurns();
+      
+      return result;
+   }
+   
+   /** Asks the strategy of whichever player the model is waiting for what that player does next. */
+   private static ModelMessage decide(ServerModel model, List<? extends Strategy> strategies)
+   {
+      Player player = model.getCurrentPlayer();
+      
+      switch (model.getState())
+      {
+         case PRE_ROLL:
+            return strategies.get(player.getNumber()).preRoll(model, player);
+         case PRE_LAND:
+            return strategies.get(player.getNumber()).preLand(model, player);
+         case POST_ROLL:
+            return strategies.get(player.getNumber()).postRoll(model, player);
+         case CHOOSING_ALLOWED_MOVE:
+            return strategies.get(player.getNumber()).chooseAllowedMove(model, player, model.getAllowedMoves());
+         case SETTLING_DEBT:
+         {
+            Player debtor = model.getDebtor();
+            
+            return strategies.get(debtor.getNumber()).settleDebt(model, debtor, model.getCreditor(),
+               model.getDebtAmount());
+         }
+         case TRADING:
+         {
+            Trade trade = model.getCurrentTrade();
+            Player recipient = model.getPlayer(trade.getTo());
+            
+            return strategies.get(recipient.getNumber()).decideTrade(model, recipient, trade);
+         }
+         case CHOOSING_NODE_LOST_TO_LEAGUE:
+            return strategies.get(player.getNumber()).chooseNodeLostToLeague(model, player);
+         case CHOOSING_NODE_WON_FROM_LEAGUE:
+            return strategies.get(player.getNumber()).chooseNodeWonFromLeague(model, player);
+         case CHOOSING_NODE_WON_FROM_PLAYER:
+            return strategies.get(player.getNumber()).chooseNodeWonFromPlayer(model, player);
+         default:
+            throw new IllegalStateException("Nothing to decide in state " + model.getState());
+      }
+   }
+   
+   private static void record(List<ViewMessage> messages, Result result)
+   {
+      for (ViewMessage message : messages)
+      {
+         switch (message.getType())
+         {
+            case PLAYER_LOST_DUE_TO_BANKRUPTCY:
+            case PLAYER_LOST_DUE_TO_INSUFFICIENT_FUEL:
+            case PLAYER_LOST_DUE_TO_STRANDING:
+               result.eliminations[message.getPlayer().getNumber()] = message.getType();
+               break;
+            case PLAYER_FIRED_LASERS_AND_DESTROYED_A_SHIP:
+               result.eliminations[((Player)message.getValue()).getNumber()] = message.getType();
+               break;
+            case PLAYER_WON:
+               result.winner = message.getPlayer().getNumber();
+               break;
+            default:
+               break;
+         }
+      }
+   }
+}
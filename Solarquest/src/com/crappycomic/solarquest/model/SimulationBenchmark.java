@@ -0,0 +1,88 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.IOException;
+import java.lang.management.*;
+import java.util.*;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Driver class that plays games between {@link BasicStrategy} players in one thread and reports
+ * how many games per minute a {@link Simulation} sustains, along with the time and, where the JVM
+ * can measure it, the memory allocated per turn. The games are seeded zero and up, so every run
+ * plays the same games.
+ * <p>
+ * Usage: <code>SimulationBenchmark [games] [players] [game] [rule set]</code>. The defaults are
+ * 20,000 games of four players, using the built-in 1985 game and rules.
+ */
+public class SimulationBenchmark
+{
+   private static final int DEFAULT_GAMES = 20000;
+   
+   private static final int DEFAULT_PLAYERS = 4;
+   
+   public static void main(String[] args) throws SAXException, IOException
+   {
+      int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+      int playerCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PLAYERS;
+      String game = args.length > 2 ? args[2] : "Solarquest_1985";
+      String ruleSet = args.length > 3 ? args[3] : "Solarquest_1985";
+      Simulation simulation = new Simulation(new ModelXMLLoader().loadGame(game),
+         new ModelXMLLoader().loadRuleSet(ruleSet));
+      List<BasicStrategy> strategies = new ArrayList<BasicStrategy>();
+      
+      for (int ndx = 0; ndx < playerCount; ndx++)
+         strategies.add(new BasicStrategy());
+      
+      // Warm up first, so the JIT has its chance before anything is timed.
+      run(simulation, strategies, games / 4);
+      
+      long allocatedBefore = getAllocatedBytes();
+      long start = System.nanoTime();
+      int[] totals = run(simulation, strategies, games);
+      long elapsed = System.nanoTime() - start;
+      long allocated = getAllocatedBytes() - allocatedBefore;
+      
+      System.out.printf("%d games of %d players: %.0f games per minute, %.1f turns per game, %d unfinished%n",
+         games, playerCount, games / (elapsed / 60e9), (double)totals[0] / games, totals[1]);
+      System.out.printf("%.0f ns per turn", (double)elapsed / totals[0]);
+      
+      if (allocatedBefore >= 0)
+         System.out.printf(", %.0f bytes allocated per turn", (double)allocated / totals[0]);
+      
+      System.out.println();
+   }
+   
+   /** Returns the bytes this thread has allocated so far, or a negative number if that can't be measured. */
+   private static long getAllocatedBytes()
+   {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      
+      if (bean instanceof com.sun.management.ThreadMXBean)
+         return ((com.sun.management.ThreadMXBean)bean).getCurrentThreadAllocatedBytes();
+      
+      return -1;
+   }
+   
+   /** Plays the given number of games, returning the total number of turns and unfinished games. */
+   private static int[] run(Simulation simulation, List<BasicStrategy> strategies, int games)
+   {
+      int[] totals = new int[2];
+      
+      for (int ndx = 0; ndx < games; ndx++)
+      {
+         Simulation.Result result = simulation.play(strategies, ndx);
+         
+         totals[0] += result.getTurns();
+         
+         if (!result.isFinished())
+            totals[1]++;
+      }
+      
+      return totals;
+   }
+}
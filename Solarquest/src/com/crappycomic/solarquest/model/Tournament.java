@@ -0,0 +1,247 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.xml.sax.SAXException;
+
+import com.crappycomic.solarquest.view.*;
+
+/**
+ * Plays many {@link Simulation simulated} games across every core, using a fork/join pool. The
+ * games get their seeds from one {@link SplittableRandom}, split the same way on every run, so a
+ * whole tournament is repeatable from its seed, and so is any one game from the seed in its
+ * {@link Simulation.Result}. Each task tallies its own games and the tallies are merged as the
+ * tasks join, so the threads never contend over the totals.
+ * <p>
+ * Usage: <code>Tournament [games] [players] [seed] [game] [rule set]</code>. The defaults are
+ * 100,000 games of four {@link BasicStrategy} players, a random seed, and the built-in 1985 game
+ * and rules. A game seats from two players up to {@link PlayerToken#MAX_PLAYER_COUNT}.
+ */
+public class Tournament
+{
+   /** Totals over any number of games. */
+   public static class Results
+   {
+      private int games;
+      
+      private int unfinished;
+      
+      private long turns;
+      
+      private int[] wins;
+      
+      private int[] eliminations = new int[ViewMessage.Type.values().length];
+      
+      private Simulation.Result longestGame;
+      
+      private Results(int playerCount)
+      {
+         wins = new int[playerCount];
+      }
+      
+      private void add(Simulation.Result result)
+      {
+         games++;
+         turns += result.getTurns();
+         
+         if (result.isFinished())
+            wins[result.getWinner()]++;
+         else
+            unfinished++;
+         
+         for (int player = 0; player < wins.length; player++)
+            if (result.getElimination(player) != null)
+               eliminations[result.getElimination(player).ordinal()]++;
+         
+         if (longestGame == null || result.getTurns() > longestGame.getTurns())
+            longestGame = result;
+      }
+      
+      private Results merge(Results other)
+      {
+         games += other.games;
+         unfinished += other.unfinished;
+         turns += other.turns;
+         
+         for (int ndx = 0; ndx < wins.length; ndx++)
+            wins[ndx] += other.wins[ndx];
+         
+         for (int ndx = 0; ndx < eliminations.length; ndx++)
+            eliminations[ndx] += other.eliminations[ndx];
+         
+         if (longestGame == null || (other.longestGame != null && other.longestGame.getTurns() > longestGame.getTurns()))
+            longestGame = other.longestGame;
+         
+         return this;
+      }
+      
+      public int getGames()
+      {
+         return games;
+      }
+      
+      /** Returns the number of games abandoned at the turn limit. */
+      public int getUnfinished()
+      {
+         return unfinished;
+      }
+      
+      public double getAverageTurns()
+      {
+         return games == 0 ? 0 : (double)turns / games;
+      }
+      
+      /** Returns the number of games won by whoever played in the given seat. */
+      public int getWins(int player)
+      {
+         return wins[player];
+      }
+      
+      /** Returns the number of players eliminated for the reason the given message type announces. */
+      public int getEliminations(ViewMessage.Type reason)
+      {
+         return eliminations[reason.ordinal()];
+      }
+      
+      public int getBankruptcies()
+      {
+         return getEliminations(ViewMessage.Type.PLAYER_LOST_DUE_TO_BANKRUPTCY);
+      }
+      
+      /** Returns the game that lasted the most turns, whose seed replays it. */
+      public Simulation.Result getLongestGame()
+      {
+         return longestGame;
+      }
+      
+      @Override
+      public String toString()
+      {
+         StringBuilder out = new StringBuilder();
+         
+         out.append(games).append(" games, ").append(unfinished).append(" unfinished, ");
+         out.append(String.format("%.1f turns per game%n", getAverageTurns()));
+         
+         for (int player = 0; player < wins.length; player++)
+            out.append(String.format("Player %d won %d (%.1f%%)%n", player, wins[player], 100.0 * wins[player] / games));
+         
+         for (ViewMessage.Type reason : ViewMessage.Type.values())
+            if (eliminations[reason.ordinal()] > 0)
+               out.append(reason).append(": ").append(eliminations[reason.ordinal()]).append('\n');
+         
+         if (longestGame != null)
+            out.append("Longest game: ").append(longestGame).append('\n');
+         
+         return out.toString();
+      }
+   }
+   
+   /** Plays a range of games in one thread, splitting it up first if it is large enough to share. */
+   private class Games extends RecursiveTask<Results>
+   {
+      private static final long serialVersionUID = 0;
+      
+      private int count;
+      
+      // Tasks are never serialized; they are only Serializable because every ForkJoinTask is.
+      private transient SplittableRandom seeds;
+      
+      private Games(int count, SplittableRandom seeds)
+      {
+         this.count = count;
+         this.seeds = seeds;
+      }
+      
+      @Override
+      protected Results compute()
+      {
+         if (count > GAMES_PER_TASK)
+         {
+            // Depends only on the count, so every run splits the seeds the same way.
+            Games second = new Games(count / 2, seeds.split());
+            Games first = new Games(count - count / 2, seeds);
+            
+            second.fork();
+            
+            return first.compute().merge(second.join());
+         }
+         
+         Results results = new Results(strategies.size());
+         
+         for (int ndx = 0; ndx < count; ndx++)
+            results.add(simulation.play(strategies, seeds.nextLong()));
+         
+         return results;
+      }
+   }
+   
+   /** Largest number of games a single task plays without splitting. */
+   private static final int GAMES_PER_TASK = 64;
+   
+   private static final int DEFAULT_GAMES = 100000;
+   
+   private static final int DEFAULT_PLAYERS = 4;
+   
+   // a game of one is over before it starts
+   private static final int MINIMUM_PLAYERS = 2;
+   
+   private Simulation simulation;
+   
+   private List<? extends Simulation.Strategy> strategies;
+   
+   /**
+    * Creates a tournament of the given simulation, with one player per strategy. The strategies
+    * are shared by every thread, so they must be safe to call from more than one at once.
+    */
+   public Tournament(Simulation simulation, List<? extends Simulation.Strategy> strategies)
+   {
+      this.simulation = simulation;
+      this.strategies = strategies;
+   }
+   
+   /** Plays the given number of games on the common fork/join pool. */
+   public Results play(int games, long seed)
+   {
+      return play(games, seed, ForkJoinPool.commonPool());
+   }
+   
+   public Results play(int games, long seed, ForkJoinPool pool)
+   {
+      return pool.invoke(new Games(games, new SplittableRandom(seed)));
+   }
+   
+   public static void main(String[] args) throws SAXException, IOException
+   {
+      int games = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+      int playerCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PLAYERS;
+      long seed = args.length > 2 ? Long.parseLong(args[2]) : new Random().nextLong();
+      String game = args.length > 3 ? args[3] : "Solarquest_1985";
+      String ruleSet = args.length > 4 ? args[4] : "Solarquest_1985";
+      List<BasicStrategy> strategies = new ArrayList<BasicStrategy>();
+      
+      if (playerCount < MINIMUM_PLAYERS || playerCount > PlayerToken.MAX_PLAYER_COUNT)
+      {
+         throw new IllegalArgumentException("Player count must be between " + MINIMUM_PLAYERS + " and "
+            + PlayerToken.MAX_PLAYER_COUNT + ": " + playerCount);
+      }
+      
+      for (int ndx = 0; ndx < playerCount; ndx++)
+         strategies.add(new BasicStrategy());
+      
+      Tournament tournament = new Tournament(new Simulation(new ModelXMLLoader().loadGame(game),
+         new ModelXMLLoader().loadRuleSet(ruleSet)), strategies);
+      long start = System.nanoTime();
+      Results results = tournament.play(games, seed);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      
+      System.out.printf("Seed %d, %d threads, %.1f seconds (%.0f games per minute)%n", seed,
+         ForkJoinPool.commonPool().getParallelism(), seconds, games / seconds * 60);
+      System.out.print(results);
+   }
+}
@@ -0,0 +1,320 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.model;
+
+import java.io.*;
+import java.util.*;
+
+import com.crappycomic.solarquest.view.ViewMessage;
+
+/**
+ * Reads and writes {@link ViewMessage}s, {@link ModelMessage}s, and the values they carry as a
+ * handful of bytes: the message type, the player number, and a tagged value that refers to
+ * {@link Node nodes} and {@link Player players} by index and number instead of dragging their
+ * object graphs along. Given a {@link ServerModel}, {@link Card cards} and {@link Trade trades} are
+ * written the same way; anything else falls back to Java serialization.
+ * <p>
+ * Saved games, journals, and the network all use this one format, so they cannot drift apart.
+ * Message types are written as enum ordinals and values by the tags below, so changing either
+ * means changing the versions of {@link SaveFile}, {@link GameJournal}, and the binary network
+ * codec together. New tags go at the end.
+ */
+public final class ValueCodec
+{
+   private static final byte VALUE_NULL = 0;
+   private static final byte VALUE_INTEGER = 1;
+   private static final byte VALUE_BOOLEAN = 2;
+   private static final byte VALUE_STRING = 3;
+   private static final byte VALUE_NODE = 4;
+   private static final byte VALUE_PLAYER = 5;
+   private static final byte VALUE_INTEGER_PAIR = 6;
+   private static final byte VALUE_PLAYER_INTEGER_PAIR = 7;
+   private static final byte VALUE_NODE_LIST = 8;
+   private static final byte VALUE_CARD = 9;
+   private static final byte VALUE_TRADE = 10;
+   private static final byte VALUE_SERIALIZED = 11;
+   private static final byte VALUE_INTEGER_LIST = 12;
+   
+   private static final ViewMessage.Type[] VIEW_MESSAGE_TYPES = ViewMessage.Type.values();
+   
+   private static final ModelMessage.Type[] MODEL_MESSAGE_TYPES = ModelMessage.Type.values();
+   
+   private static final int NO_PLAYER = -1;
+   
+   private ValueCodec()
+   {
+   }
+   
+   public static void writeViewMessage(DataOutputStream out, ViewMessage message, Model model) throws IOException
+   {
+      out.writeByte(message.getType().ordinal());
+      out.writeByte(message.getPlayer() == null ? NO_PLAYER : message.getPlayer().getNumber());
+      writeValue(out, message.getValue(), model);
+   }
+   
+   public static ViewMessage readViewMessage(DataInputStream in, Model model) throws IOException
+   {
+      ViewMessage.Type type = VIEW_MESSAGE_TYPES[in.readUnsignedByte()];
+      Player player = readPlayer(in.readByte(), model);
+      
+      return new ViewMessage(type, player, readValue(in, model));
+   }
+   
+   public static void writeModelMessage(DataOutputStream out, ModelMessage message, Model model) throws IOException
+   {
+      out.writeByte(message.getType().ordinal());
+      out.writeByte(message.getPlayer());
+      writeValue(out, message.getValue(), model);
+   }
+   
+   public static ModelMessage readModelMessage(DataInputStream in, Model model) throws IOException
+   {
+      ModelMessage.Type type = MODEL_MESSAGE_TYPES[in.readUnsignedByte()];
+      int player = in.readByte();
+      
+      return new ModelMessage(type, player, readValue(in, model));
+   }
+   
+   /**
+    * Writes one of the values carried by messages or kept between them. Nodes and players need no
+    * model to be written, but cards and trades are written by index only when the given model is a
+    * {@link ServerModel}, since only the server has the deck to look them up in again.
+    */
+   public static void writeValue(DataOutputStream out, Serializable value, Model model) throws IOException
+   {
+      if (value == null)
+      {
+         out.writeByte(VALUE_NULL);
+      }
+      else if (value instanceof Integer)
+      {
+         out.writeByte(VALUE_INTEGER);
+         out.writeInt((Integer)value);
+      }
+      else if (value instanceof Boolean)
+      {
+         out.writeByte(VALUE_BOOLEAN);
+         out.writeBoolean((Boolean)value);
+      }
+      else if (value instanceof String)
+      {
+         out.writeByte(VALUE_STRING);
+         out.writeUTF((String)value);
+      }
+      else if (value instanceof Node)
+      {
+         out.writeByte(VALUE_NODE);
+         out.writeShort(((Node)value).getIndex());
+      }
+      else if (value instanceof Player)
+      {
+         out.writeByte(VALUE_PLAYER);
+         out.writeByte(((Player)value).getNumber());
+      }
+      else if (value.getClass() == Pair.class && isIntegerPair((Pair<?, ?>)value))
+      {
+         Pair<?, ?> pair = (Pair<?, ?>)value;
+         
+         out.writeByte(VALUE_INTEGER_PAIR);
+         out.writeInt((Integer)pair.getFirst());
+         out.writeInt((Integer)pair.getSecond());
+      }
+      else if (value.getClass() == Pair.class && isPlayerIntegerPair((Pair<?, ?>)value))
+      {
+         Pair<?, ?> pair = (Pair<?, ?>)value;
+         
+         out.writeByte(VALUE_PLAYER_INTEGER_PAIR);
+         out.writeByte(((Player)pair.getFirst()).getNumber());
+         out.writeInt((Integer)pair.getSecond());
+      }
+      else if (value instanceof List<?> && isListOf((List<?>)value, Node.class))
+      {
+         List<?> list = (List<?>)value;
+         
+         out.writeByte(VALUE_NODE_LIST);
+         out.writeShort(list.size());
+         
+         for (Object node : list)
+            out.writeShort(((Node)node).getIndex());
+      }
+      else if (value instanceof List<?> && isListOf((List<?>)value, Integer.class))
+      {
+         List<?> list = (List<?>)value;
+         
+         out.writeByte(VALUE_INTEGER_LIST);
+         out.writeShort(list.size());
+         
+         for (Object integer : list)
+            out.writeInt((Integer)integer);
+      }
+      else if (value instanceof Card && model instanceof ServerModel
+         && ((ServerModel)model).getCards().contains(value))
+      {
+         out.writeByte(VALUE_CARD);
+         out.writeShort(((ServerModel)model).getCards().indexOf(value));
+      }
+      else if (value instanceof Trade && model instanceof ServerModel)
+      {
+         Trade trade = (Trade)value;
+         
+         out.writeByte(VALUE_TRADE);
+         out.writeByte(trade.getFrom());
+         out.writeByte(trade.getTo());
+         writeNodeIDs(out, trade.getOffered(), model);
+         writeNodeIDs(out, trade.getRequested(), model);
+         out.writeInt(trade.getCash());
+      }
+      else
+      {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+         
+         objectOut.writeObject(value);
+         objectOut.close();
+         out.writeByte(VALUE_SERIALIZED);
+         out.writeInt(bytes.size());
+         bytes.writeTo(out);
+      }
+   }
+   
+   /**
+    * Reads what {@link #writeValue(DataOutputStream, Serializable, Model)} wrote, looking nodes,
+    * players, and cards up in the given model.
+    */
+   public static Serializable readValue(DataInputStream in, Model model) throws IOException
+   {
+      byte tag = in.readByte();
+      
+      switch (tag)
+      {
+         case VALUE_NULL:
+            return null;
+         case VALUE_INTEGER:
+            return in.readInt();
+         case VALUE_BOOLEAN:
+            return in.readBoolean();
+         case VALUE_STRING:
+            return in.readUTF();
+         case VALUE_NODE:
+            return readNode(in.readShort(), model);
+         case VALUE_PLAYER:
+            return readPlayer(in.readByte(), model);
+         case VALUE_INTEGER_PAIR:
+            return new Pair<Integer, Integer>(in.readInt(), in.readInt());
+         case VALUE_PLAYER_INTEGER_PAIR:
+            return new Pair<Player, Integer>(readPlayer(in.readByte(), model), in.readInt());
+         case VALUE_NODE_LIST:
+            return readNodes(in, model);
+         case VALUE_INTEGER_LIST:
+         {
+            int size = in.readShort();
+            ArrayList<Integer> integers = new ArrayList<Integer>(size);
+            
+            for (int ndx = 0; ndx < size; ndx++)
+               integers.add(in.readInt());
+            
+            return integers;
+         }
+         case VALUE_CARD:
+            return getServerModel(model, "card").getCards().get(in.readShort());
+         case VALUE_TRADE:
+         {
+            getServerModel(model, "trade");
+            
+            Player from = readPlayer(in.readByte(), model);
+            Player to = readPlayer(in.readByte(), model);
+            List<Node> offered = readNodes(in, model);
+            List<Node> requested = readNodes(in, model);
+            
+            return new Trade(from, to, offered, requested, in.readInt());
+         }
+         case VALUE_SERIALIZED:
+         {
+            byte[] bytes = new byte[in.readInt()];
+            
+            in.readFully(bytes);
+            
+            try
+            {
+               return (Serializable)new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+            }
+            catch (ClassNotFoundException cnfe)
+            {
+               throw new IOException(cnfe);
+            }
+         }
+      }
+      
+      throw new IOException("Unknown value tag: " + tag);
+   }
+   
+   private static void writeNodeIDs(DataOutputStream out, Collection<String> nodeIDs, Model model) throws IOException
+   {
+      out.writeShort(nodeIDs.size());
+      
+      for (String nodeID : nodeIDs)
+         out.writeShort(model.getBoard().getNode(nodeID).getIndex());
+   }
+   
+   private static ArrayList<Node> readNodes(DataInputStream in, Model model) throws IOException
+   {
+      int size = in.readShort();
+      ArrayList<Node> nodes = new ArrayList<Node>(size);
+      
+      for (int ndx = 0; ndx < size; ndx++)
+         nodes.add(readNode(in.readShort(), model));
+      
+      return nodes;
+   }
+   
+   private static Node readNode(int index, Model model) throws IOException
+   {
+      if (model == null)
+         throw new IOException("Cannot decode a node before receiving the model");
+      
+      return model.getBoard().getNode(index);
+   }
+   
+   private static Player readPlayer(int number, Model model) throws IOException
+   {
+      if (number == NO_PLAYER)
+         return null;
+      
+      if (model == null)
+         throw new IOException("Cannot decode a player before receiving the model");
+      
+      return model.getPlayer(number);
+   }
+   
+   private static ServerModel getServerModel(Model model, String what) throws IOException
+   {
+      if (!(model instanceof ServerModel))
+         throw new IOException("Cannot decode a " + what + " without the server's model");
+      
+      return (ServerModel)model;
+   }
+   
+   private static boolean isIntegerPair(Pair<?, ?> pair)
+   {
+      return pair.getFirst() instanceof Integer && pair.getSecond() instanceof Integer;
+   }
+   
+   private static boolean isPlayerIntegerPair(Pair<?, ?> pair)
+   {
+      return pair.getFirst() instanceof Player && pair.getSecond() instanceof Integer;
+   }
+   
+   private static boolean isListOf(List<?> list, Class<?> elementType)
+   {
+      if (list.isEmpty())
+         return false;
+      
+      for (Object element : list)
+         if (!elementType.isInstance(element))
+            return false;
+      
+      return true;
+   }
+}
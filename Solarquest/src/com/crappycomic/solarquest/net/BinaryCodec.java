@@ -0,0 +1,111 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+import java.util.*;
+
+import com.crappycomic.solarquest.model.*;
+import com.crappycomic.solarquest.view.*;
+
+/**
+ * Encodes {@link ViewMessage}s and {@link ModelMessage}s as a handful of bytes, the way
+ * {@link ValueCodec} writes them for saved games and journals. A {@link ViewMessageBatch} is a
+ * count followed by its messages in the same form. Anything else, such as the {@link ClientModel},
+ * falls back to Java serialization inside the frame.
+ * <p>
+ * Neither end of a connection holds a {@link ServerModel}, so {@link Card cards} and
+ * {@link Trade trades} are serialized, too. Any change to {@link ValueCodec}'s format requires a
+ * new {@link #VERSION}; version 2 follows its tags.
+ */
+class BinaryCodec implements Codec
+{
+   static final int VERSION = 2;
+   
+   private static final byte TAG_SERIALIZED = 0;
+   private static final byte TAG_VIEW_MESSAGE = 1;
+   private static final byte TAG_MODEL_MESSAGE = 2;
+   private static final byte TAG_VIEW_MESSAGE_BATCH = 3;
+   
+   private Model model;
+   
+   @Override
+   public int getVersion()
+   {
+      return VERSION;
+   }
+   
+   @Override
+   public void setModel(Model model)
+   {
+      this.model = model;
+   }
+   
+   @Override
+   public byte[] encode(Object object) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+      DataOutputStream out = new DataOutputStream(bytes);
+      
+      if (object instanceof ViewMessage)
+      {
+         out.writeByte(TAG_VIEW_MESSAGE);
+         ValueCodec.writeViewMessage(out, (ViewMessage)object, model);
+      }
+      else if (object instanceof ViewMessageBatch)
+      {
+         List<ViewMessage> messages = ((ViewMessageBatch)object).getMessages();
+         
+         out.writeByte(TAG_VIEW_MESSAGE_BATCH);
+         out.writeShort(messages.size());
+         
+         for (ViewMessage message : messages)
+            ValueCodec.writeViewMessage(out, message, model);
+      }
+      else if (object instanceof ModelMessage)
+      {
+         out.writeByte(TAG_MODEL_MESSAGE);
+         ValueCodec.writeModelMessage(out, (ModelMessage)object, model);
+      }
+      else
+      {
+         out.writeByte(TAG_SERIALIZED);
+         out.write(Frames.serialize(object));
+      }
+      
+      out.flush();
+      
+      return bytes.toByteArray();
+   }
+   
+   @Override
+   public Object decode(byte[] payload) throws IOException, ClassNotFoundException
+   {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      byte tag = in.readByte();
+      
+      switch (tag)
+      {
+         case TAG_VIEW_MESSAGE:
+            return ValueCodec.readViewMessage(in, model);
+         case TAG_VIEW_MESSAGE_BATCH:
+         {
+            int size = in.readUnsignedShort();
+            ArrayList<ViewMessage> messages = new ArrayList<ViewMessage>(size);
+            
+            for (int ndx = 0; ndx < size; ndx++)
+               messages.add(ValueCodec.readViewMessage(in, model));
+            
+            return new ViewMessageBatch(messages);
+         }
+         case TAG_MODEL_MESSAGE:
+            return ValueCodec.readModelMessage(in, model);
+         case TAG_SERIALIZED:
+            return Frames.deserialize(Arrays.copyOfRange(payload, 1, payload.length));
+      }
+      
+      throw new IOException("Unknown payload tag: " + tag);
+   }
+}
@@ -0,0 +1,40 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * An object on its way to every connection, encoded up front, by the sending thread, once under
+ * each {@link Codec} version its audience uses. Every connection using a given version writes the
+ * same bytes, through its own read-only view of one shared buffer. Serialization cost therefore
+ * grows with the number of codec versions in use rather than with the size of the audience, and
+ * nothing is left for the connections' threads to encode.
+ */
+class Broadcast
+{
+   private Map<Integer, ByteBuffer> frames = new HashMap<Integer, ByteBuffer>(4);
+   
+   /** Encodes the given object under each of the given codecs. */
+   Broadcast(Object object, Collection<Codec> codecs) throws IOException
+   {
+      for (Codec codec : codecs)
+         frames.put(codec.getVersion(), Frames.frame(codec.encode(object)).asReadOnlyBuffer());
+   }
+   
+   /** Returns a frame containing the object as encoded by the given codec, ready for writing. */
+   ByteBuffer getFrame(Codec codec)
+   {
+      ByteBuffer frame = frames.get(codec.getVersion());
+      
+      if (frame == null)
+         throw new IllegalArgumentException("Not encoded under codec version " + codec.getVersion());
+      
+      // Each connection needs its own position and limit, but not its own copy of the bytes.
+      return frame.duplicate();
+   }
+}
@@ -0,0 +1,19 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+
+/**
+ * A connection whose messages are self-contained frames, so it can write the same encoded bytes
+ * as every other connection instead of encoding each {@link Broadcast} itself.
+ */
+interface BroadcastConnection extends ServerSideConnection
+{
+   /** Returns the codec the connection encodes with, which never changes once it has one. */
+   Codec getCodec();
+   
+   void sendBroadcast(Broadcast broadcast) throws IOException;
+}
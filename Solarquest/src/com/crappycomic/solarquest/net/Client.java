@@ -7,6 +7,7 @@ package com.crappycomic.solarquest.net;
 import java.io.*;
 import java.net.*;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 
 import com.crappycomic.solarquest.model.*;
 import com.crappycomic.solarquest.view.*;
@@ -20,6 +21,12 @@ public class Client
       void starting();
    }
    
+   /** Number of times to try reconnecting after the connection drops in the middle of a game. */
+   public static final int RECONNECT_ATTEMPTS = 30;
+   
+   /** Milliseconds to wait between reconnection attempts. */
+   public static final long RECONNECT_INTERVAL = 1000;
+   
    private HandshakeObserver observer;
    
    private View view;
@@ -30,16 +37,43 @@ public class Client
    
    private boolean started;
    
+   private ThreadFactory threadFactory = ExecutionMode.getDefault().getThreadFactory();
+   
+   private Session session;
+   
+   // number of broadcast view messages applied since the session's sequence number was last set
+   private long sequence;
+   
+   private String host;
+   
+   private int port;
+   
+   private boolean framed;
+   
+   private String gameID;
+   
    public Client(HandshakeObserver observer)
    {
       this.observer = observer;
    }
    
+   /** Sets the factory used for the connection's reader thread. See {@link ExecutionMode}. */
+   public void setThreadFactory(ThreadFactory threadFactory)
+   {
+      this.threadFactory = threadFactory;
+   }
+   
    public void setView(View view)
    {
       this.view = view;
    }
    
+   /** Returns the game as this client knows it, or null if the server has not sent it yet. */
+   ClientModel getModel()
+   {
+      return model;
+   }
+   
    void setModel(ClientModel model)
    {
       model.fixOwnedNodes();
@@ -51,14 +85,98 @@ public class Client
    public void setConnection(ClientSideConnection connection)
    {
       this.connection = connection;
-      new Thread(connection).start();
+      threadFactory.newThread(connection).start();
    }
    
    void receiveMessage(ViewMessage message)
    {
+      // The server sends this one to us alone, so it does not count toward the session.
+      if (message.getType() != ViewMessage.Type.MODEL_INVALID_STATE)
+         sequence++;
+      
       model.forwardMessage(message);
    }
    
+   void receiveMessages(ViewMessageBatch batch)
+   {
+      sequence += batch.getMessages().size();
+      model.forwardMessages(batch);
+   }
+   
+   void receiveSession(Session session)
+   {
+      this.session = session;
+      sequence = session.getSequence();
+   }
+   
+   void receiveSnapshot(ModelSnapshot snapshot)
+   {
+      model.applySnapshot(snapshot);
+   }
+   
+   /**
+    * Called when a connection's reader stops. If we are in the middle of a game, tries to
+    * reconnect in the background and resume our session.
+    */
+   void connectionLost(ClientSideConnection lost)
+   {
+      if (lost != connection)
+         return;
+      
+      if (session == null || host == null)
+      {
+         System.err.println("Connection lost");
+         return;
+      }
+      
+      System.err.println("Connection lost; trying to resume");
+      
+      Thread thread = threadFactory.newThread(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            reconnect();
+         }
+      });
+      
+      thread.setDaemon(true);
+      thread.start();
+   }
+   
+   private void reconnect()
+   {
+      for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++)
+      {
+         try
+         {
+            Thread.sleep(RECONNECT_INTERVAL);
+            
+            if (framed)
+               connectFramed(host, port);
+            else
+               connectDirect(host, port);
+            
+            if (gameID != null)
+               chooseGame(gameID);
+            
+            sendObject(new Session(session.getToken(), sequence));
+            
+            return;
+         }
+         catch (InterruptedException ie)
+         {
+            return;
+         }
+         catch (IOException ioe)
+         {
+            System.err.println("Unable to reconnect: " + ioe.toString());
+         }
+      }
+      
+      System.err.println("Giving up on reconnecting");
+   }
+   
    public void sendObject(Object object)
    {
       try
@@ -76,9 +194,42 @@ public class Client
    {
       System.out.println("Connecting...");
       setConnection(new DirectClientSideConnection(this, new Socket(host, port)));
+      setAddress(host, port, false);
+      System.out.println("Connected...");
+   }
+   
+   /** Connects to a server listening with {@link Server#listenForSelectorConnections(int)}. */
+   public void connectFramed(String host, int port) throws IOException
+   {
+      System.out.println("Connecting...");
+      setConnection(new FramedClientSideConnection(this, new Socket(host, port), getModel()));
+      setAddress(host, port, true);
       System.out.println("Connected...");
    }
 
+   /**
+    * Asks to watch the game instead of playing. Once the game is underway, the server answers with
+    * the current model and every message from then on.
+    */
+   public void spectate()
+   {
+      sendObject(new Pair<Integer, String>(Server.SPECTATOR, ""));
+   }
+   
+   private void setAddress(String host, int port, boolean framed)
+   {
+      this.host = host;
+      this.port = port;
+      this.framed = framed;
+   }
+   
+   /** Asks a {@link GameHost} to route this connection to the game with the given ID. */
+   public void chooseGame(String gameID)
+   {
+      this.gameID = gameID;
+      sendObject(gameID);
+   }
+   
    void receivePlayers(Set<Integer> players)
    {
       if (started)
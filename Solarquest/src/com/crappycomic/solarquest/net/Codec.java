@@ -0,0 +1,29 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+
+import com.crappycomic.solarquest.model.Model;
+
+/**
+ * Converts the objects exchanged by a framed connection to and from frame payloads. Both ends of
+ * a connection agree on a codec {@link #getVersion() version} while connecting; see {@link Codecs}.
+ */
+interface Codec
+{
+   /** Returns the version number both ends use to refer to this codec during the handshake. */
+   int getVersion();
+   
+   /**
+    * Supplies the model that {@link com.crappycomic.solarquest.model.Node node} indices and
+    * {@link com.crappycomic.solarquest.model.Player player} numbers are resolved against when decoding.
+    */
+   void setModel(Model model);
+   
+   byte[] encode(Object object) throws IOException;
+   
+   Object decode(byte[] payload) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,76 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+
+/**
+ * Negotiates the {@link Codec} a framed connection uses. The client's first frame is a hello
+ * listing the codec versions it supports, in order of preference; the server answers with a
+ * one-byte frame naming the version it picked, and both ends switch to that codec.
+ */
+class Codecs
+{
+   /** Codec versions this build supports, most preferred first. */
+   static final int[] SUPPORTED_VERSIONS = { BinaryCodec.VERSION, SerializationCodec.VERSION };
+   
+   private static final byte[] HELLO_MAGIC = { 'S', 'Q' };
+   
+   private Codecs()
+   {
+   }
+   
+   static Codec forVersion(int version) throws IOException
+   {
+      switch (version)
+      {
+         case BinaryCodec.VERSION:
+            return new BinaryCodec();
+         case SerializationCodec.VERSION:
+            return new SerializationCodec();
+      }
+      
+      throw new IOException("Unsupported codec version: " + version);
+   }
+   
+   static byte[] createHello(int[] versions)
+   {
+      byte[] hello = new byte[HELLO_MAGIC.length + versions.length];
+      
+      System.arraycopy(HELLO_MAGIC, 0, hello, 0, HELLO_MAGIC.length);
+      
+      for (int ndx = 0; ndx < versions.length; ndx++)
+         hello[HELLO_MAGIC.length + ndx] = (byte)versions[ndx];
+      
+      return hello;
+   }
+   
+   /** Returns the first version in the client's hello that this build also supports. */
+   static int chooseVersion(byte[] hello) throws IOException
+   {
+      if (hello.length < HELLO_MAGIC.length || hello[0] != HELLO_MAGIC[0] || hello[1] != HELLO_MAGIC[1])
+         throw new IOException("Invalid codec hello");
+      
+      for (int ndx = HELLO_MAGIC.length; ndx < hello.length; ndx++)
+         for (int version : SUPPORTED_VERSIONS)
+            if (hello[ndx] == version)
+               return version;
+      
+      throw new IOException("No codec in common with client");
+   }
+   
+   static byte[] createReply(int version)
+   {
+      return new byte[] { (byte)version };
+   }
+   
+   static int readReply(byte[] reply) throws IOException
+   {
+      if (reply.length != 1)
+         throw new IOException("Invalid codec reply");
+      
+      return reply[0];
+   }
+}
@@ -9,7 +9,7 @@ import java.net.Socket;
 import java.util.Set;
 
 import com.crappycomic.solarquest.model.*;
-import com.crappycomic.solarquest.view.ViewMessage;
+import com.crappycomic.solarquest.view.*;
 
 /** Represents the client half of a direct connection via TCP/IP. */
 public class DirectClientSideConnection implements ClientSideConnection
@@ -18,14 +18,14 @@ public class DirectClientSideConnection implements ClientSideConnection
    
    private ObjectInputStream in;
    
-   private ObjectOutputStream out;
+   private SessionObjectOutputStream out;
    
    private Thread readThread;
    
    DirectClientSideConnection(Client client, Socket socket) throws IOException
    {
       this.client = client;
-      out = new ObjectOutputStream(socket.getOutputStream());
+      out = new SessionObjectOutputStream(socket.getOutputStream(), StreamResetPolicy.DEFAULT);
       in = new ObjectInputStream(socket.getInputStream());
    }
    
@@ -35,8 +35,8 @@ public class DirectClientSideConnection implements ClientSideConnection
       try
       {
          System.out.println("Client sending: " + object);
-         out.writeObject(object);
-         out.flush();
+         out.writeMessage(object);
+         out.endBurst();
          System.out.println("Sent!");
       }
       catch (IOException ioe)
@@ -79,10 +79,24 @@ public class DirectClientSideConnection implements ClientSideConnection
          {
             client.receiveMessage((ViewMessage)object);
          }
+         else if (object instanceof ViewMessageBatch)
+         {
+            client.receiveMessages((ViewMessageBatch)object);
+         }
          else if (object instanceof Set<?>)
          {
             client.receivePlayers((Set<Integer>)object);
          }
+         else if (object instanceof Session)
+         {
+            client.receiveSession((Session)object);
+         }
+         else if (object instanceof ModelSnapshot)
+         {
+            client.receiveSnapshot((ModelSnapshot)object);
+         }
       }
+      
+      client.connectionLost(this);
    }
 }
@@ -73,10 +73,11 @@ public class DirectServer implements Runnable
             if (!looping || socket == null)
                break;
             
-            DirectServerSideConnection connection = new DirectServerSideConnection(server, socket);
+            DirectServerSideConnection connection = new DirectServerSideConnection(server, socket,
+               server.getStreamResetPolicy(), server.createOutboundQueue(), server.getWriters());
             
             server.addConnection(connection);
-            new Thread(connection).start();
+            server.newThread(connection).start();
             System.out.println("Accepted connection from: " + socket.getRemoteSocketAddress());
          }
       }
@@ -6,50 +6,162 @@ package com.crappycomic.solarquest.net;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
 
 import com.crappycomic.solarquest.model.*;
 
-/** Represents the server half of a direct connection via TCP/IP. */
-public class DirectServerSideConnection implements ServerSideConnection
+/**
+ * Represents the server half of a direct connection via TCP/IP. Objects sent to it are serialized
+ * right away, by the sending thread, through a {@link SessionObjectOutputStream} that is reset
+ * according to the server's {@link StreamResetPolicy}. The bytes wait in an {@link OutboundQueue}
+ * until a writer gets to them, so a client that stops reading never blocks the game, and the game
+ * is free to change the objects as soon as they are sent. The writer runs on an executor shared by
+ * every connection, and only while the queue has something in it, so an idle connection holds no
+ * thread but its reader. It sends everything waiting as one burst, flushed together.
+ */
+public class DirectServerSideConnection implements ServerSideConnection, MeteredConnection
 {
    private Server server;
    
+   private Socket socket;
+   
    private ObjectInputStream in;
    
-   private ObjectOutputStream out;
+   private OutputStream socketOut;
+   
+   // holds each object's bytes between serializing and queueing it
+   private ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+   
+   private SessionObjectOutputStream out;
+   
+   private OutboundQueue queue;
+   
+   private Executor writers;
    
-   private boolean notifyServer;
+   private Runnable writer;
    
-   private Thread readThread;
+   // true while a writer is queued or running; guarded by writer
+   private boolean writing;
    
-   DirectServerSideConnection(Server server, Socket socket) throws IOException
+   private volatile boolean closed;
+   
+   DirectServerSideConnection(Server server, Socket socket, StreamResetPolicy policy, OutboundQueue queue,
+      Executor writers) throws IOException
    {
       this.server = server;
+      this.socket = socket;
+      this.queue = queue;
+      this.writers = writers;
+      writer = new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            writeQueuedObjects();
+         }
+      };
       in = new ObjectInputStream(socket.getInputStream());
-      out = new ObjectOutputStream(socket.getOutputStream());
+      socketOut = new BufferedOutputStream(socket.getOutputStream());
+      out = new SessionObjectOutputStream(encoded, policy);
+      
+      // The client's ObjectInputStream blocks in its constructor until it sees our header.
+      encoded.writeTo(socketOut);
+      encoded.reset();
+      socketOut.flush();
    }
    
+   /**
+    * Serializes the given object and queues the bytes for the writer thread. If the queue's policy
+    * says the connection should be dropped, closes it and throws an exception, leaving the caller
+    * to inform the server.
+    */
    @Override
    public void sendServerObject(Object object) throws IOException
+   {
+      boolean queued;
+      
+      // Objects must be queued in the order the stream serialized them.
+      synchronized (out)
+      {
+         out.writeMessage(object);
+         out.endBurst();
+         queued = queue.offer(ByteBuffer.wrap(encoded.toByteArray()), server.isSpectator(this));
+         encoded.reset();
+      }
+      
+      if (!queued)
+      {
+         IOException ioe = new IOException("Client is not keeping up; " + queue.getMetrics());
+         
+         close(ioe);
+         throw ioe;
+      }
+      
+      scheduleWriter();
+   }
+   
+   /** Has a writer empty the queue, unless one is already on its way. */
+   private void scheduleWriter()
+   {
+      synchronized (writer)
+      {
+         if (writing)
+            return;
+         
+         writing = true;
+      }
+      
+      try
+      {
+         writers.execute(writer);
+      }
+      catch (RejectedExecutionException ree)
+      {
+         drop(ree);
+      }
+   }
+   
+   /**
+    * Writes everything queued, as one burst, until the queue is empty, then goes idle until
+    * {@link #scheduleWriter()} runs it again.
+    */
+   private void writeQueuedObjects()
    {
       try
       {
-         out.writeObject(object);
+         while (true)
+         {
+            ByteBuffer bytes;
+            
+            while ((bytes = queue.poll()) != null)
+               socketOut.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            
+            socketOut.flush();
+            
+            // Anything queued before this check is ours to write; anything after schedules another writer.
+            synchronized (writer)
+            {
+               if (queue.getDepth() == 0 || closed)
+               {
+                  writing = false;
+                  return;
+               }
+            }
+         }
       }
       catch (IOException ioe)
       {
-         System.err.println("Error sending object: " + ioe.toString());
-         notifyServer = false;
-         readThread.interrupt();
-         throw ioe;
+         if (!closed)
+            System.err.println("Error sending object: " + ioe.toString());
+         
+         drop(ioe);
       }
    }
    
    @Override
    public void run()
    {
-      readThread = Thread.currentThread();
-      
       while (true)
       {
          try
@@ -60,20 +172,75 @@ public class DirectServerSideConnection implements ServerSideConnection
                server.receiveMessage(this, (ModelMessage)object);
             else if (object instanceof Pair<?, ?>)
                server.receivePlayerChoice(this, (Pair<?, ?>)object);
+            else if (object instanceof String)
+               server.receiveGameChoice(this, (String)object);
+            else if (object instanceof Session)
+               server.resumeSession(this, (Session)object);
             
             System.out.println("Server received: " + object);
          }
          catch (Exception e)
          {
-            System.err.println("Error receiving object: " + e.toString());
+            if (!closed)
+               System.err.println("Error receiving object: " + e.toString());
+            
+            drop(e);
             break;
          }
+      }
+   }
+   
+   /** Closes the socket, stops the writer, and informs the server, unless that has already happened. */
+   void drop(Exception cause)
+   {
+      if (close(cause))
+         server.playersDropped(this);
+   }
+   
+   /** Closes the socket and stops the writer. Returns false if that has already happened. */
+   private boolean close(Exception cause)
+   {
+      synchronized (this)
+      {
+         if (closed)
+            return false;
          
-         if (Thread.interrupted())
-            break;
+         closed = true;
       }
       
-      if (notifyServer)
-         server.playersDropped(this);
+      System.err.println("Dropping connection: " + cause.toString());
+      System.out.println("Connection closed: " + getMetrics());
+      queue.close();
+      
+      try
+      {
+         socket.close();
+      }
+      catch (IOException ioe)
+      {
+         System.err.println("Error closing socket: " + ioe.toString());
+      }
+      
+      return true;
+   }
+   
+   @Override
+   public long getBytesSent()
+   {
+      return out.getBytesWritten();
+   }
+   
+   @Override
+   public int getQueueDepth()
+   {
+      return queue.getDepth();
+   }
+   
+   @Override
+   public String getMetrics()
+   {
+      return out.getBytesWritten() + " bytes in " + out.getMessageCount() + " messages, "
+         + out.getHandleCount() + " objects retained, " + out.getResetCount() + " resets, "
+         + queue.getMetrics();
    }
 }
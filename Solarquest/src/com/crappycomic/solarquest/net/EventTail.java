@@ -0,0 +1,64 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.util.*;
+
+import com.crappycomic.solarquest.view.*;
+
+/**
+ * The most recent {@link ViewMessage}s broadcast in a game, numbered in the order they were sent.
+ * A client that briefly loses its connection tells the server how many it applied, and gets back
+ * only the ones it missed, provided they are still here.
+ */
+class EventTail
+{
+   /** Default number of messages kept. A few turns' worth, even for a large game. */
+   static final int DEFAULT_CAPACITY = 1024;
+   
+   private ViewMessage[] messages;
+   
+   // number of messages ever added, which is also the sequence number of the next one
+   private long sequence;
+   
+   EventTail(int capacity)
+   {
+      messages = new ViewMessage[capacity];
+   }
+   
+   synchronized void add(ViewMessage message)
+   {
+      messages[(int)(sequence % messages.length)] = message;
+      sequence++;
+   }
+   
+   synchronized void addAll(ViewMessageBatch batch)
+   {
+      for (ViewMessage message : batch.getMessages())
+         add(message);
+   }
+   
+   synchronized long getSequence()
+   {
+      return sequence;
+   }
+   
+   /**
+    * Returns every message from the given sequence number on, or null if some of them have already
+    * been overwritten or the number is not one we handed out.
+    */
+   synchronized List<ViewMessage> since(long from)
+   {
+      if (from > sequence || from < sequence - messages.length || from < 0)
+         return null;
+      
+      List<ViewMessage> missed = new ArrayList<ViewMessage>((int)(sequence - from));
+      
+      for (long next = from; next < sequence; next++)
+         missed.add(messages[(int)(next % messages.length)]);
+      
+      return missed;
+   }
+}
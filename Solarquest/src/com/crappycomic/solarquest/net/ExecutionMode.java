@@ -0,0 +1,97 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Enumerates the kinds of threads that accept loops, connection readers, and game loops can run on.
+ * The default comes from the <code>solarquest.executionMode</code> system property.
+ */
+public enum ExecutionMode
+{
+   /** One ordinary operating system thread per task, as always. */
+   PLATFORM,
+   
+   /**
+    * One virtual thread per task, so blocking reads and queue takes cost kilobytes instead of a
+    * whole thread stack. Requires a runtime that supports virtual threads; on older runtimes this
+    * quietly behaves like {@link #PLATFORM}.
+    */
+   VIRTUAL;
+   
+   public static final String PROPERTY = "solarquest.executionMode";
+   
+   private static final ThreadFactory PLATFORM_THREAD_FACTORY = new ThreadFactory()
+   {
+      @Override
+      public Thread newThread(Runnable runnable)
+      {
+         return new Thread(runnable);
+      }
+   };
+   
+   private static ThreadFactory virtualThreadFactory;
+   
+   /** Returns the mode named by the system property, or {@link #PLATFORM} if it is unset or unrecognized. */
+   public static ExecutionMode getDefault()
+   {
+      String value = System.getProperty(PROPERTY);
+      
+      if (value != null)
+      {
+         try
+         {
+            return valueOf(value.trim().toUpperCase());
+         }
+         catch (IllegalArgumentException iae)
+         {
+            System.err.println("Unknown execution mode: " + value);
+         }
+      }
+      
+      return PLATFORM;
+   }
+   
+   /** Returns true if threads created in this mode really are of the requested kind. */
+   public boolean isSupported()
+   {
+      return this == PLATFORM || getVirtualThreadFactory() != null;
+   }
+   
+   public ThreadFactory getThreadFactory()
+   {
+      if (this == VIRTUAL)
+      {
+         ThreadFactory factory = getVirtualThreadFactory();
+         
+         if (factory != null)
+            return factory;
+      }
+      
+      return PLATFORM_THREAD_FACTORY;
+   }
+   
+   /** Looks up <code>Thread.ofVirtual().factory()</code> reflectively, so this class loads on any runtime. */
+   private static synchronized ThreadFactory getVirtualThreadFactory()
+   {
+      if (virtualThreadFactory == null)
+      {
+         try
+         {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            
+            virtualThreadFactory = (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+         }
+         catch (Exception e)
+         {
+            System.err.println("Virtual threads are unavailable; using platform threads: " + e.toString());
+            virtualThreadFactory = PLATFORM_THREAD_FACTORY;
+         }
+      }
+      
+      return virtualThreadFactory == PLATFORM_THREAD_FACTORY ? null : virtualThreadFactory;
+   }
+}
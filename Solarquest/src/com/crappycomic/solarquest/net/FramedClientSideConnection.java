@@ -0,0 +1,126 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Set;
+
+import com.crappycomic.solarquest.model.*;
+import com.crappycomic.solarquest.view.*;
+
+/**
+ * Represents the client half of a framed connection to a {@link SelectorServer}. Negotiates a
+ * {@link Codec} before anything else is sent, preferring the compact {@link BinaryCodec} and
+ * falling back to Java serialization if that is all the server speaks.
+ */
+public class FramedClientSideConnection implements ClientSideConnection
+{
+   private Client client;
+   
+   private DataInputStream in;
+   
+   private OutputStream out;
+   
+   private Thread readThread;
+   
+   private Codec codec;
+   
+   /**
+    * Creates a connection for a client that already has the given model, or null if it has none
+    * yet. A client resuming its session receives messages about the model's nodes and players
+    * without receiving the model itself again, so the codec needs it from the start.
+    */
+   FramedClientSideConnection(Client client, Socket socket, ClientModel model) throws IOException
+   {
+      this(client, socket, Codecs.SUPPORTED_VERSIONS, model);
+   }
+   
+   /** Creates a connection that offers only the given codec versions, in order of preference. */
+   FramedClientSideConnection(Client client, Socket socket, int[] codecVersions, ClientModel model) throws IOException
+   {
+      this.client = client;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = socket.getOutputStream();
+      
+      Frames.writeFrame(out, Codecs.createHello(codecVersions));
+      codec = Codecs.forVersion(Codecs.readReply(Frames.readFrame(in)));
+      
+      if (model != null)
+         codec.setModel(model);
+   }
+   
+   @Override
+   public synchronized void sendClientObject(Object object) throws IOException
+   {
+      try
+      {
+         System.out.println("Client sending: " + object);
+         
+         Frames.writeFrame(out, codec.encode(object));
+      }
+      catch (IOException ioe)
+      {
+         readThread.interrupt();
+         throw ioe;
+      }
+   }
+   
+   @SuppressWarnings("unchecked")
+   @Override
+   public void run()
+   {
+      readThread = Thread.currentThread();
+      
+      while (true)
+      {
+         Object object;
+         
+         try
+         {
+            object = codec.decode(Frames.readFrame(in));
+         }
+         catch (Exception e)
+         {
+            break;
+         }
+         
+         if (Thread.interrupted())
+            break;
+         
+         System.out.println("Client received: " + object);
+         
+         if (object instanceof ClientModel)
+         {
+            codec.setModel((ClientModel)object);
+            client.starting();
+            client.setModel((ClientModel)object);
+         }
+         else if (object instanceof ViewMessage)
+         {
+            client.receiveMessage((ViewMessage)object);
+         }
+         else if (object instanceof ViewMessageBatch)
+         {
+            client.receiveMessages((ViewMessageBatch)object);
+         }
+         else if (object instanceof Set<?>)
+         {
+            client.receivePlayers((Set<Integer>)object);
+         }
+         else if (object instanceof Session)
+         {
+            client.receiveSession((Session)object);
+         }
+         else if (object instanceof ModelSnapshot)
+         {
+            client.receiveSnapshot((ModelSnapshot)object);
+         }
+      }
+      
+      client.connectionLost(this);
+   }
+}
@@ -0,0 +1,95 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts payloads to and from length-prefixed frames. Each frame is a four-byte length followed
+ * by that many bytes of payload, so a frame can be read without blocking on an object stream.
+ * What the payload means is up to the connection's {@link Codec}.
+ */
+class Frames
+{
+   /** Number of bytes used by the length prefix. */
+   static final int HEADER_LENGTH = 4;
+   
+   /** Largest payload we are willing to allocate a buffer for. */
+   static final int MAXIMUM_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+   
+   private Frames()
+   {
+   }
+   
+   /** Returns a buffer, ready for writing to a channel, containing the given payload as one frame. */
+   static ByteBuffer frame(byte[] payload)
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+      
+      buffer.putInt(payload.length);
+      buffer.put(payload);
+      buffer.flip();
+      
+      return buffer;
+   }
+   
+   /** Writes one frame containing the given payload to a blocking stream. */
+   static void writeFrame(OutputStream out, byte[] payload) throws IOException
+   {
+      ByteBuffer frame = frame(payload);
+      
+      out.write(frame.array(), 0, frame.limit());
+      out.flush();
+   }
+   
+   /** Reads one frame's payload from a blocking stream. */
+   static byte[] readFrame(DataInputStream in) throws IOException
+   {
+      int length = in.readInt();
+      
+      checkPayloadLength(length);
+      
+      byte[] payload = new byte[length];
+      
+      in.readFully(payload);
+      
+      return payload;
+   }
+   
+   /** Returns the given object as a standalone Java serialization stream. */
+   static byte[] serialize(Object object) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      
+      out.writeObject(object);
+      out.close();
+      
+      return bytes.toByteArray();
+   }
+   
+   /** Reads back an object written by {@link #serialize(Object)}. */
+   static Object deserialize(byte[] payload) throws IOException, ClassNotFoundException
+   {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+      
+      try
+      {
+         return in.readObject();
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+   
+   /** Throws an exception if the given length prefix is not a sensible payload length. */
+   static void checkPayloadLength(int length) throws IOException
+   {
+      if (length < 0 || length > MAXIMUM_PAYLOAD_LENGTH)
+         throw new IOException("Invalid frame length: " + length);
+   }
+}
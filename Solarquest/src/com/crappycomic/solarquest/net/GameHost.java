@@ -0,0 +1,217 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.crappycomic.solarquest.model.*;
+
+/**
+ * Hosts any number of concurrent games in one process. Each game keeps its own {@link Server}
+ * and {@link ServerModel}, but instead of a dedicated thread per game, every model runs as an
+ * actor on one shared, bounded pool of worker threads. Remote connections arrive through a
+ * single listening socket and are routed to a game once they send its ID
+ * (see {@link Client#chooseGame(String)}). A game is unregistered, along with its routes, as soon
+ * as it is over.
+ */
+public class GameHost
+{
+   /** Accepts connections on behalf of every hosted game and forwards them to the one they chose. */
+   private class Lobby extends Server
+   {
+      private Map<ServerSideConnection, Server> routes
+         = new ConcurrentHashMap<ServerSideConnection, Server>();
+      
+      private Lobby()
+      {
+         super(null);
+      }
+      
+      @Override
+      void addConnection(ServerSideConnection connection)
+      {
+         // Nothing to do until the connection chooses a game.
+      }
+      
+      @Override
+      void receiveGameChoice(ServerSideConnection connection, String gameID)
+      {
+         Server game = games.get(gameID);
+         
+         if (game == null)
+         {
+            sendObject("No such game: " + gameID, connection);
+            return;
+         }
+         
+         if (routes.put(connection, game) == null)
+            game.addConnection(connection);
+      }
+      
+      @Override
+      public void receivePlayerChoice(ServerSideConnection connection, Pair<?, ?> choice)
+      {
+         Server game = routes.get(connection);
+         
+         if (game != null)
+            game.receivePlayerChoice(connection, choice);
+      }
+      
+      @Override
+      void receiveMessage(ServerSideConnection connection, ModelMessage message)
+      {
+         Server game = routes.get(connection);
+         
+         if (game != null)
+            game.receiveMessage(connection, message);
+      }
+      
+      @Override
+      void resumeSession(ServerSideConnection connection, Session session)
+      {
+         Server game = routes.get(connection);
+         
+         if (game != null)
+            game.resumeSession(connection, session);
+      }
+      
+      @Override
+      boolean isSpectator(ServerSideConnection connection)
+      {
+         Server game = routes.get(connection);
+         
+         return game == null || game.isSpectator(connection);
+      }
+      
+      @Override
+      void playersDropped(ServerSideConnection connection)
+      {
+         Server game = routes.remove(connection);
+         
+         if (game != null)
+            game.playersDropped(connection);
+      }
+      
+      /** Forgets every connection routed to the given game. */
+      private void removeRoutes(Server game)
+      {
+         routes.values().removeAll(Collections.singleton(game));
+      }
+   }
+   
+   /** Keeps the routes and the registered games in step with what each game is doing. */
+   private Server.GameObserver gameObserver = new Server.GameObserver()
+   {
+      @Override
+      public void connectionRemoved(Server game, ServerSideConnection connection)
+      {
+         // The connection may have been routed elsewhere since, by resuming its session.
+         lobby.routes.remove(connection, game);
+      }
+      
+      @Override
+      public void gameOver(Server game)
+      {
+         games.values().remove(game);
+         lobby.removeRoutes(game);
+      }
+   };
+   
+   private ExecutorService workers;
+   
+   private Map<String, Server> games = new ConcurrentHashMap<String, Server>();
+   
+   private AtomicInteger nextGameNumber = new AtomicInteger();
+   
+   private Lobby lobby = new Lobby();
+   
+   /** Creates a host whose games all share the given number of worker threads. */
+   public GameHost(int workerThreads)
+   {
+      workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory()
+      {
+         private AtomicInteger nextThreadNumber = new AtomicInteger();
+         
+         @Override
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "GameHost-" + nextThreadNumber.getAndIncrement());
+            
+            thread.setDaemon(true);
+            
+            return thread;
+         }
+      });
+   }
+   
+   /**
+    * Registers a game, whose {@link Server} already has its model set, and returns the ID clients
+    * use to join it. IDs are based on {@link ServerModel#getID()} but are unique per table.
+    */
+   public String addGame(Server game)
+   {
+      String gameID = game.getModel().getID() + "-" + nextGameNumber.incrementAndGet();
+      
+      game.setGameObserver(gameObserver);
+      games.put(gameID, game);
+      
+      return gameID;
+   }
+   
+   public Server getGame(String gameID)
+   {
+      return games.get(gameID);
+   }
+   
+   public Set<String> getGameIDs()
+   {
+      return Collections.unmodifiableSet(games.keySet());
+   }
+   
+   /** Starts the given game on the shared worker pool. */
+   public void startGame(String gameID)
+   {
+      games.get(gameID).startOn(workers);
+   }
+   
+   /**
+    * Unregisters the given game and shuts it down, wherever it stands: its model stops, and
+    * everyone connected to it is disconnected.
+    */
+   public void removeGame(String gameID)
+   {
+      Server game = games.remove(gameID);
+      
+      if (game == null)
+         return;
+      
+      game.shutdown();
+      lobby.removeRoutes(game);
+   }
+   
+   public boolean listenForDirectConnections(int port)
+   {
+      return lobby.listenForDirectConnections(port);
+   }
+   
+   public boolean listenForSelectorConnections(int port, int eventLoops)
+   {
+      return lobby.listenForSelectorConnections(port, eventLoops);
+   }
+   
+   public void stopListening()
+   {
+      lobby.stopListeningForDirectConnections();
+   }
+   
+   /** Stops listening and shuts down the worker pool. Games in progress stop processing messages. */
+   public void shutdown()
+   {
+      stopListening();
+      workers.shutdown();
+   }
+}
@@ -0,0 +1,118 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Driver class that opens many idle connections to a {@link DirectServer} and reports what they
+ * cost under each {@link ExecutionMode}. Each connection parks one reader in
+ * {@link ObjectInputStream#readObject()}, exactly as a player waiting for their turn does.
+ * <p>
+ * Usage: <code>IdleConnectionBenchmark [connections] [mode...]</code>. The defaults are 10,000
+ * connections under both modes. The process may need a higher open-file limit.
+ */
+public class IdleConnectionBenchmark
+{
+   private static final int DEFAULT_CONNECTIONS = 10000;
+   
+   private static final long SETTLE_TIME = 2000;
+   
+   public static void main(String[] args) throws Exception
+   {
+      int connections = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONNECTIONS;
+      List<ExecutionMode> modes = new ArrayList<ExecutionMode>();
+      
+      for (int ndx = 1; ndx < args.length; ndx++)
+         modes.add(ExecutionMode.valueOf(args[ndx].toUpperCase()));
+      
+      if (modes.isEmpty())
+         modes.addAll(Arrays.asList(ExecutionMode.values()));
+      
+      int port = Server.DEFAULT_PORT + 100;
+      
+      for (ExecutionMode mode : modes)
+         run(mode, connections, port++);
+   }
+   
+   private static void run(ExecutionMode mode, int connectionCount, int port) throws Exception
+   {
+      if (!mode.isSupported())
+         System.out.println(mode + " is not supported by this runtime; results reflect platform threads.");
+      
+      final int[] accepted = new int[1];
+      Server server = new Server(new Server.HandshakeObserver()
+      {
+         @Override
+         public void connectionAdded(ServerSideConnection connection)
+         {
+            synchronized (accepted)
+            {
+               accepted[0]++;
+               accepted.notifyAll();
+            }
+         }
+         
+         @Override
+         public void playerAdded(ServerSideConnection connection, int player, String name)
+         {
+         }
+      });
+      
+      server.setThreadFactory(mode.getThreadFactory());
+      
+      if (!server.listenForDirectConnections(port))
+         return;
+      
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      int threadsBefore = threads.getThreadCount();
+      long heapBefore = usedHeap(memory);
+      List<Socket> sockets = new ArrayList<Socket>(connectionCount);
+      long start = System.nanoTime();
+      
+      for (int ndx = 0; ndx < connectionCount; ndx++)
+      {
+         Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+         
+         // DirectServerSideConnection reads the stream header before it registers the connection.
+         new ObjectOutputStream(socket.getOutputStream()).flush();
+         sockets.add(socket);
+      }
+      
+      synchronized (accepted)
+      {
+         while (accepted[0] < connectionCount)
+            accepted.wait();
+      }
+      
+      long elapsed = System.nanoTime() - start;
+      
+      Thread.sleep(SETTLE_TIME);
+      
+      System.out.println(mode + ": " + connectionCount + " idle connections");
+      System.out.println("  Time to accept all:      " + elapsed / 1000000 + " ms");
+      System.out.println("  Platform threads added:  " + (threads.getThreadCount() - threadsBefore));
+      System.out.println("  Heap used per connection: " + (usedHeap(memory) - heapBefore) / connectionCount + " bytes");
+      System.out.println("  Peak platform threads:   " + threads.getPeakThreadCount());
+      
+      server.stopListeningForDirectConnections();
+      
+      for (Socket socket : sockets)
+         socket.close();
+      
+      Thread.sleep(SETTLE_TIME);
+   }
+   
+   private static long usedHeap(MemoryMXBean memory)
+   {
+      System.gc();
+      
+      return memory.getHeapMemoryUsage().getUsed();
+   }
+}
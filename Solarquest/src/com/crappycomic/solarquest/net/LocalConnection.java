@@ -4,11 +4,10 @@
 
 package com.crappycomic.solarquest.net;
 
-import java.io.*;
 import java.util.Set;
 
 import com.crappycomic.solarquest.model.*;
-import com.crappycomic.solarquest.view.ViewMessage;
+import com.crappycomic.solarquest.view.*;
 
 /** A pipe, more or less, for when the {@link Server} and a {@link Client} are in the same VM. */
 public class LocalConnection implements ServerSideConnection, ClientSideConnection
@@ -29,25 +28,18 @@ public class LocalConnection implements ServerSideConnection, ClientSideConnecti
    {
       if (object instanceof ClientModel)
       {
-         try
-         {
-            ByteArrayOutputStream out;
-            
-            new ObjectOutputStream(out = new ByteArrayOutputStream()).writeObject(object);
-            
-            client.starting();
-            client.setModel((ClientModel)new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject());
-         }
-         catch (Exception e)
-         {
-            System.err.println("Exception while serializing ClientModel: " + e.toString());
-            e.printStackTrace(System.err);
-         }
+         // The server already sends a copy that stays put, so the client can keep it as is.
+         client.starting();
+         client.setModel((ClientModel)object);
       }
       else if (object instanceof ViewMessage)
       {
          client.receiveMessage((ViewMessage)object);
       }
+      else if (object instanceof ViewMessageBatch)
+      {
+         client.receiveMessages((ViewMessageBatch)object);
+      }
       else if (object instanceof Set<?>)
       {
          client.receivePlayers((Set<Integer>)object);
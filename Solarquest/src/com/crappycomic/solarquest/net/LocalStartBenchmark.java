@@ -0,0 +1,101 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+import java.util.*;
+
+import com.crappycomic.solarquest.model.*;
+
+/**
+ * Driver class that times how long a {@link LocalConnection} takes to hand the starting
+ * {@link ClientModel} to its client, the way it used to (a serialization round trip) and the way
+ * it does now (the one {@link ClientModel#copy()} the {@link Server} makes for all its
+ * connections). The game has six players, all of them local.
+ * <p>
+ * Usage: <code>LocalStartBenchmark [game] [rule set] [iterations]</code>. The defaults are the
+ * built-in 1985 game and rules, 2,000 iterations.
+ */
+public class LocalStartBenchmark
+{
+   private static final int PLAYER_COUNT = 6;
+   
+   private static final int DEFAULT_ITERATIONS = 2000;
+   
+   public static void main(String[] args) throws Exception
+   {
+      String game = args.length > 0 ? args[0] : "Solarquest_1985";
+      String ruleSetName = args.length > 1 ? args[1] : "Solarquest_1985";
+      int iterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS;
+      ServerModel serverModel = new ModelXMLLoader().loadGame(game);
+      List<Player> players = new ArrayList<Player>();
+      
+      serverModel.setRuleSet(new ModelXMLLoader().loadRuleSet(ruleSetName));
+      
+      for (int ndx = 0; ndx < PLAYER_COUNT; ndx++)
+      {
+         Player player = new Player(ndx);
+         
+         player.setName("Player " + ndx);
+         players.add(player);
+      }
+      
+      serverModel.setPlayers(players);
+      serverModel.initialize();
+      
+      System.out.println(game + ", " + PLAYER_COUNT + " local players, " + iterations + " iterations");
+      
+      // Run everything twice, and only report the second time, so the JIT has had its chance.
+      for (int pass = 0; pass < 2; pass++)
+      {
+         long[] serialized = time(serverModel, iterations, true);
+         long[] copied = time(serverModel, iterations, false);
+         
+         if (pass == 1)
+         {
+            report("serialization", serialized);
+            report("copy", copied);
+            System.out.printf("median speedup: %.1fx%n", (double)serialized[serialized.length / 2]
+               / copied[copied.length / 2]);
+         }
+      }
+   }
+   
+   private static long[] time(ServerModel serverModel, int iterations, boolean serialize) throws Exception
+   {
+      long[] times = new long[iterations];
+      
+      for (int ndx = 0; ndx < iterations; ndx++)
+      {
+         long start = System.nanoTime();
+         ClientModel clientModel = handOff(serverModel.createClientModel(), serialize);
+         
+         clientModel.fixOwnedNodes();
+         times[ndx] = System.nanoTime() - start;
+      }
+      
+      Arrays.sort(times);
+      
+      return times;
+   }
+   
+   private static ClientModel handOff(ClientModel clientModel, boolean serialize) throws Exception
+   {
+      if (!serialize)
+         return clientModel.copy();
+      
+      ByteArrayOutputStream out;
+      
+      new ObjectOutputStream(out = new ByteArrayOutputStream()).writeObject(clientModel);
+      
+      return (ClientModel)new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject();
+   }
+   
+   private static void report(String label, long[] times)
+   {
+      System.out.printf("%-14s median %8.1f us, 99th percentile %8.1f us%n", label,
+         times[times.length / 2] / 1000.0, times[times.length * 99 / 100] / 1000.0);
+   }
+}
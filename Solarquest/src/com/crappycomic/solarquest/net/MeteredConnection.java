@@ -0,0 +1,17 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+/** A connection that can report what it has sent and what it is holding on to. */
+public interface MeteredConnection
+{
+   long getBytesSent();
+   
+   /** Returns the number of objects waiting to be written. */
+   int getQueueDepth();
+   
+   /** Returns a one-line summary of the connection's metrics, suitable for logging. */
+   String getMetrics();
+}
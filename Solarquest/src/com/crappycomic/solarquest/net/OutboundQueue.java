@@ -0,0 +1,149 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A bounded queue of encoded objects waiting to be written to one connection. Objects are encoded
+ * by the thread that sends them, while whatever they refer to still holds still, so the thread
+ * that drains the queue only ever sees bytes. The game thread only ever adds to the queue, so a
+ * stalled socket costs that connection queue space instead of freezing the game. What happens
+ * when the queue is full is up to a {@link SlowConsumerPolicy}, but no connection ever holds more
+ * than {@link #MAXIMUM_OBJECTS} objects or its byte limit, whatever its policy.
+ */
+class OutboundQueue
+{
+   /** Default number of objects a connection may have waiting before it counts as slow. */
+   static final int DEFAULT_CAPACITY = 256;
+   
+   /** Default number of bytes a connection may have waiting before it is disconnected. */
+   static final long DEFAULT_MAXIMUM_BYTES = 4 * 1024 * 1024;
+   
+   /** Largest number of objects a connection may have waiting, under any policy, before it is disconnected. */
+   static final int MAXIMUM_OBJECTS = 4096;
+   
+   private int capacity;
+   
+   private long maximumBytes;
+   
+   private SlowConsumerPolicy policy;
+   
+   private ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+   
+   // the bytes waiting in the queue
+   private long bytes;
+   
+   private boolean closed;
+   
+   private int peakDepth;
+   
+   private long peakBytes;
+   
+   // the number of times the queue went past its capacity, as its policy allows
+   private int overflowCount;
+   
+   OutboundQueue(int capacity, long maximumBytes, SlowConsumerPolicy policy)
+   {
+      this.capacity = capacity;
+      this.maximumBytes = maximumBytes;
+      this.policy = policy;
+   }
+   
+   /**
+    * Adds the given encoded object to the queue. Returns false if the queue is full and the
+    * connection should be dropped instead. An object is always accepted by an empty queue, however
+    * large it is. Objects offered after the queue is closed are quietly discarded. The caller must
+    * not change the bytes afterward.
+    */
+   synchronized boolean offer(ByteBuffer object, boolean spectator)
+   {
+      if (closed)
+         return true;
+      
+      if (!queue.isEmpty() && !hasRoom(object.remaining(), spectator))
+         return false;
+      
+      queue.add(object);
+      bytes += object.remaining();
+      peakDepth = Math.max(peakDepth, queue.size());
+      peakBytes = Math.max(peakBytes, bytes);
+      
+      return true;
+   }
+   
+   /** Returns the next bytes to write without waiting, or null if there are none. */
+   synchronized ByteBuffer poll()
+   {
+      ByteBuffer object = queue.poll();
+      
+      if (object != null)
+         bytes -= object.remaining();
+      
+      return object;
+   }
+   
+   /** Discards anything still queued, and anything offered from now on. */
+   synchronized void close()
+   {
+      closed = true;
+      queue.clear();
+      bytes = 0;
+   }
+   
+   synchronized int getDepth()
+   {
+      return queue.size();
+   }
+   
+   synchronized int getPeakDepth()
+   {
+      return peakDepth;
+   }
+   
+   synchronized long getPeakBytes()
+   {
+      return peakBytes;
+   }
+   
+   /** Returns the number of objects queued while the queue was already at its capacity. */
+   synchronized int getOverflowCount()
+   {
+      return overflowCount;
+   }
+   
+   synchronized String getMetrics()
+   {
+      return "queue depth " + queue.size() + "/" + capacity + ", " + bytes + "/" + maximumBytes + " bytes (peak "
+         + peakDepth + " objects, " + peakBytes + " bytes, past capacity " + overflowCount + " times)";
+   }
+   
+   /** Returns true if the given number of bytes may join the queue, according to its limits and its policy. */
+   private boolean hasRoom(int length, boolean spectator)
+   {
+      if (queue.size() >= MAXIMUM_OBJECTS || bytes + length > maximumBytes)
+         return false;
+      
+      if (queue.size() < capacity)
+         return true;
+      
+      switch (policy)
+      {
+         case DISCONNECT:
+            return false;
+         case DROP_SPECTATOR:
+            if (spectator)
+               return false;
+            break;
+         case BUFFER:
+            break;
+      }
+      
+      overflowCount++;
+      
+      return true;
+   }
+}
@@ -0,0 +1,256 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+import java.util.*;
+
+import com.crappycomic.solarquest.model.*;
+import com.crappycomic.solarquest.view.*;
+
+/**
+ * Driver class that plays a game over a framed connection to a {@link SelectorServer}, which
+ * negotiates the {@link BinaryCodec}, drops the connection partway through, and checks that the
+ * {@link Client} resumes its session and plays on. The client controls both players and answers
+ * every prompt the simplest way it can, so no view is needed.
+ * <p>
+ * Usage: <code>ResumeDriver [turns]</code>. Plays the given number of turns before the drop and
+ * again after it; the default is 20. Exits with a nonzero status if the client does not resume.
+ */
+public class ResumeDriver
+{
+   private static final int DEFAULT_TURNS = 20;
+   
+   private static final int PLAYER_COUNT = 2;
+   
+   /** Milliseconds to wait for anything the client should do on its own, including reconnecting. */
+   private static final long TIMEOUT = 10 * Client.RECONNECT_INTERVAL;
+   
+   /** A client without a view, which keeps only what it needs to answer the game's prompts. */
+   private static class AutomaticClient extends Client
+   {
+      private ClientModel model;
+      
+      private int currentPlayer;
+      
+      private int messages;
+      
+      private int turns;
+      
+      // true if the last prompt was one this client does not know how to answer
+      private boolean stuck;
+      
+      private AutomaticClient()
+      {
+         super(null);
+      }
+      
+      @Override
+      synchronized ClientModel getModel()
+      {
+         return model;
+      }
+      
+      @Override
+      synchronized void setModel(ClientModel model)
+      {
+         model.fixOwnedNodes();
+         this.model = model;
+      }
+      
+      @Override
+      void receiveMessage(ViewMessage message)
+      {
+         receive(Collections.singletonList(message));
+      }
+      
+      @Override
+      void receiveMessages(ViewMessageBatch batch)
+      {
+         receive(batch.getMessages());
+      }
+      
+      @Override
+      synchronized void receiveSnapshot(ModelSnapshot snapshot)
+      {
+         currentPlayer = snapshot.getCurrentPlayer();
+      }
+      
+      @Override
+      void receivePlayers(Set<Integer> players)
+      {
+      }
+      
+      private void receive(List<ViewMessage> received)
+      {
+         ModelMessage answer = null;
+         
+         synchronized (this)
+         {
+            ViewMessage last = received.get(received.size() - 1);
+            
+            for (ViewMessage message : received)
+            {
+               if (message.getType() == ViewMessage.Type.MODEL_PRE_ROLL)
+                  currentPlayer = message.getPlayer().getNumber();
+            }
+            
+            messages += received.size();
+            
+            // A resumed session replays the latest prompt, which may have been answered already.
+            if (last.getType() != ViewMessage.Type.MODEL_INVALID_STATE)
+            {
+               answer = answer(last);
+               stuck = answer == null;
+            }
+            
+            notifyAll();
+         }
+         
+         if (answer != null)
+            sendObject(answer);
+      }
+      
+      @SuppressWarnings("unchecked")
+      private ModelMessage answer(ViewMessage message)
+      {
+         switch (message.getType())
+         {
+            case MODEL_PRE_ROLL:
+               return new ModelMessage(ModelMessage.Type.NO_PRE_ROLL, currentPlayer, null);
+            case MODEL_PRE_LAND:
+               return new ModelMessage(ModelMessage.Type.NO_PRE_LAND, currentPlayer, null);
+            case MODEL_POST_ROLL:
+               turns++;
+               return new ModelMessage(ModelMessage.Type.NO_POST_ROLL, currentPlayer, null);
+            case PLAYER_HAS_MULTIPLE_ALLOWED_MOVES:
+               return new ModelMessage(ModelMessage.Type.CHOOSE_ALLOWED_MOVE, currentPlayer,
+                  ((List<Node>)message.getValue()).get(0).getID());
+            default:
+               return null;
+         }
+      }
+      
+      /** Waits until the client has played the given number of turns, it gets stuck, or time runs out. */
+      private synchronized boolean awaitTurns(int target) throws InterruptedException
+      {
+         long deadline = System.currentTimeMillis() + TIMEOUT;
+         
+         while (turns < target && !stuck && System.currentTimeMillis() < deadline)
+            wait(Math.max(1, deadline - System.currentTimeMillis()));
+         
+         return turns >= target;
+      }
+      
+      /** Waits until the client has received more than the given number of messages, or time runs out. */
+      private synchronized boolean awaitMessages(int count) throws InterruptedException
+      {
+         long deadline = System.currentTimeMillis() + TIMEOUT;
+         
+         while (messages <= count && System.currentTimeMillis() < deadline)
+            wait(Math.max(1, deadline - System.currentTimeMillis()));
+         
+         return messages > count;
+      }
+   }
+   
+   public static void main(String[] args) throws Exception
+   {
+      int turns = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TURNS;
+      int port = Server.DEFAULT_PORT + 102;
+      final Set<Integer> playerNumbers = new HashSet<Integer>();
+      final List<ServerSideConnection> accepted = new ArrayList<ServerSideConnection>();
+      final Server[] server = new Server[1];
+      ServerModel model = new ModelXMLLoader().loadGame("Solarquest_1985");
+      List<Player> players = new ArrayList<Player>();
+      
+      model.setRuleSet(new ModelXMLLoader().loadRuleSet("Solarquest_1985"));
+      
+      for (int ndx = 0; ndx < PLAYER_COUNT; ndx++)
+      {
+         Player player = new Player(ndx);
+         
+         player.setName("Player " + ndx);
+         players.add(player);
+         playerNumbers.add(ndx);
+      }
+      
+      model.setPlayers(players);
+      model.initialize();
+      
+      server[0] = new Server(new Server.HandshakeObserver()
+      {
+         @Override
+         public void connectionAdded(ServerSideConnection connection)
+         {
+            server[0].setPlayers(connection, playerNumbers);
+            
+            synchronized (accepted)
+            {
+               accepted.add(connection);
+               accepted.notifyAll();
+            }
+         }
+         
+         @Override
+         public void playerAdded(ServerSideConnection connection, int player, String name)
+         {
+         }
+      });
+      
+      server[0].setModel(model);
+      model.setServer(server[0]);
+      
+      if (!server[0].listenForSelectorConnections(port))
+         System.exit(1);
+      
+      AutomaticClient client = new AutomaticClient();
+      
+      client.connectFramed("localhost", port);
+      
+      synchronized (accepted)
+      {
+         while (accepted.isEmpty())
+            accepted.wait();
+      }
+      
+      SelectorServerSideConnection connection = (SelectorServerSideConnection)accepted.get(0);
+      
+      server[0].start();
+      
+      boolean played = client.awaitTurns(turns);
+      int messagesBeforeDrop;
+      int turnsBeforeDrop;
+      
+      synchronized (client)
+      {
+         messagesBeforeDrop = client.messages;
+         turnsBeforeDrop = client.turns;
+      }
+      
+      System.out.println("Codec version " + connection.getCodec().getVersion() + ", " + turnsBeforeDrop
+         + " turns and " + messagesBeforeDrop + " messages before the drop"
+         + (played ? "" : ", stopped at a prompt this driver does not answer"));
+      
+      connection.drop(new IOException("Dropped by " + ResumeDriver.class.getSimpleName()));
+      
+      if (!client.awaitMessages(messagesBeforeDrop))
+      {
+         System.out.println("FAILED: the client did not resume its session");
+         System.exit(1);
+      }
+      
+      if (played)
+         client.awaitTurns(turnsBeforeDrop + turns);
+      
+      synchronized (client)
+      {
+         System.out.println("Resumed; " + (client.turns - turnsBeforeDrop) + " turns and "
+            + (client.messages - messagesBeforeDrop) + " messages after the drop");
+      }
+      
+      System.exit(0);
+   }
+}
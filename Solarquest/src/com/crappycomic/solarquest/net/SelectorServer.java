@@ -0,0 +1,264 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A server that uses direct connections over TCP/IP, like {@link DirectServer}, but multiplexes
+ * every socket over a small, fixed number of event loop threads instead of dedicating a blocked
+ * thread to each connection. Clients must use {@link FramedClientSideConnection}.
+ */
+public class SelectorServer
+{
+   private static int SELECT_TIMEOUT = 1000;
+   
+   /** One selector and the thread that services it. The first loop also accepts new connections. */
+   class EventLoop implements Runnable
+   {
+      private Selector selector;
+      
+      private Queue<SelectorServerSideConnection> pendingRegistrations
+         = new ConcurrentLinkedQueue<SelectorServerSideConnection>();
+      
+      private Queue<SelectorServerSideConnection> pendingWrites
+         = new ConcurrentLinkedQueue<SelectorServerSideConnection>();
+      
+      private EventLoop() throws IOException
+      {
+         selector = Selector.open();
+      }
+      
+      void register(SelectorServerSideConnection connection)
+      {
+         pendingRegistrations.add(connection);
+         selector.wakeup();
+      }
+      
+      void requestWrite(SelectorServerSideConnection connection)
+      {
+         pendingWrites.add(connection);
+         selector.wakeup();
+      }
+      
+      @Override
+      public void run()
+      {
+         while (looping)
+         {
+            try
+            {
+               selector.select(SELECT_TIMEOUT);
+            }
+            catch (IOException ioe)
+            {
+               System.err.println("Error selecting: " + ioe.toString());
+               break;
+            }
+            
+            processRegistrations();
+            processWrites();
+            
+            Iterator<SelectionKey> keyItr = selector.selectedKeys().iterator();
+            
+            while (keyItr.hasNext())
+            {
+               SelectionKey key = keyItr.next();
+               
+               keyItr.remove();
+               
+               if (!key.isValid())
+                  continue;
+               
+               if (key.isAcceptable())
+                  accept();
+               else
+                  service(key);
+            }
+         }
+         
+         try
+         {
+            selector.close();
+         }
+         catch (IOException ioe)
+         {
+            System.err.println("Error closing selector: " + ioe.toString());
+         }
+      }
+      
+      private void processRegistrations()
+      {
+         SelectorServerSideConnection connection;
+         
+         while ((connection = pendingRegistrations.poll()) != null)
+         {
+            try
+            {
+               connection.setKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+            }
+            catch (IOException ioe)
+            {
+               connection.drop(ioe);
+            }
+         }
+      }
+      
+      private void processWrites()
+      {
+         SelectorServerSideConnection connection;
+         
+         while ((connection = pendingWrites.poll()) != null)
+         {
+            SelectionKey key = connection.getKey();
+            
+            if (key == null || !key.isValid())
+               continue;
+            
+            try
+            {
+               if (!connection.write())
+                  key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            catch (IOException ioe)
+            {
+               connection.drop(ioe);
+            }
+         }
+      }
+      
+      private void service(SelectionKey key)
+      {
+         SelectorServerSideConnection connection = (SelectorServerSideConnection)key.attachment();
+         
+         try
+         {
+            if (key.isReadable())
+               connection.read();
+            
+            if (key.isValid() && key.isWritable() && connection.write())
+               key.interestOps(SelectionKey.OP_READ);
+         }
+         catch (Exception e)
+         {
+            connection.drop(e);
+         }
+      }
+   }
+   
+   private Server server;
+   
+   private int port;
+   
+   private ServerSocketChannel serverChannel;
+   
+   private EventLoop[] loops;
+   
+   private int nextLoop;
+   
+   private volatile boolean looping;
+   
+   SelectorServer(Server server, int port, int loopCount)
+   {
+      this.server = server;
+      this.port = port;
+      loops = new EventLoop[Math.max(1, loopCount)];
+      looping = true;
+   }
+   
+   public boolean createServerSocket()
+   {
+      try
+      {
+         for (int ndx = 0; ndx < loops.length; ndx++)
+            loops[ndx] = new EventLoop();
+         
+         serverChannel = ServerSocketChannel.open();
+         serverChannel.configureBlocking(false);
+         serverChannel.socket().bind(new InetSocketAddress(port));
+         serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+      }
+      catch (Exception e)
+      {
+         System.err.println("Error opening server socket: " + e.toString());
+         return false;
+      }
+      
+      return true;
+   }
+   
+   /** Starts every event loop on its own daemon thread. */
+   void start()
+   {
+      System.out.println("Waiting for selector connections...");
+      
+      for (int ndx = 0; ndx < loops.length; ndx++)
+      {
+         Thread thread = new Thread(loops[ndx], "SelectorServer-" + ndx);
+         
+         thread.setDaemon(true);
+         thread.start();
+      }
+   }
+   
+   private void accept()
+   {
+      SocketChannel channel;
+      
+      try
+      {
+         channel = serverChannel.accept();
+         
+         if (channel == null)
+            return;
+         
+         channel.configureBlocking(false);
+         channel.socket().setTcpNoDelay(true);
+      }
+      catch (IOException ioe)
+      {
+         System.err.println("Error accepting connection: " + ioe.toString());
+         return;
+      }
+      
+      EventLoop loop = loops[nextLoop++ % loops.length];
+      SelectorServerSideConnection connection = new SelectorServerSideConnection(server, loop, channel);
+      
+      // The connection is handed to the server once its codec has been negotiated.
+      loop.register(connection);
+      System.out.println("Accepted connection from: " + channel.socket().getRemoteSocketAddress());
+   }
+   
+   /** Stops accepting new connections. Connections already established continue to be serviced. */
+   void stopAccepting()
+   {
+      try
+      {
+         if (serverChannel != null)
+            serverChannel.close();
+      }
+      catch (IOException ioe)
+      {
+         System.err.println("Error closing server socket: " + ioe.toString());
+      }
+      
+      System.out.println("Server no longer listening");
+   }
+   
+   /** Stops accepting new connections and shuts down every event loop. */
+   void close()
+   {
+      stopAccepting();
+      looping = false;
+      
+      for (EventLoop loop : loops)
+         if (loop != null)
+            loop.selector.wakeup();
+   }
+}
@@ -0,0 +1,260 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.crappycomic.solarquest.model.*;
+
+/**
+ * Represents the server half of a framed connection serviced by a {@link SelectorServer}. Never
+ * blocks: reads and writes happen on the event loop thread that owns the channel. The first frame
+ * received is the client's codec hello; the connection is not handed to the {@link Server} until
+ * a {@link Codec} has been agreed upon.
+ * <p>
+ * Objects sent to the connection are encoded right away, by the sending thread, so the game is free
+ * to change them as soon as they are sent. The frames wait in an {@link OutboundQueue} until the
+ * event loop is ready to write them.
+ */
+public class SelectorServerSideConnection implements BroadcastConnection, MeteredConnection
+{
+   private Server server;
+   
+   private SelectorServer.EventLoop loop;
+   
+   private SocketChannel channel;
+   
+   private SelectionKey key;
+   
+   private ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_LENGTH);
+   
+   private ByteBuffer payload;
+   
+   private OutboundQueue queue;
+   
+   // the frame currently being written; touched only by the event loop
+   private ByteBuffer pendingFrame;
+   
+   private volatile boolean closed;
+   
+   private Codec codec;
+   
+   private AtomicLong bytesSent = new AtomicLong();
+   
+   SelectorServerSideConnection(Server server, SelectorServer.EventLoop loop, SocketChannel channel)
+   {
+      this.server = server;
+      queue = server.createOutboundQueue();
+      this.loop = loop;
+      this.channel = channel;
+   }
+   
+   /**
+    * Encodes the given object and queues the frame for writing. If the queue's policy says the
+    * connection should be dropped, closes it and throws an exception, leaving the caller to inform
+    * the server. Objects sent after the connection has dropped are discarded.
+    */
+   @Override
+   public void sendServerObject(Object object) throws IOException
+   {
+      if (!closed)
+         enqueue(Frames.frame(codec.encode(object)));
+   }
+   
+   /** Queues the given broadcast, whose encoded frame is shared with other connections. */
+   @Override
+   public void sendBroadcast(Broadcast broadcast) throws IOException
+   {
+      if (!closed)
+         enqueue(broadcast.getFrame(codec));
+   }
+   
+   private void enqueue(ByteBuffer frame) throws IOException
+   {
+      if (queue.offer(frame, server.isSpectator(this)))
+      {
+         loop.requestWrite(this);
+         return;
+      }
+      
+      IOException ioe = new IOException("Client is not keeping up; " + queue.getMetrics());
+      
+      close(ioe);
+      throw ioe;
+   }
+   
+   @Override
+   public Codec getCodec()
+   {
+      return codec;
+   }
+   
+   /** Does nothing, since the event loop services this connection. */
+   @Override
+   public void run()
+   {
+   }
+   
+   @Override
+   public long getBytesSent()
+   {
+      return bytesSent.get();
+   }
+   
+   @Override
+   public int getQueueDepth()
+   {
+      return queue.getDepth();
+   }
+   
+   /** Framed connections encode each message on its own, so there is no handle table to report. */
+   @Override
+   public String getMetrics()
+   {
+      return bytesSent.get() + " bytes sent, codec version " + (codec == null ? "none" : String.valueOf(codec.getVersion()))
+         + ", " + queue.getMetrics();
+   }
+   
+   SocketChannel getChannel()
+   {
+      return channel;
+   }
+   
+   void setKey(SelectionKey key)
+   {
+      this.key = key;
+   }
+   
+   SelectionKey getKey()
+   {
+      return key;
+   }
+   
+   /** Reads whatever is available without blocking, dispatching every complete frame. */
+   void read() throws IOException, ClassNotFoundException
+   {
+      while (true)
+      {
+         ByteBuffer buffer = payload == null ? header : payload;
+         
+         if (channel.read(buffer) < 0)
+            throw new EOFException("Connection closed by client");
+         
+         if (buffer.hasRemaining())
+            return;
+         
+         if (payload == null)
+         {
+            header.flip();
+            
+            int length = header.getInt();
+            
+            header.clear();
+            Frames.checkPayloadLength(length);
+            payload = ByteBuffer.allocate(length);
+         }
+         else if (codec == null)
+         {
+            negotiateCodec(payload.array());
+            payload = null;
+         }
+         else
+         {
+            Object object = codec.decode(payload.array());
+            
+            payload = null;
+            receiveObject(object);
+         }
+      }
+   }
+   
+   private void negotiateCodec(byte[] hello) throws IOException
+   {
+      int version = Codecs.chooseVersion(hello);
+      
+      codec = Codecs.forVersion(version);
+      queue.offer(Frames.frame(Codecs.createReply(version)), false);
+      loop.requestWrite(this);
+      server.addConnection(this);
+   }
+   
+   private void receiveObject(Object object)
+   {
+      if (object instanceof ModelMessage)
+         server.receiveMessage(this, (ModelMessage)object);
+      else if (object instanceof Pair<?, ?>)
+         server.receivePlayerChoice(this, (Pair<?, ?>)object);
+      else if (object instanceof String)
+         server.receiveGameChoice(this, (String)object);
+      else if (object instanceof Session)
+         server.resumeSession(this, (Session)object);
+      
+      System.out.println("Server received: " + object);
+   }
+   
+   /** Writes as much queued data as possible. Returns true if nothing remains to be written. */
+   boolean write() throws IOException
+   {
+      while (true)
+      {
+         if (pendingFrame == null)
+         {
+            pendingFrame = queue.poll();
+            
+            if (pendingFrame == null)
+               return true;
+            
+            bytesSent.addAndGet(pendingFrame.remaining());
+         }
+         
+         channel.write(pendingFrame);
+         
+         if (pendingFrame.hasRemaining())
+            return false;
+         
+         pendingFrame = null;
+      }
+   }
+   
+   /** Closes the channel and informs the server, unless that has already happened. */
+   void drop(Exception cause)
+   {
+      if (close(cause))
+         server.playersDropped(this);
+   }
+   
+   /** Closes the channel. Returns false if that has already happened. */
+   private boolean close(Exception cause)
+   {
+      synchronized (this)
+      {
+         if (closed)
+            return false;
+         
+         closed = true;
+      }
+      
+      System.err.println("Dropping connection: " + cause.toString());
+      
+      if (key != null)
+         key.cancel();
+      
+      try
+      {
+         channel.close();
+      }
+      catch (IOException ioe)
+      {
+         System.err.println("Error closing channel: " + ioe.toString());
+      }
+      
+      queue.close();
+      
+      return true;
+   }
+}
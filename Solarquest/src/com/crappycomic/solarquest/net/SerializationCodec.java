@@ -0,0 +1,38 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.IOException;
+
+import com.crappycomic.solarquest.model.Model;
+
+/** Encodes every object with Java serialization. The fallback when no better codec is shared. */
+class SerializationCodec implements Codec
+{
+   static final int VERSION = 0;
+   
+   @Override
+   public int getVersion()
+   {
+      return VERSION;
+   }
+   
+   @Override
+   public void setModel(Model model)
+   {
+   }
+   
+   @Override
+   public byte[] encode(Object object) throws IOException
+   {
+      return Frames.serialize(object);
+   }
+   
+   @Override
+   public Object decode(byte[] payload) throws IOException, ClassNotFoundException
+   {
+      return Frames.deserialize(payload);
+   }
+}
@@ -4,10 +4,14 @@
 
 package com.crappycomic.solarquest.net;
 
-import java.io.IOException;
+import java.io.*;
+import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
 
 import com.crappycomic.solarquest.model.*;
+import com.crappycomic.solarquest.view.*;
 
 /** Handles communication between the connection and the {@link ServerModel}. */
 public class Server
@@ -18,8 +22,27 @@ public class Server
       void playerAdded(ServerSideConnection connection, int player, String name);
    }
    
+   /** Told when a game is done with a connection, or done altogether. See {@link GameHost}. */
+   interface GameObserver
+   {
+      /** Called whenever the game lets go of a connection, whichever side noticed it dropping. */
+      void connectionRemoved(Server game, ServerSideConnection connection);
+      
+      /** Called once the game has sent the message saying it is over. */
+      void gameOver(Server game);
+   }
+   
    public static final int DEFAULT_PORT = 1986;
    
+   /** Number of event loop threads used by {@link #listenForSelectorConnections(int)}. */
+   public static final int DEFAULT_EVENT_LOOPS = 1;
+   
+   /** Player number a client chooses in order to watch the game instead of playing. See {@link Client#spectate()}. */
+   public static final int SPECTATOR = -1;
+   
+   /** Milliseconds a dropped client has to reconnect before its players are removed from the game. */
+   public static final long DEFAULT_RESUME_GRACE_PERIOD = 60000;
+   
    private LocalConnection localConnection;
    
    private Set<ServerSideConnection> connections;
@@ -28,12 +51,49 @@ public class Server
    
    private Thread directServerThread;
    
+   private SelectorServer selectorServer;
+   
    private Map<ServerSideConnection, Set<Integer>> playerMap;
    
    private ServerModel model;
    
    private HandshakeObserver observer;
    
+   private GameObserver gameObserver;
+   
+   private volatile boolean shutDown;
+   
+   private volatile boolean started;
+   
+   private ThreadFactory threadFactory = ExecutionMode.getDefault().getThreadFactory();
+   
+   // writes to direct connections; created with the first one
+   private ExecutorService writers;
+   
+   private StreamResetPolicy streamResetPolicy = StreamResetPolicy.DEFAULT;
+   
+   private int outboundQueueCapacity = OutboundQueue.DEFAULT_CAPACITY;
+   
+   private long outboundQueueMaximumBytes = OutboundQueue.DEFAULT_MAXIMUM_BYTES;
+   
+   private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_SPECTATOR;
+   
+   private EventTail tail = new EventTail(EventTail.DEFAULT_CAPACITY);
+   
+   private long resumeGracePeriod = DEFAULT_RESUME_GRACE_PERIOD;
+   
+   // session token of each connection that controls players
+   private Map<ServerSideConnection, String> sessionTokens
+      = Collections.synchronizedMap(new HashMap<ServerSideConnection, String>());
+   
+   // players of dropped connections that may still come back, by session token
+   private Map<String, Set<Integer>> suspendedSessions
+      = Collections.synchronizedMap(new HashMap<String, Set<Integer>>());
+   
+   private Timer resumeTimer;
+   
+   private SecureRandom tokenGenerator = new SecureRandom();
+   
    public Server(HandshakeObserver observer)
    {
       this.observer = observer;
@@ -47,7 +107,7 @@ public class Server
       
       if (success)
       {
-         directServerThread = new Thread(directServer);
+         directServerThread = newThread(directServer);
          directServerThread.setDaemon(true);
          directServerThread.start();
       }
@@ -55,6 +115,25 @@ public class Server
       return success;
    }
    
+   /**
+    * Listens for connections from {@link FramedClientSideConnection}s, servicing every socket
+    * from a fixed number of event loop threads instead of one thread per connection.
+    */
+   public boolean listenForSelectorConnections(int port)
+   {
+      return listenForSelectorConnections(port, DEFAULT_EVENT_LOOPS);
+   }
+   
+   public boolean listenForSelectorConnections(int port, int eventLoops)
+   {
+      boolean success = (selectorServer = new SelectorServer(this, port, eventLoops)).createServerSocket();
+      
+      if (success)
+         selectorServer.start();
+      
+      return success;
+   }
+   
    public void stopListeningForDirectConnections()
    {
       if (directServer != null)
@@ -62,6 +141,100 @@ public class Server
       
       if (directServerThread != null)
          directServerThread.interrupt();
+      
+      if (selectorServer != null)
+         selectorServer.stopAccepting();
+   }
+   
+   /**
+    * Sets the factory used for the accept loop, each direct connection's reader, and the game loop.
+    * Must be called before listening or starting. See {@link ExecutionMode}.
+    */
+   public void setThreadFactory(ThreadFactory threadFactory)
+   {
+      this.threadFactory = threadFactory;
+   }
+   
+   Thread newThread(Runnable runnable)
+   {
+      return threadFactory.newThread(runnable);
+   }
+   
+   /**
+    * Returns the executor shared by every direct connection's writer. A writer holds one of its
+    * threads only while its connection has something to write, so idle connections hold none, and
+    * threads left idle for a while go away.
+    */
+   synchronized Executor getWriters()
+   {
+      if (writers == null)
+      {
+         writers = Executors.newCachedThreadPool(new ThreadFactory()
+         {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = threadFactory.newThread(runnable);
+               
+               thread.setDaemon(true);
+               
+               return thread;
+            }
+         });
+      }
+      
+      return writers;
+   }
+   
+   /** Sets the policy used by direct connections accepted from now on. */
+   public void setStreamResetPolicy(StreamResetPolicy policy)
+   {
+      streamResetPolicy = policy;
+   }
+   
+   StreamResetPolicy getStreamResetPolicy()
+   {
+      return streamResetPolicy;
+   }
+   
+   /**
+    * Sets how many objects may wait to be written to any one remote connection, and what happens
+    * to a connection that falls that far behind. Applies to connections accepted from now on.
+    */
+   public void setOutboundQueuePolicy(int capacity, SlowConsumerPolicy policy)
+   {
+      setOutboundQueuePolicy(capacity, OutboundQueue.DEFAULT_MAXIMUM_BYTES, policy);
+   }
+   
+   /**
+    * Also sets how many bytes may wait to be written to any one remote connection before it is
+    * disconnected, whatever the policy.
+    */
+   public void setOutboundQueuePolicy(int capacity, long maximumBytes, SlowConsumerPolicy policy)
+   {
+      if (capacity < 1)
+         throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+      
+      if (maximumBytes < 1)
+         throw new IllegalArgumentException("Byte limit must be positive: " + maximumBytes);
+      
+      outboundQueueCapacity = capacity;
+      outboundQueueMaximumBytes = maximumBytes;
+      slowConsumerPolicy = policy;
+   }
+   
+   /**
+    * Sets how long a client that loses its connection has to resume its session before its
+    * players are removed from the game. Zero removes them immediately.
+    */
+   public void setResumeGracePeriod(long milliseconds)
+   {
+      resumeGracePeriod = milliseconds;
+   }
+   
+   OutboundQueue createOutboundQueue()
+   {
+      return new OutboundQueue(outboundQueueCapacity, outboundQueueMaximumBytes, slowConsumerPolicy);
    }
    
    public void setLocalConnection(LocalConnection connection)
@@ -75,17 +248,49 @@ public class Server
       return localConnection;
    }
    
+   /**
+    * Registers a newly accepted connection. Once the game has started, a connection receives
+    * nothing until it asks to spectate, since it has no model to apply messages to.
+    */
    void addConnection(ServerSideConnection connection)
    {
+      if (started)
+         return;
+      
       connections.add(connection);
       observer.connectionAdded(connection);
    }
    
+   /**
+    * Lets the given connection watch the game in progress. It receives a copy of the current model
+    * followed by every message from then on, and controls no players.
+    */
+   void addSpectator(ServerSideConnection connection)
+   {
+      // Transitions hold the model's lock while they send, so none can fall between the copy and the join.
+      synchronized (model)
+      {
+         ClientModel snapshot = model.createClientModel().copy();
+         
+         connections.add(connection);
+         sendObject(snapshot, connection);
+         sendObject(Collections.<Integer>emptySet(), connection);
+      }
+   }
+   
    public Set<Integer> getPlayers(ServerSideConnection connection)
    {
       return playerMap.get(connection);
    }
    
+   /** Returns true if the given connection controls no players. */
+   boolean isSpectator(ServerSideConnection connection)
+   {
+      Set<Integer> players = playerMap.get(connection);
+      
+      return players == null || players.isEmpty();
+   }
+   
    public void setPlayers(ServerSideConnection connection, Set<Integer> players)
    {
       playerMap.put(connection, players);
@@ -96,16 +301,117 @@ public class Server
       this.model = model;
    }
    
+   void setGameObserver(GameObserver gameObserver)
+   {
+      this.gameObserver = gameObserver;
+   }
+   
+   /**
+    * Sends the given object to every connection. Remote connections only queue it, so this never
+    * waits on a socket. Connections that drop along the way are skipped, and their players are
+    * dropped once every other connection has the object. Connections that can share encoded bytes
+    * receive one {@link Broadcast}, so the object is encoded once per codec rather than once per
+    * connection.
+    */
    public void sendObject(Object object)
    {
-      synchronized (connections)
+      ServerSideConnection[] connections = getConnections();
+      Broadcast broadcast = null;
+      List<ServerSideConnection> dropped = null;
+      
+      if (object instanceof ViewMessage)
+         tail.add((ViewMessage)object);
+      else if (object instanceof ViewMessageBatch)
+         tail.addAll((ViewMessageBatch)object);
+      
+      try
+      {
+         broadcast = createBroadcast(object, connections);
+      }
+      catch (IOException ioe)
+      {
+         // The connections that would have shared it drop below, having nothing to send.
+         System.err.println("Exception while encoding object: " + ioe.toString());
+      }
+      
+      for (ServerSideConnection connection : connections)
       {
-         // TODO: Concurrent modification on dropped connection!
-         for (ServerSideConnection connection : connections)
+         try
          {
-            sendObject(object, connection);
+            if (connection instanceof BroadcastConnection)
+            {
+               if (broadcast == null)
+                  throw new IOException("Object could not be encoded: " + object);
+               
+               ((BroadcastConnection)connection).sendBroadcast(broadcast);
+            }
+            else
+            {
+               connection.sendServerObject(object);
+               System.out.println("Server sent: " + object);
+            }
          }
+         catch (IOException ioe)
+         {
+            System.err.println("Exception while sending object: " + ioe.toString());
+            
+            if (dropped == null)
+               dropped = new ArrayList<ServerSideConnection>();
+            
+            dropped.add(connection);
+         }
+      }
+      
+      // Dropping players sends messages of its own, which must not overtake this one.
+      if (dropped != null)
+      {
+         for (ServerSideConnection connection : dropped)
+            playersDropped(connection);
       }
+      
+      if (gameObserver != null && isGameOver(object))
+         gameObserver.gameOver(this);
+   }
+   
+   private static boolean isGameOver(Object object)
+   {
+      if (object instanceof ViewMessage)
+         return ((ViewMessage)object).getType() == ViewMessage.Type.MODEL_GAME_OVER;
+      
+      if (object instanceof ViewMessageBatch)
+      {
+         for (ViewMessage message : ((ViewMessageBatch)object).getMessages())
+         {
+            if (message.getType() == ViewMessage.Type.MODEL_GAME_OVER)
+               return true;
+         }
+      }
+      
+      return false;
+   }
+   
+   /**
+    * Encodes the given object once under each codec the given connections share bytes under, before
+    * any of them see it. Returns null if none of them do.
+    */
+   private Broadcast createBroadcast(Object object, ServerSideConnection[] connections) throws IOException
+   {
+      Map<Integer, Codec> codecs = null;
+      
+      for (ServerSideConnection connection : connections)
+      {
+         if (connection instanceof BroadcastConnection)
+         {
+            Codec codec = ((BroadcastConnection)connection).getCodec();
+            
+            if (codecs == null)
+               codecs = new HashMap<Integer, Codec>(4);
+            
+            codecs.put(codec.getVersion(), codec);
+         }
+      }
+      
+      return codecs == null ? null : new Broadcast(object, codecs.values());
    }
    
    public void sendObject(Object object, ServerSideConnection connection)
@@ -129,26 +435,249 @@ public class Server
    
    void playersDropped(ServerSideConnection connection)
    {
-      connections.remove(connection);
-      model.playersDropped(playerMap.get(connection));  
+      // The connection may have dropped while sending on our behalf, which its acceptor never hears about.
+      if (gameObserver != null)
+         gameObserver.connectionRemoved(this, connection);
+      
+      // Both halves of a connection may notice it dropping, but only the first one counts.
+      if (!connections.remove(connection))
+         return;
+      
+      Set<Integer> players = playerMap.get(connection);
+      String token = sessionTokens.remove(connection);
+      
+      // Connections can drop before the game starts or before choosing any players, or once it has shut down.
+      if (model == null || players == null || shutDown)
+         return;
+      
+      if (token != null && resumeGracePeriod > 0)
+         suspendSession(token, connection, players);
+      else
+         model.playersDropped(players);
+   }
+   
+   /** Holds on to a dropped connection's players for a while, in case the client comes back. */
+   private void suspendSession(final String token, ServerSideConnection connection, Set<Integer> players)
+   {
+      System.out.println("Holding players " + players + " for " + resumeGracePeriod + " ms");
+      playerMap.remove(connection);
+      suspendedSessions.put(token, players);
+      
+      synchronized (this)
+      {
+         if (resumeTimer == null)
+            resumeTimer = new Timer("Server-resume", true);
+         
+         resumeTimer.schedule(new TimerTask()
+         {
+            @Override
+            public void run()
+            {
+               expireSession(token);
+            }
+         }, resumeGracePeriod);
+      }
+   }
+   
+   private void expireSession(String token)
+   {
+      Set<Integer> players = suspendedSessions.remove(token);
+      
+      if (players != null)
+      {
+         System.out.println("Players " + players + " did not come back in time");
+         model.playersDropped(players);
+      }
+   }
+   
+   /**
+    * Gives a reconnecting client back the players of its session. If every message it missed is
+    * still in the tail, it gets just those; otherwise it gets a {@link ModelSnapshot} to replace
+    * its state with, the last message the game sent, and a fresh sequence number.
+    */
+   void resumeSession(ServerSideConnection connection, Session session)
+   {
+      // Transitions hold the model's lock while they send, so none can fall between the catch-up and the join.
+      synchronized (model)
+      {
+         Set<Integer> players = suspendedSessions.remove(session.getToken());
+         
+         if (players == null)
+            players = takeOverSession(session.getToken());
+         
+         if (players == null)
+         {
+            sendObject("Unable to resume; the session has expired.", connection);
+            return;
+         }
+         
+         System.out.println("Resuming players " + players + " from message " + session.getSequence());
+         connections.add(connection);
+         playerMap.put(connection, players);
+         sessionTokens.put(connection, session.getToken());
+         
+         List<ViewMessage> missed = tail.since(session.getSequence());
+         
+         if (missed == null)
+         {
+            ViewMessage lastSentMessage = model.getLastSentMessage();
+            
+            sendObject(new ModelSnapshot(model), connection);
+            
+            // The snapshot does not say what the game is waiting for, so repeat that, as a loaded game does.
+            if (lastSentMessage != null)
+               sendObject(lastSentMessage, connection);
+            
+            // Sent last, so the repeated message does not count toward the session.
+            sendObject(new Session(session.getToken(), tail.getSequence()), connection);
+         }
+         else if (!missed.isEmpty())
+         {
+            sendObject(new ViewMessageBatch(missed), connection);
+         }
+      }
+   }
+   
+   /**
+    * Detaches a session from a connection we have not noticed dropping yet, since the client
+    * evidently has. Returns the session's players, or null if no connection has the session.
+    */
+   private Set<Integer> takeOverSession(String token)
+   {
+      synchronized (sessionTokens)
+      {
+         for (Map.Entry<ServerSideConnection, String> entry : sessionTokens.entrySet())
+         {
+            if (entry.getValue().equals(token))
+            {
+               ServerSideConnection stale = entry.getKey();
+               
+               sessionTokens.remove(stale);
+               connections.remove(stale);
+               
+               if (gameObserver != null)
+                  gameObserver.connectionRemoved(this, stale);
+               
+               return playerMap.remove(stale);
+            }
+         }
+      }
+      
+      return null;
    }
    
    public void start()
    {
-      observer = null;
-      sendObject(model.createClientModel());
+      sendInitialState();
+      model.start(threadFactory);
+   }
+   
+   /** Starts the game as an actor scheduled on the given executor. See {@link ServerModel#startOn(Executor)}. */
+   public void startOn(Executor executor)
+   {
+      sendInitialState();
+      model.startOn(executor);
+   }
+   
+   /**
+    * Ends the game wherever it stands: its model stops, and every remote connection is closed.
+    * Players of closed connections are not held for resuming, since there is nothing to resume.
+    */
+   void shutdown()
+   {
+      shutDown = true;
       
-      for (ServerSideConnection connection : connections)
+      if (model != null)
+         model.stop();
+      
+      synchronized (this)
+      {
+         if (resumeTimer != null)
+            resumeTimer.cancel();
+      }
+      
+      suspendedSessions.clear();
+      
+      for (ServerSideConnection connection : getConnections())
       {
-         System.out.println("Sending " + playerMap.get(connection) + " to " + connection);
-         sendObject(playerMap.get(connection), connection);
+         IOException cause = new IOException("Game shut down");
+         
+         if (connection instanceof DirectServerSideConnection)
+            ((DirectServerSideConnection)connection).drop(cause);
+         else if (connection instanceof SelectorServerSideConnection)
+            ((SelectorServerSideConnection)connection).drop(cause);
       }
+   }
+   
+   private void sendInitialState()
+   {
+      observer = null;
+      started = true;
+      // The game starts changing its model as soon as this returns, so connections get a copy that stays put.
+      sendObject(model.createClientModel().copy());
       
-      model.start();
+      for (ServerSideConnection connection : getConnections())
+      {
+         Set<Integer> players = playerMap.get(connection);
+         
+         System.out.println("Sending " + players + " to " + connection);
+         sendObject(players, connection);
+         
+         // A local connection cannot drop, so it has no use for a session.
+         if (players != null && !players.isEmpty() && connection != localConnection)
+         {
+            String token = new BigInteger(128, tokenGenerator).toString(36);
+            
+            sessionTokens.put(connection, token);
+            sendObject(new Session(token, tail.getSequence()), connection);
+         }
+      }
+   }
+   
+   /** Prints the metrics of every connection that keeps any. */
+   public void printMetrics(PrintStream out)
+   {
+      for (ServerSideConnection connection : getConnections())
+      {
+         if (connection instanceof MeteredConnection)
+            out.println(connection + ": " + ((MeteredConnection)connection).getMetrics());
+      }
+   }
+   
+   /** Returns a snapshot of the connections, which may change while it is being used. */
+   private ServerSideConnection[] getConnections()
+   {
+      synchronized (connections)
+      {
+         return connections.toArray(new ServerSideConnection[connections.size()]);
+      }
+   }
+   
+   ServerModel getModel()
+   {
+      return model;
    }
 
+   /**
+    * Handles a connection's choice of player. Choosing {@link #SPECTATOR} before the game starts
+    * leaves the connection without players; choosing it afterward joins the game in progress.
+    */
    public void receivePlayerChoice(ServerSideConnection connection, Pair<?, ?> choice)
    {
+      if (choice.getFirst().equals(SPECTATOR))
+      {
+         if (started)
+            addSpectator(connection);
+         
+         return;
+      }
+      
       observer.playerAdded(connection, (Integer)choice.getFirst(), (String)choice.getSecond());
    }
+   
+   /** Called when a connection asks to join a particular game. Only a {@link GameHost} hosts more than one. */
+   void receiveGameChoice(ServerSideConnection connection, String gameID)
+   {
+      System.err.println("Ignoring request for game " + gameID + "; this server hosts only one game");
+   }
 }
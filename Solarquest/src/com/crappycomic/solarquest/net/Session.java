@@ -0,0 +1,46 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.Serializable;
+
+import com.crappycomic.solarquest.view.ViewMessage;
+
+/**
+ * Identifies a client's seat in a game, so the client can take its players back after losing its
+ * connection. The server sends one to each client that controls players, and again whenever it
+ * resets the client's position. A client resumes by sending its session back, with the sequence
+ * number replaced by the number of {@link ViewMessage}s it has applied since.
+ */
+public class Session implements Serializable
+{
+   private static final long serialVersionUID = 0;
+   
+   private String token;
+   
+   private long sequence;
+   
+   public Session(String token, long sequence)
+   {
+      this.token = token;
+      this.sequence = sequence;
+   }
+   
+   public String getToken()
+   {
+      return token;
+   }
+   
+   public long getSequence()
+   {
+      return sequence;
+   }
+   
+   @Override
+   public String toString()
+   {
+      return "Session " + sequence;
+   }
+}
@@ -0,0 +1,133 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.*;
+
+/**
+ * An {@link ObjectOutputStream} for a connection that stays open for a whole game. Messages are
+ * buffered and flushed once per burst, and the stream resets according to a
+ * {@link StreamResetPolicy} so its handle table does not keep every object ever sent reachable.
+ * Also counts the bytes written and the objects currently held in the handle table.
+ */
+class SessionObjectOutputStream extends ObjectOutputStream
+{
+   /** Counts the bytes that pass through it. */
+   private static class CountingOutputStream extends FilterOutputStream
+   {
+      private long count;
+      
+      private CountingOutputStream(OutputStream out)
+      {
+         super(out);
+      }
+      
+      @Override
+      public void write(int b) throws IOException
+      {
+         out.write(b);
+         count++;
+      }
+      
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         out.write(b, off, len);
+         count += len;
+      }
+   }
+   
+   private static final int BUFFER_SIZE = 8192;
+   
+   private CountingOutputStream counter;
+   
+   private StreamResetPolicy policy;
+   
+   private int handleCount;
+   
+   private int messageCount;
+   
+   private int messagesSinceReset;
+   
+   private long bytesAtReset;
+   
+   private int resetCount;
+   
+   SessionObjectOutputStream(OutputStream out, StreamResetPolicy policy) throws IOException
+   {
+      this(new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE)), policy);
+   }
+   
+   private SessionObjectOutputStream(CountingOutputStream counter, StreamResetPolicy policy) throws IOException
+   {
+      super(counter);
+      this.counter = counter;
+      this.policy = policy;
+      enableReplaceObject(true);
+      
+      // The peer's ObjectInputStream blocks in its constructor until it sees our header.
+      flush();
+   }
+   
+   /**
+    * Called once for each object that is about to be written in full, which is exactly when it
+    * gains an entry in the handle table. Back-references never get here.
+    */
+   @Override
+   protected Object replaceObject(Object object)
+   {
+      handleCount++;
+      
+      return object;
+   }
+   
+   /** Writes one message without flushing. Call {@link #endBurst()} once the burst is complete. */
+   void writeMessage(Object message) throws IOException
+   {
+      writeObject(message);
+      messageCount++;
+      messagesSinceReset++;
+   }
+   
+   /** Resets the stream if the policy says it is time, then flushes everything written so far. */
+   void endBurst() throws IOException
+   {
+      if (policy.isResetDue(messagesSinceReset, counter.count - bytesAtReset))
+         reset();
+      
+      flush();
+   }
+   
+   @Override
+   public void reset() throws IOException
+   {
+      super.reset();
+      handleCount = 0;
+      messagesSinceReset = 0;
+      bytesAtReset = counter.count;
+      resetCount++;
+   }
+   
+   long getBytesWritten()
+   {
+      return counter.count;
+   }
+   
+   /** Returns the number of objects the handle table is keeping reachable. */
+   int getHandleCount()
+   {
+      return handleCount;
+   }
+   
+   int getMessageCount()
+   {
+      return messageCount;
+   }
+   
+   int getResetCount()
+   {
+      return resetCount;
+   }
+}
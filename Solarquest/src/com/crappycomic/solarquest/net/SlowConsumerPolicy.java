@@ -0,0 +1,28 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+/**
+ * Enumerates what a connection does when its outbound queue is full because the remote end is
+ * not reading fast enough. Whatever the policy, the game itself never waits for a slow connection.
+ */
+public enum SlowConsumerPolicy
+{
+   /** Disconnects the connection, dropping any players it controls. */
+   DISCONNECT,
+   
+   /**
+    * Keeps queuing past the capacity, so nothing is lost and the connection can still catch up.
+    * A connection that falls so far behind that it has more than
+    * {@link OutboundQueue#MAXIMUM_OBJECTS} objects or its byte limit waiting is disconnected.
+    */
+   BUFFER,
+   
+   /**
+    * Disconnects a connection that controls no players, since a spectator can always rejoin.
+    * Connections that do control players are treated as under {@link #BUFFER}.
+    */
+   DROP_SPECTATOR
+}
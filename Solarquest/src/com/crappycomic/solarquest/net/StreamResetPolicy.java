@@ -0,0 +1,70 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.net;
+
+import java.io.ObjectOutputStream;
+
+/**
+ * Decides when a {@link SessionObjectOutputStream} calls {@link ObjectOutputStream#reset()}.
+ * Resetting forgets every object already written, so the stream stops holding them in memory and
+ * the next message carries fresh copies instead of back-references to stale ones. The cost is that
+ * shared objects, like the board, are written out in full again the next time they are sent.
+ * <p>
+ * Players and nodes change between messages, and a back-reference hands the peer the object as it
+ * was when first written, so only {@link #EVERY_BURST} keeps the peer current. Policies that reset
+ * less often save bytes and are only safe for streams whose objects never change once sent.
+ * <p>
+ * The stream checks the policy at the end of each burst of messages, never in the middle of one.
+ */
+public class StreamResetPolicy
+{
+   /** Resets after every burst, so nothing outlives the burst that sent it. */
+   public static final StreamResetPolicy EVERY_BURST = new StreamResetPolicy(1, 0);
+   
+   /** Never resets. This is how the streams behaved before there was a policy. */
+   public static final StreamResetPolicy NEVER = new StreamResetPolicy(0, 0);
+   
+   /** Resets after every burst, since the objects sent during a game keep changing. */
+   public static final StreamResetPolicy DEFAULT = EVERY_BURST;
+   
+   private int messagesPerReset;
+   
+   private long bytesPerReset;
+   
+   /**
+    * Creates a policy that resets once either many messages or many bytes have been written since
+    * the last reset. Zero means no limit of that kind.
+    */
+   public StreamResetPolicy(int messagesPerReset, long bytesPerReset)
+   {
+      if (messagesPerReset < 0 || bytesPerReset < 0)
+         throw new IllegalArgumentException("Limits cannot be negative");
+      
+      this.messagesPerReset = messagesPerReset;
+      this.bytesPerReset = bytesPerReset;
+   }
+   
+   public int getMessagesPerReset()
+   {
+      return messagesPerReset;
+   }
+   
+   public long getBytesPerReset()
+   {
+      return bytesPerReset;
+   }
+   
+   boolean isResetDue(int messages, long bytes)
+   {
+      return (messagesPerReset > 0 && messages >= messagesPerReset)
+         || (bytesPerReset > 0 && bytes >= bytesPerReset);
+   }
+   
+   @Override
+   public String toString()
+   {
+      return "StreamResetPolicy[messages=" + messagesPerReset + ", bytes=" + bytesPerReset + "]";
+   }
+}
@@ -535,6 +535,46 @@ public class GraphicView extends View
       });
    }
    
+   @Override
+   public void modelResynchronized()
+   {
+      SwingUtilities.invokeLater(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            for (Player player : model.getPlayers())
+            {
+               playersPanel.updateNode(player);
+               playersPanel.updateCash(player, player.getCash());
+               playersPanel.updateFuel(player, player.getFuel());
+               playersPanel.updateFuelStations(player, player.getFuelStations());
+               playersPanel.updateTotalWorth(player);
+               
+               if (player.isGameOver())
+                  playersPanel.gameOver(player);
+            }
+            
+            boardPanel.updateBoard();
+         }
+      });
+   }
+   
+   /** Processes the whole transition in one trip to the event dispatch thread. */
+   @Override
+   public void receiveMessages(final List<ViewMessage> messages)
+   {
+      SwingUtilities.invokeLater(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            for (ViewMessage message : messages)
+               processMessage(message);
+         }
+      });
+   }
+   
    @Override
    protected void processMessage(ViewMessage message)
    {
@@ -72,7 +72,7 @@ public class NodePanel extends JPanel
          java.util.List<Integer> rents = node.getRents();
          java.util.List<Integer> fuels = node.getFuels();
          boolean showFuels = fuels != null;
-         int highlight = node.getOwner() == null ? -1 : node.getOwner().getGroupCount(node.getGroup());
+         int highlight = node.getOwner() == null ? -1 : node.getOwner().getGroupCount(node);
          JPanel ownedPanel;
          JPanel rentPanel;
          JPanel fuelPanel;
@@ -5,9 +5,7 @@
 package com.crappycomic.solarquest.view;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -270,6 +268,18 @@ public abstract class View
    
    public abstract void receiveMessage(ViewMessage message);
    
+   /** Called after the model's state was replaced wholesale. Views that cache any of it should refresh. */
+   public void modelResynchronized()
+   {
+   }
+   
+   /** Receives the messages of one state transition. By default, receives each one in turn. */
+   public void receiveMessages(List<ViewMessage> messages)
+   {
+      for (ViewMessage message : messages)
+         receiveMessage(message);
+   }
+   
    protected void sendMessage(ModelMessage.Type type, Player player)
    {
       sendMessage(type, player, null);
@@ -329,10 +339,6 @@ public abstract class View
    
    void save(File file) throws IOException
    {
-      ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
-      
-      out.writeObject(serverModel);
-      out.flush();
-      out.close();
+      SaveFile.save(serverModel, file);
    }
 }
@@ -12,6 +12,7 @@ public class ViewMessage implements Serializable
 {
    private static final long serialVersionUID = 4768863093404077072L;
 
+   // Saved games and journals record types by ordinal, so new ones go at the end. See SaveFile.
    public static enum Type
    {
       MODEL_PRE_ROLL,
@@ -0,0 +1,41 @@
+// Solarquest
+// Copyright (C) 2011 Colin Bartolome
+// Licensed under the GPL. See LICENSE.txt for details.
+
+package com.crappycomic.solarquest.view;
+
+import java.io.Serializable;
+import java.util.*;
+
+import com.crappycomic.solarquest.model.*;
+
+/**
+ * Every {@link ViewMessage} the {@link ServerModel} produced while handling one
+ * {@link ModelMessage}, in the order they were produced. Sent as a single object, so each
+ * connection receives a whole state transition in one write and never sees half of one.
+ */
+public class ViewMessageBatch implements Serializable
+{
+   private static final long serialVersionUID = 0;
+   
+   // declared as a list that is known to be serializable
+   private ArrayList<ViewMessage> messages;
+   
+   public ViewMessageBatch(List<ViewMessage> messages)
+   {
+      // Every batch is built in an ArrayList already, so this copies nothing in practice.
+      this.messages = messages instanceof ArrayList<?> ? (ArrayList<ViewMessage>)messages
+         : new ArrayList<ViewMessage>(messages);
+   }
+   
+   public List<ViewMessage> getMessages()
+   {
+      return Collections.unmodifiableList(messages);
+   }
+   
+   @Override
+   public String toString()
+   {
+      return messages.toString();
+   }
+}